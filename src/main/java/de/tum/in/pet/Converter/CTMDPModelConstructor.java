@@ -1,5 +1,6 @@
 package de.tum.in.pet.Converter;
 
+import de.tum.in.pet.util.ReachableStateIndex;
 import de.tum.in.probmodels.generator.PrismRewardGenerator;
 import de.tum.in.probmodels.generator.RewardGenerator;
 import de.tum.in.probmodels.util.PrismHelper;
@@ -33,18 +34,19 @@ public class CTMDPModelConstructor {
         return constructCTMDP(modelGenerator);
     }
 
+    // Builds the reachable part of the model. States are numbered in the order of their discovery, starting with the
+    // initial states.
     private CTMDPSimple constructCTMDP(ModulesFileModelGenerator generator) throws PrismException {
-        statesList = generator.createVarList().getAllStates();
-        int numStates = statesList.size();
+        ReachableStateIndex stateIndex = new ReachableStateIndex(generator);
 
-        CTMDPSimple model = new CTMDPSimple(numStates);
-        model.setStatesList(statesList);
+        CTMDPSimple model = new CTMDPSimple(stateIndex.size());
 
         int numChoices, numTransitions;
         Distribution choiceDistribution;
         String choiceLabel;
-        for (int state = 0; state < numStates; state++) {
-            generator.exploreState(statesList.get(state));
+        // The index grows while exploring, so every discovered state is explored eventually.
+        for (int state = 0; state < stateIndex.size(); state++) {
+            generator.exploreState(stateIndex.getState(state));
 
             numChoices = generator.getNumChoices();
 
@@ -58,30 +60,31 @@ public class CTMDPModelConstructor {
 
                 for (int transition = 0; transition < numTransitions; transition++) {
                     State targetState = generator.computeTransitionTarget(choice, transition);
-                    int target = statesList.indexOf(targetState);
-                    assert target != -1;
                     double prob = generator.getTransitionProbability(choice, transition);
 
                     if (ignoreLowProbability) {
                        if (prob > 1e-4) {
-                           choiceDistribution.add(target, prob);
+                           choiceDistribution.add(stateIndex.index(targetState), prob);
                        }
                     } else {
-                        choiceDistribution.add(target, prob);
+                        choiceDistribution.add(stateIndex.index(targetState), prob);
                     }
                 }
 
+                model.addStates(stateIndex.size() - model.getNumStates());
                 model.addActionLabelledChoice(state, choiceDistribution, choiceLabel);
             }
         }
 
         for (State initialState : generator.getInitialStates()) {
-            int initialStateIndex = statesList.indexOf(initialState);
+            int initialStateIndex = stateIndex.getIndex(initialState);
             assert initialStateIndex != -1;
 
             model.addInitialState(initialStateIndex);
         }
 
+        statesList = stateIndex.states();
+        model.setStatesList(statesList);
         return model;
     }
 
@@ -4,22 +4,42 @@ import explicit.CTMDP;
 import explicit.Distribution;
 import explicit.MDPSimple;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
+/**
+ * Uniformizes a CTMDP into an MDP with the given maximal exit rate. The states are split into ranges which are
+ * uniformized concurrently on a fork-join pool, each range into a buffer of its own. The buffers are added to the MDP
+ * in the order of the states afterwards, so the result does not depend on the scheduling.
+ */
 public class CTMDPUniformizer {
+    // Number of states uniformized by a single task.
+    private static final int RANGE_SIZE = 4096;
+    // Probabilities are rounded to this many units, i.e. to 5 decimal places.
+    private static final long UNITS = 100_000L;
+    // Because of floating point error, self loops may get a very low probability of the order of 1e-16. Self loops
+    // with a probability below this threshold are removed.
+    private static final double MIN_SELF_LOOP_PROBABILITY = 1e-5;
+    // Scaled probabilities are at most UNITS, so their rounding error is far below this distance.
+    private static final double EXACT_COMPARISON_DISTANCE = 1e-9;
 
     private final CTMDP ctmdp;
     private final double maxRate;
     private final MDPSimple mdpSimple;
+    private final ForkJoinPool pool;
 
     CTMDPUniformizer(CTMDP ctmdp, double maxRate) {
+        this(ctmdp, maxRate, ForkJoinPool.commonPool());
+    }
+
+    CTMDPUniformizer(CTMDP ctmdp, double maxRate, ForkJoinPool pool) {
         this.ctmdp = ctmdp;
         this.maxRate = maxRate;
+        this.pool = pool;
         mdpSimple = new MDPSimple(ctmdp.getNumStates());
     }
 
@@ -27,71 +47,81 @@ public class CTMDPUniformizer {
         int numStates = ctmdp.getNumStates();
         ctmdp.getInitialStates().forEach(mdpSimple::addInitialState);
 
-        for (int state = 0; state < numStates; state++) {
-            for (int choice=0; choice<ctmdp.getNumChoices(state); choice++) {
-                addUniformizedStateAction(state, choice);
-            }
+        UniformizedRange[] ranges = new UniformizedRange[(numStates + RANGE_SIZE - 1) / RANGE_SIZE];
+        if (ranges.length == 1) {
+            ranges[0] = uniformizeRange(0, numStates);
+        } else if (ranges.length > 1) {
+            pool.invoke(new UniformizeTask(ranges, 0, ranges.length));
         }
 
+        for (UniformizedRange range : ranges) {
+            range.addTo(mdpSimple);
+        }
         return mdpSimple;
     }
 
-    private void addUniformizedStateAction(int state, int choice) {
-        Distribution uniformizedDistribution = getUniformizedStateAction(state, choice);
-        Distribution roundedOff = getRoundedOffDistribution(state, uniformizedDistribution);
-        mdpSimple.addActionLabelledChoice(state, roundedOff, ctmdp.getAction(state, choice));
-    }
-
-    private Distribution getUniformizedStateAction(int state, int choice) {
-        Distribution distribution = new Distribution();
-
-        double stateActionRate = getStateActionRate(state, choice);
-
-        double selfLoopProb = -1;
+    private UniformizedRange uniformizeRange(int fromState, int toState) {
+        int numChoices = 0;
+        for (int state = fromState; state < toState; state++) {
+            numChoices += ctmdp.getNumChoices(state);
+        }
 
-        Iterator<Map.Entry<Integer, Double>> transitionIterator;
-        transitionIterator = ctmdp.getTransitionsIterator(state, choice);
+        UniformizedRange range = new UniformizedRange(fromState, toState, numChoices);
+        Transitions transitions = new Transitions();
+        int choiceIndex = 0;
+        for (int state = fromState; state < toState; state++) {
+            int stateChoices = ctmdp.getNumChoices(state);
+            for (int choice = 0; choice < stateChoices; choice++) {
+                uniformize(state, choice, transitions);
+                round(transitions);
+                range.distributions[choiceIndex] = transitions.toDistribution();
+                range.actions[choiceIndex] = ctmdp.getAction(state, choice);
+                choiceIndex++;
+            }
+            range.stateChoiceEnds[state - fromState] = choiceIndex;
+        }
+        return range;
+    }
 
-        double rateRatio = stateActionRate/maxRate;
+    // Stores the uniformized probabilities of the state-action pair in the transitions.
+    private void uniformize(int state, int choice, Transitions transitions) {
+        transitions.clear();
 
+        // Rate for a state action is represented as sum of all the transition probabilities of that state-action pair
+        double stateActionRate = 0;
+        int selfLoop = -1;
+        Iterator<Map.Entry<Integer, Double>> transitionIterator = ctmdp.getTransitionsIterator(state, choice);
         while (transitionIterator.hasNext()) {
             Map.Entry<Integer, Double> transition = transitionIterator.next();
             int targetState = transition.getKey();
             double transitionRate = transition.getValue();
-            double probability = transitionRate/stateActionRate;
+            if (targetState == state) {
+                selfLoop = transitions.size;
+            }
+            transitions.add(targetState, transitionRate);
+            stateActionRate += transitionRate;
+        }
+        checkRate(stateActionRate);
 
+        double rateRatio = stateActionRate / maxRate;
+        for (int i = 0; i < transitions.size; i++) {
+            double probability = transitions.probabilities[i] / stateActionRate;
             double uniformizedRate = rateRatio * probability;
-            if (targetState == state) {
+            if (i == selfLoop) {
                 uniformizedRate += 1 - rateRatio;
-                selfLoopProb = uniformizedRate;
             }
-
-            distribution.add(targetState, uniformizedRate);
+            transitions.probabilities[i] = uniformizedRate;
         }
 
-
         // We haven't added self loop probability, because there is no transition with self loop for this choice
-        if (selfLoopProb == -1) {
-            selfLoopProb = 1 - rateRatio;
+        if (selfLoop == -1) {
+            double selfLoopProb = 1 - rateRatio;
             if (selfLoopProb > 0) {
-                distribution.add(state, selfLoopProb);
+                selfLoop = transitions.size;
+                transitions.add(state, selfLoopProb);
             }
         }
-
-        return distribution;
-    }
-
-    private double getStateActionRate(int state, int choice) {
-        // Rate for a state action is represented as sum of all the transition probabilities of that state-action pair
-        double stateActionRate = 0;
-        Iterator<Map.Entry<Integer, Double>> transitionIterator = ctmdp.getTransitionsIterator(state, choice);
-        while (transitionIterator.hasNext()) {
-            Map.Entry<Integer, Double> transition = transitionIterator.next();
-            stateActionRate += transition.getValue();
-        }
-
-        checkRate(stateActionRate);
-        return stateActionRate;
+        transitions.selfLoop = selfLoop;
     }
 
     private static void checkRate(double rate) {
@@ -100,49 +130,159 @@ public class CTMDPUniformizer {
         }
     }
 
-    private Distribution getRoundedOffDistribution(int state, Distribution uniformizedDistribution) {
-        if (uniformizedDistribution.contains(state)) {
-            double prob = uniformizedDistribution.get(state);
+    /**
+     * Rounds the probabilities half up to 5 decimal places. The rounding is computed on multiples of 10^-5, so the
+     * difference of the sum to 1 is known exactly and added to the most likely transition, which keeps it positive.
+     * Afterwards, the last transition with a positive probability is set to 1 minus the sum of the transitions before
+     * it, so that summing up the probabilities in order gives exactly 1.
+     */
+    static void round(Transitions transitions) {
+        int selfLoop = transitions.selfLoop;
+        if (selfLoop != -1 && transitions.probabilities[selfLoop] < MIN_SELF_LOOP_PROBABILITY) {
+            transitions.remove(selfLoop);
+        }
+        if (transitions.size == 0) {
+            return;
+        }
 
-            // Because of floating point error, sometimes self loops may have very low probability of the order of
-            // e-16. We remove self loop probabilities if they are less than 1e-5
-            if (prob < 1e-5) {
-                uniformizedDistribution.set(state, 0.0d);
+        long unitSum = 0;
+        int largest = 0;
+        for (int i = 0; i < transitions.size; i++) {
+            long units = roundHalfUp(transitions.probabilities[i]);
+            transitions.units[i] = units;
+            unitSum += units;
+            if (units > transitions.units[largest]) {
+                largest = i;
             }
         }
+        transitions.units[largest] += UNITS - unitSum;
 
-        // Probabilities rounded up to 5 decimal places
-        DecimalFormat formatter = new DecimalFormat("#.#####");
-        formatter.setRoundingMode(RoundingMode.HALF_UP);
-
+        int last = 0;
+        for (int i = 0; i < transitions.size; i++) {
+            transitions.probabilities[i] = transitions.units[i] / (double) UNITS;
+            if (transitions.units[i] > 0) {
+                last = i;
+            }
+        }
+        // The error of the floating point sum is far below the smallest positive probability of 10^-5. 1 - sum is
+        // exact for a sum of at least 0.5 and otherwise rounded by less than half a unit in the last place of 1, so
+        // adding it to the sum gives exactly 1.
         double sum = 0;
+        for (int i = 0; i < last; i++) {
+            sum += transitions.probabilities[i];
+        }
+        transitions.probabilities[last] = 1.0d - sum;
+    }
 
-        Distribution roundedOffDistribution = new Distribution();
-        for (Map.Entry<Integer, Double> transition : uniformizedDistribution) {
-            int target = transition.getKey();
-            double prob = transition.getValue();
+    /**
+     * @return the probability in units of 10^-5, rounded half up with respect to the exact value of the double.
+     */
+    static long roundHalfUp(double probability) {
+        double scaled = probability * UNITS;
+        long floor = (long) Math.floor(scaled);
+        double fraction = scaled - floor;
+        if (fraction > EXACT_COMPARISON_DISTANCE && fraction < 1 - EXACT_COMPARISON_DISTANCE
+                && Math.abs(fraction - 0.5d) > EXACT_COMPARISON_DISTANCE) {
+            return fraction > 0.5d ? floor + 1 : floor;
+        }
 
-            double roundedProb = Double.parseDouble(formatter.format(prob));
-            sum += roundedProb;
-            roundedOffDistribution.add(target, roundedProb);
+        // The product may have been rounded across an integer or a half, so the floor and the rounding are decided by
+        // the exactly rounded sign of probability * UNITS - x instead.
+        while (Math.fma(probability, UNITS, -floor) < 0) {
+            floor--;
+        }
+        while (Math.fma(probability, UNITS, -(floor + 1)) >= 0) {
+            floor++;
         }
+        return Math.fma(probability, UNITS, -(floor + 0.5d)) >= 0 ? floor + 1 : floor;
+    }
 
+    // The transitions of the state-action pair being uniformized, reused for every pair of a range.
+    static final class Transitions {
+        int[] targets = new int[16];
+        double[] probabilities = new double[16];
+        long[] units = new long[16];
+        int size = 0;
+        int selfLoop = -1;
+
+        void clear() {
+            size = 0;
+            selfLoop = -1;
+        }
 
-        // The sum of probabilities should add up to 1
-        BigDecimal diff = BigDecimal.ONE.subtract(BigDecimal.valueOf(sum));
+        void add(int target, double probability) {
+            if (size == targets.length) {
+                targets = Arrays.copyOf(targets, 2 * size);
+                probabilities = Arrays.copyOf(probabilities, 2 * size);
+                units = Arrays.copyOf(units, 2 * size);
+            }
+            targets[size] = target;
+            probabilities[size] = probability;
+            size++;
+        }
+
+        void remove(int index) {
+            int moved = size - index - 1;
+            System.arraycopy(targets, index + 1, targets, index, moved);
+            System.arraycopy(probabilities, index + 1, probabilities, index, moved);
+            size--;
+        }
+
+        Distribution toDistribution() {
+            Distribution distribution = new Distribution();
+            for (int i = 0; i < size; i++) {
+                distribution.add(targets[i], probabilities[i]);
+            }
+            return distribution;
+        }
+    }
 
-        // Sometimes because of floating point error, the sum can be slightly less/more than 1.
-        // In that case we just add/subtract the small probability to the first transition.
-        if (!diff.equals(BigDecimal.ZERO)) {
+    // The uniformized choices of a range of states, in the order of the states.
+    private static final class UniformizedRange {
+        final int fromState;
+        final int[] stateChoiceEnds;
+        final Distribution[] distributions;
+        final Object[] actions;
+
+        UniformizedRange(int fromState, int toState, int numChoices) {
+            this.fromState = fromState;
+            stateChoiceEnds = new int[toState - fromState];
+            distributions = new Distribution[numChoices];
+            actions = new Object[numChoices];
+        }
 
-            Iterator<Map.Entry<Integer, Double>> supportIterator = roundedOffDistribution.iterator();
-            Map.Entry<Integer, Double> firstTransition = supportIterator.next();
-            int firstTarget = firstTransition.getKey();
-            double firstTransitionProb = firstTransition.getValue();
+        void addTo(MDPSimple mdp) {
+            int choice = 0;
+            for (int i = 0; i < stateChoiceEnds.length; i++) {
+                int state = fromState + i;
+                for (; choice < stateChoiceEnds[i]; choice++) {
+                    mdp.addActionLabelledChoice(state, distributions[choice], actions[choice]);
+                }
+            }
+        }
+    }
 
-            roundedOffDistribution.set(firstTarget, BigDecimal.valueOf(firstTransitionProb).add(diff).doubleValue());
+    // Uniformizes the ranges [from, to) by splitting them in halves until a single range is left.
+    private final class UniformizeTask extends RecursiveAction {
+        private final UniformizedRange[] ranges;
+        private final int from;
+        private final int to;
+
+        UniformizeTask(UniformizedRange[] ranges, int from, int to) {
+            this.ranges = ranges;
+            this.from = from;
+            this.to = to;
         }
 
-        return roundedOffDistribution;
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                int fromState = from * RANGE_SIZE;
+                ranges[from] = uniformizeRange(fromState, Math.min(ctmdp.getNumStates(), fromState + RANGE_SIZE));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new UniformizeTask(ranges, from, middle), new UniformizeTask(ranges, middle, to));
+        }
     }
 }
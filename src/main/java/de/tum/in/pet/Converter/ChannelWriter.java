@@ -0,0 +1,186 @@
+package de.tum.in.pet.Converter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams text into a file through a reusable direct buffer. Integers and doubles like most probabilities are formatted
+ * digit by digit straight into the buffer and ASCII strings are copied without encoding them first, so writing these
+ * doesn't allocate. Non-ASCII text and the doubles which {@link #write(double)} can't format itself are encoded or
+ * formatted by the JDK, which allocates a string.
+ */
+final class ChannelWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+    // All powers of ten up to 10^22 are exact doubles.
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+            1e13, 1e14, 1e15, 1e16, 1e17};
+    // Integers up to 2^53 are exact doubles.
+    private static final double MAX_EXACT_INTEGER = 0x1p53;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // Digits of a number in reverse order.
+    private final byte[] digits = new byte[20];
+
+    private ChannelWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the file for writing, creating it and its parent directories if necessary and truncating it otherwise.
+     */
+    static ChannelWriter open(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return new ChannelWriter(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    ChannelWriter write(char character) throws IOException {
+        if (character >= 0x80) {
+            return write(String.valueOf(character));
+        }
+        ensureRemaining(1);
+        buffer.put((byte) character);
+        return this;
+    }
+
+    ChannelWriter write(String string) throws IOException {
+        int length = string.length();
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) >= 0x80) {
+                return write(string.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int position = 0;
+        while (position < length) {
+            ensureRemaining(1);
+            int end = Math.min(length, position + buffer.remaining());
+            for (; position < end; position++) {
+                buffer.put((byte) string.charAt(position));
+            }
+        }
+        return this;
+    }
+
+    private ChannelWriter write(byte[] bytes) throws IOException {
+        int position = 0;
+        while (position < bytes.length) {
+            ensureRemaining(1);
+            int length = Math.min(bytes.length - position, buffer.remaining());
+            buffer.put(bytes, position, length);
+            position += length;
+        }
+        return this;
+    }
+
+    ChannelWriter write(long value) throws IOException {
+        ensureRemaining(digits.length);
+        if (value == Long.MIN_VALUE) {
+            return write(Long.toString(value));
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) {
+            buffer.put(digits[--count]);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a representation which reads back as the same double, in the format of {@link Double#toString}. Values
+     * from 10^-3 to 10^7, for which Double.toString uses the plain notation, are written with the fewest fraction
+     * digits which read back as the value, e.g. probabilities like 0.25 or 0.3333333333333333, without allocating.
+     * Only if these digits don't fit into a long of at most 2^53, as for 0.1 + 0.2, or the value needs the exponent
+     * notation, it is formatted by Double.toString.
+     */
+    ChannelWriter write(double value) throws IOException {
+        if (value == 0.0d) {
+            return write(1 / value > 0 ? "0.0" : "-0.0");
+        }
+        double magnitude = Math.abs(value);
+        if (magnitude >= 1e-3 && magnitude < 1e7) {
+            for (int scale = 0; scale < POWERS_OF_TEN.length; scale++) {
+                double unscaled = Math.rint(magnitude * POWERS_OF_TEN[scale]);
+                if (unscaled > MAX_EXACT_INTEGER) {
+                    break;
+                }
+                // Both operands are exact, so the quotient is the double closest to the decimal unscaled / 10^scale.
+                if (unscaled / POWERS_OF_TEN[scale] == magnitude) {
+                    return writeDecimal(value < 0, (long) unscaled, scale);
+                }
+            }
+        }
+        return write(Double.toString(value));
+    }
+
+    // Writes unscaled * 10^-scale with scale fraction digits, or one if scale is zero.
+    private ChannelWriter writeDecimal(boolean negative, long unscaled, int scale) throws IOException {
+        ensureRemaining(digits.length + 2);
+        if (negative) {
+            buffer.put((byte) '-');
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + unscaled % 10);
+            unscaled /= 10;
+        } while (unscaled != 0);
+        // Leading zeros of the fraction and the zero before the point.
+        while (count <= scale) {
+            digits[count++] = '0';
+        }
+        while (count > scale) {
+            buffer.put(digits[--count]);
+        }
+        buffer.put((byte) '.');
+        if (scale == 0) {
+            buffer.put((byte) '0');
+        }
+        while (count > 0) {
+            buffer.put(digits[--count]);
+        }
+        return this;
+    }
+
+    ChannelWriter newLine() throws IOException {
+        return write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
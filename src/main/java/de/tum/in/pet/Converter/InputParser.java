@@ -14,11 +14,13 @@ public class InputParser {
             "Constants of model/property file, comma separated list");
     public static final Option rewardModuleOption = new Option(null, "rewardModule", true, "Name of the reward module in the model file.");
     public static final Option outputFilePathOption = new Option("o", "outputPath", true, "Path to store output file. Files/Directories will be created if not present");
+    public static final Option explicitOption = new Option(null, "explicit", false, "Also export the model in PRISM's explicit format (.tra/.sta/.lab/.srew/.trew), named like the output file without its extension.");
 
     private String modelPath = null;
     private String constantsString = null;
     private String rewardStructure = null;
     private String outputFilePath = null;
+    private boolean explicitExport = false;
 
     public InputParser() {
         modelOption.setRequired(true);
@@ -29,7 +31,7 @@ public class InputParser {
     public InputValues parseUserInput(String[] args) throws PrismException, IOException {
         CommandLine commandLine = parseArgs(args);
         extractOptionValues(commandLine);
-        return new InputValues(modelPath, constantsString, rewardStructure, outputFilePath);
+        return new InputValues(modelPath, constantsString, rewardStructure, outputFilePath, explicitExport);
     }
 
     private CommandLine parseArgs(String[] args) {
@@ -42,6 +44,7 @@ public class InputParser {
         constantsString = extractConstantsString(commandLine);
         rewardStructure = extractRewardStructure(commandLine);
         outputFilePath = extractOutputFilePath(commandLine);
+        explicitExport = commandLine.hasOption(explicitOption.getLongOpt());
     }
 
     private Options getOptions() {
@@ -49,7 +52,8 @@ public class InputParser {
                 .addOption(modelOption)
                 .addOption(constantsOption)
                 .addOption(rewardModuleOption)
-                .addOption(outputFilePathOption);
+                .addOption(outputFilePathOption)
+                .addOption(explicitOption);
     }
 
     private String extractConstantsString(CommandLine commandLine) {
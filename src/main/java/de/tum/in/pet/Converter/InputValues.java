@@ -5,11 +5,14 @@ public class InputValues {
     public final String constants;
     public final String rewardStructure;
     public final String outputFilePath;
+    public final boolean explicitExport;
 
-    public InputValues(String modulePath, String constants, String rewardStructure, String outputFilePath) {
+    public InputValues(String modulePath, String constants, String rewardStructure, String outputFilePath,
+                       boolean explicitExport) {
         this.modulePath = modulePath;
         this.constants = constants;
         this.rewardStructure = rewardStructure;
         this.outputFilePath = outputFilePath;
+        this.explicitExport = explicitExport;
     }
 }
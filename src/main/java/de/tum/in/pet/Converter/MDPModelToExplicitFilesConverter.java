@@ -0,0 +1,168 @@
+package de.tum.in.pet.Converter;
+
+import explicit.MDP;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes an MDP model in PRISM's explicit format, which PRISM and Storm load much faster than a generated modules file.
+ * The files share the base path and are distinguished by their extension: .tra (transitions), .sta (states, a single
+ * variable s as in the modules file), .lab (the init and deadlock labels) and, if a reward property is given, .srew
+ * (state rewards) and .trew (transition rewards, the reward of a choice is given for each of its transitions).
+ */
+public class MDPModelToExplicitFilesConverter {
+    private final File basePath;
+    private final MDP mdpModel;
+    private final MDPModelToPrismFileConverter.RewardProperty rewardFunctions;
+
+    public MDPModelToExplicitFilesConverter(File basePath, MDP mdp,
+                                            MDPModelToPrismFileConverter.RewardProperty rewardFunctions) {
+        this.basePath = basePath;
+        this.mdpModel = mdp;
+        this.rewardFunctions = rewardFunctions;
+    }
+
+    public void safeWriteModel() {
+        try {
+            writeTransitions();
+            writeStates();
+            writeLabels();
+            if (rewardFunctions != null) {
+                writeRewards();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private ChannelWriter open(String extension) throws IOException {
+        return ChannelWriter.open(new File(basePath.getPath() + extension).toPath());
+    }
+
+    private void writeTransitions() throws IOException {
+        int numStates = mdpModel.getNumStates();
+        long numChoices = 0;
+        long numTransitions = 0;
+        for (int state = 0; state < numStates; state++) {
+            int stateChoices = mdpModel.getNumChoices(state);
+            numChoices += stateChoices;
+            for (int choice = 0; choice < stateChoices; choice++) {
+                numTransitions += mdpModel.getNumTransitions(state, choice);
+            }
+        }
+
+        try (ChannelWriter writer = open(".tra")) {
+            writer.write(numStates).write(' ').write(numChoices).write(' ').write(numTransitions).newLine();
+            for (int state = 0; state < numStates; state++) {
+                for (int choice = 0; choice < mdpModel.getNumChoices(state); choice++) {
+                    Object actionLabel = mdpModel.getAction(state, choice);
+                    Iterator<Map.Entry<Integer, Double>> transitionIterator =
+                            mdpModel.getTransitionsIterator(state, choice);
+                    while (transitionIterator.hasNext()) {
+                        Map.Entry<Integer, Double> transition = transitionIterator.next();
+                        writer.write(state).write(' ').write(choice).write(' ').write(transition.getKey())
+                                .write(' ').write(transition.getValue());
+                        if (actionLabel != null && !actionLabel.toString().isEmpty()) {
+                            writer.write(' ').write(actionLabel.toString());
+                        }
+                        writer.newLine();
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeStates() throws IOException {
+        try (ChannelWriter writer = open(".sta")) {
+            writer.write("(s)").newLine();
+            int numStates = mdpModel.getNumStates();
+            for (int state = 0; state < numStates; state++) {
+                writer.write(state).write(":(").write(state).write(')').newLine();
+            }
+        }
+    }
+
+    private void writeLabels() throws IOException {
+        boolean[] initial = new boolean[mdpModel.getNumStates()];
+        for (int initialState : mdpModel.getInitialStates()) {
+            initial[initialState] = true;
+        }
+
+        try (ChannelWriter writer = open(".lab")) {
+            writer.write("0=\"init\" 1=\"deadlock\"").newLine();
+            for (int state = 0; state < initial.length; state++) {
+                boolean deadlock = mdpModel.getNumChoices(state) == 0;
+                if (!initial[state] && !deadlock) {
+                    continue;
+                }
+                writer.write(state).write(':');
+                if (initial[state]) {
+                    writer.write(" 0");
+                }
+                if (deadlock) {
+                    writer.write(" 1");
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    private void writeRewards() throws IOException {
+        int numStates = mdpModel.getNumStates();
+
+        // Both files start with the number of non-zero entries, so the rewards are collected first.
+        IntArrayList rewardStates = new IntArrayList();
+        DoubleArrayList stateRewards = new DoubleArrayList();
+        IntArrayList rewardChoiceStates = new IntArrayList();
+        IntArrayList rewardChoices = new IntArrayList();
+        DoubleArrayList choiceRewards = new DoubleArrayList();
+        long numChoices = 0;
+        long numRewardTransitions = 0;
+        for (int state = 0; state < numStates; state++) {
+            double stateReward = rewardFunctions.getStateReward(state);
+            if (stateReward != 0d) {
+                rewardStates.add(state);
+                stateRewards.add(stateReward);
+            }
+            int stateChoices = mdpModel.getNumChoices(state);
+            numChoices += stateChoices;
+            for (int choice = 0; choice < stateChoices; choice++) {
+                double transitionReward =
+                        rewardFunctions.getTransitionReward(state, choice, mdpModel.getAction(state, choice));
+                if (transitionReward != 0d) {
+                    rewardChoiceStates.add(state);
+                    rewardChoices.add(choice);
+                    choiceRewards.add(transitionReward);
+                    numRewardTransitions += mdpModel.getNumTransitions(state, choice);
+                }
+            }
+        }
+
+        try (ChannelWriter writer = open(".srew")) {
+            writer.write(numStates).write(' ').write(rewardStates.size()).newLine();
+            for (int i = 0; i < rewardStates.size(); i++) {
+                writer.write(rewardStates.getInt(i)).write(' ').write(stateRewards.getDouble(i)).newLine();
+            }
+        }
+
+        try (ChannelWriter writer = open(".trew")) {
+            writer.write(numStates).write(' ').write(numChoices).write(' ').write(numRewardTransitions).newLine();
+            for (int i = 0; i < rewardChoices.size(); i++) {
+                int state = rewardChoiceStates.getInt(i);
+                int choice = rewardChoices.getInt(i);
+                double reward = choiceRewards.getDouble(i);
+                Iterator<Map.Entry<Integer, Double>> transitionIterator =
+                        mdpModel.getTransitionsIterator(state, choice);
+                while (transitionIterator.hasNext()) {
+                    writer.write(state).write(' ').write(choice).write(' ').write(transitionIterator.next().getKey())
+                            .write(' ').write(reward).newLine();
+                }
+            }
+        }
+    }
+}
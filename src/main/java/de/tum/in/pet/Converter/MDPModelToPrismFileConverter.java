@@ -2,8 +2,8 @@ package de.tum.in.pet.Converter;
 
 import explicit.MDP;
 
-import java.io.*;
-import java.nio.file.Files;
+import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -16,7 +16,7 @@ public class MDPModelToPrismFileConverter {
     private final MDP mdpModel;
     private final RewardProperty rewardFunctions;
 
-    private BufferedOutputStream bufferedOutputStream;
+    private ChannelWriter writer;
 
     public MDPModelToPrismFileConverter(File targetFile, MDP mdp, RewardProperty rewardFunctions){
        this.targetFile = targetFile;
@@ -26,7 +26,6 @@ public class MDPModelToPrismFileConverter {
 
     public void safeWriteModel(){
         try {
-            forceNewTargetFile();
             openOutputStream();
             writeModel();
             closeOutputStream();
@@ -64,18 +63,18 @@ public class MDPModelToPrismFileConverter {
     }
 
     private void writeModelType() throws IOException {
-        writeToBuffer("mdp");
+        writer.write("mdp");
     }
 
     private void newLines(int n) throws IOException {
         for (int i = 0; i < n; i++) {
-            writeToBuffer("\n");
+            writer.newLine();
         }
     }
 
     private void openModule() throws IOException {
         String moduleName = "default";
-        writeToBuffer("module " + moduleName);
+        writer.write("module ").write(moduleName);
     }
 
     private void declareStates() throws IOException {
@@ -83,8 +82,7 @@ public class MDPModelToPrismFileConverter {
 
         // TODO Multiple initial states?
         int firstInitialState = mdpModel.getFirstInitialState();
-        String variable = "s: [0.." + range + "] init " + firstInitialState + ";";
-        writeToBuffer(variable);
+        writer.write("s: [0..").write(range).write("] init ").write(firstInitialState).write(';');
     }
 
     private void writeTransitions() throws IOException {
@@ -99,17 +97,15 @@ public class MDPModelToPrismFileConverter {
 
     private void writeTransition(int state, int choice) throws IOException {
         Iterator<Map.Entry<Integer, Double>> transitionIterator = mdpModel.getTransitionsIterator(state, choice);
-        StringBuilder transitionString = new StringBuilder();
 
         //Action label and state name
         Object actionLabel = mdpModel.getAction(state, choice);
         String actionLabelString = actionLabel == null ? "" : actionLabel.toString();
-        transitionString
-                .append("[")
-                .append(actionLabelString)
-                .append("] s=")
-                .append(state)
-                .append(" -> ");
+        writer.write('[')
+                .write(actionLabelString)
+                .write("] s=")
+                .write(state)
+                .write(" -> ");
 
         // Transitions
         while (transitionIterator.hasNext()) {
@@ -117,29 +113,26 @@ public class MDPModelToPrismFileConverter {
             int target = transition.getKey();
             double probability = transition.getValue();
 
-            transitionString
-                    .append(probability)
-                    .append(":(s'=")
-                    .append(target)
-                    .append(")");
+            writer.write(probability)
+                    .write(":(s'=")
+                    .write(target)
+                    .write(')');
 
 
             if (transitionIterator.hasNext()) {
-                transitionString.append(" + ");
+                writer.write(" + ");
             }
         }
 
-        transitionString.append(";");
-
-        writeToBuffer(transitionString.toString());
+        writer.write(';');
     }
 
     private void closeModule() throws IOException {
-        writeToBuffer("endmodule");
+        writer.write("endmodule");
     }
 
     private void openRewardStructure() throws IOException {
-        writeToBuffer("rewards \"default_reward\"");
+        writer.write("rewards \"default_reward\"");
     }
 
     private void writeRewards() throws IOException {
@@ -158,8 +151,7 @@ public class MDPModelToPrismFileConverter {
         if (stateReward == 0d)
             return;
 
-        String stateFormula = "s=" + state;
-        writeToBuffer(stateFormula + " : " + stateReward + ";");
+        writer.write("s=").write(state).write(" : ").write(stateReward).write(';');
         newLines(1);
     }
 
@@ -170,47 +162,35 @@ public class MDPModelToPrismFileConverter {
         if (transitionReward == 0d)
             return;
 
-        String stateFormula = "s=" + state;
         String actionLabelString = actionLabel == null ? "" : actionLabel.toString();
 
-        String transitionRewardString = "[" +
-                actionLabelString +
-                "] " +
-                stateFormula +
-                " : " +
-                transitionReward +
-                ";";
-
-        writeToBuffer(transitionRewardString);
+        writer.write('[')
+                .write(actionLabelString)
+                .write("] s=")
+                .write(state)
+                .write(" : ")
+                .write(transitionReward)
+                .write(';');
         newLines(1);
     }
 
     private void closeRewardStructure() throws IOException {
-        writeToBuffer("endrewards");
+        writer.write("endrewards");
     }
 
-    private void forceNewTargetFile() throws IOException {
-        Files.deleteIfExists(targetFile.toPath());
-        if (targetFile.getParentFile() != null) {
-            Files.createDirectories(targetFile.getParentFile().toPath());
-        }
-        Files.createFile(targetFile.toPath());
-    }
-
-    private void openOutputStream() throws FileNotFoundException {
-        bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(targetFile));
+    // Creates the target file and its directories, or truncates it if it exists.
+    private void openOutputStream() throws IOException {
+        writer = ChannelWriter.open(targetFile.toPath());
     }
 
     private void closeOutputStream() throws IOException {
-        if (bufferedOutputStream != null) {
-            bufferedOutputStream.close();
+        if (writer != null) {
+            ChannelWriter openWriter = writer;
+            writer = null;
+            openWriter.close();
         }
     }
 
-    private void writeToBuffer(String string) throws IOException {
-        bufferedOutputStream.write(string.getBytes());
-    }
-
     public interface RewardProperty {
         double getStateReward(int s);
         double getTransitionReward(int state, int actionIndex, Object actionLabel);
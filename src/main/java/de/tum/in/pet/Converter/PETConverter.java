@@ -30,9 +30,26 @@ public class PETConverter {
 
     private static void writeModel(InputValues inputValues, MDP uniformizedModel, RewardGenerator<State> rewardGenerator, List<State> stateList) {
         File targetFile = new File(inputValues.outputFilePath);
+        MDPModelToPrismFileConverter.RewardProperty rewardProperty = getRewardProperty(rewardGenerator, stateList);
         MDPModelToPrismFileConverter fileWriter = new MDPModelToPrismFileConverter(targetFile,
-                uniformizedModel, getRewardProperty(rewardGenerator, stateList));
+                uniformizedModel, rewardProperty);
         fileWriter.safeWriteModel();
+
+        if (inputValues.explicitExport) {
+            MDPModelToExplicitFilesConverter explicitWriter = new MDPModelToExplicitFilesConverter(
+                    getExplicitBasePath(targetFile), uniformizedModel, rewardProperty);
+            explicitWriter.safeWriteModel();
+        }
+    }
+
+    // The output file without its extension, e.g. model.prism becomes model.
+    private static File getExplicitBasePath(File targetFile) {
+        String name = targetFile.getName();
+        int extensionStart = name.lastIndexOf('.');
+        if (extensionStart <= 0) {
+            return targetFile;
+        }
+        return new File(targetFile.getParentFile(), name.substring(0, extensionStart));
     }
 
     private static MDPModelToPrismFileConverter.RewardProperty getRewardProperty(RewardGenerator<State> rewardGenerator, List<State> statesList) {
@@ -26,6 +26,8 @@ public class InputOptions {
     public static Option outputFile = new Option("o", "outputPath", true, "Path to write the output");
     public static Option maxSuccessorOption = new Option(null, "maxSuccessors", true, "Maximum number of successors in model");
     public static Option deltaTOption = new Option(null, "deltaTMethod", true, "Computation method of Delta T");
+    public static Option samplingThreadsOption = new Option(null, "samplingThreads", true, "Number of threads simulating sample paths concurrently. (Only used for BlackBox and GreyBox models, Default: 1)");
+    public static Option snapshotOption = new Option(null, "snapshot", true, "Path to a binary snapshot of the model, which is written if it doesn't exist yet and used instead of the model file otherwise");
 
     public static Options getAllInputOptions() {
         modelOption.setRequired(true);
@@ -49,6 +51,8 @@ public class InputOptions {
                 .addOption(simulateMec)
                 .addOption(outputFile)
                 .addOption(maxSuccessorOption)
-                .addOption(deltaTOption);
+                .addOption(deltaTOption)
+                .addOption(samplingThreadsOption)
+                .addOption(snapshotOption);
     }
 }
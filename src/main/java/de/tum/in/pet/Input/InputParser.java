@@ -50,6 +50,11 @@ public class InputParser {
         DeltaTCalculationMethod deltaTMethod = CliHelper.parseDeltaTCalculationMethod(
                 commandLine.getOptionValue(InputOptions.deltaTOption.getLongOpt()), DefaultInputValues.DELTA_T_CALCULATION_METHOD);
 
+        int samplingThreads = CliHelper.parseThreads(
+                commandLine.getOptionValue(InputOptions.samplingThreadsOption.getLongOpt()), DefaultInputValues.SAMPLING_THREADS);
+
+        String snapshotPath = parseOption(commandLine, InputOptions.snapshotOption, null, Function.identity());
+
         return new InputValues(precision,
                 revisitThreshold,
                 maxReward,
@@ -66,7 +71,9 @@ public class InputParser {
                 simulateMec,
                 outputPath,
                 maxSuccessorsInModel,
-                deltaTMethod);
+                deltaTMethod,
+                samplingThreads,
+                snapshotPath);
     }
 
     private static long parseLongOption(CommandLine commandLine, Option option, long defaultValue) {
@@ -8,6 +8,7 @@ import de.tum.in.pet.implementation.meanPayoff.MeanPayoffChecker;
 import de.tum.in.pet.implementation.meanPayoff.RestrictedValueIteratorChecker;
 import de.tum.in.pet.implementation.reachability.ReachChecker;
 import de.tum.in.pet.util.MinProbabilityCalculator;
+import de.tum.in.pet.util.ModelSnapshotWriter;
 import de.tum.in.probmodels.util.PrismHelper;
 import java.io.IOException;
 import java.util.logging.Level;
@@ -75,6 +76,9 @@ public final class Main {
       case "pet-convert":
         PETConverter.main(subArgs);
         break;
+      case "snapshot":
+        ModelSnapshotWriter.main(subArgs);
+        break;
       default:
         System.out.println("Unknown tool " + args[0]);
         System.exit(1);
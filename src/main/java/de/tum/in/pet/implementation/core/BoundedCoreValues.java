@@ -16,7 +16,6 @@ import it.unimi.dsi.fastutil.ints.IntSet;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.IntToDoubleFunction;
-import java.util.function.ToDoubleFunction;
 
 abstract class BoundedCoreValues implements BoundedValues {
   public final double precision;
@@ -57,7 +56,7 @@ abstract class BoundedCoreValues implements BoundedValues {
     assert remaining > 0;
 
     IntToDoubleFunction nextStepFunction = s -> upperBound(s, remaining - 1);
-    ToDoubleFunction<Integer> actionScore = i -> choices.get(i).sumWeighted(nextStepFunction);
+    IntToDoubleFunction actionScore = i -> choices.get(i).sumWeighted(nextStepFunction);
     return SampleUtil.sampleNextState(choices, heuristic, actionScore, nextStepFunction);
   }
 
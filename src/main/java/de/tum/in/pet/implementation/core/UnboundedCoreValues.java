@@ -13,7 +13,7 @@ import it.unimi.dsi.fastutil.ints.*;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.IntConsumer;
-import java.util.function.ToDoubleFunction;
+import java.util.function.IntToDoubleFunction;
 
 abstract class UnboundedCoreValues implements UnboundedValues {
   public final double precision;
@@ -43,7 +43,7 @@ abstract class UnboundedCoreValues implements UnboundedValues {
 
   @Override
   public int sampleNextState(int state, List<Distribution> choices) {
-    ToDoubleFunction<Integer> actionScore = i -> choices.get(i).sumWeighted(this::upperBound);
+    IntToDoubleFunction actionScore = i -> choices.get(i).sumWeighted(this::upperBound);
     return SampleUtil.sampleNextState(choices, heuristic, actionScore, this::upperBound);
   }
 
@@ -1,10 +1,13 @@
 package de.tum.in.pet.implementation.meanPayoff;
 
+import com.google.common.base.Throwables;
 import de.tum.in.naturals.set.NatBitSet;
 import de.tum.in.naturals.set.NatBitSets;
 import de.tum.in.pet.implementation.reachability.BlackUnboundedReachValues;
 import de.tum.in.pet.sampler.UnboundedValues;
+import de.tum.in.pet.util.ConfidenceWidthTable;
 import de.tum.in.pet.util.ErrorProbabilityCalculator;
+import de.tum.in.pet.util.SampleUtil;
 import de.tum.in.pet.values.Bounds;
 import de.tum.in.probmodels.explorer.BlackExplorer;
 import de.tum.in.probmodels.explorer.Explorer;
@@ -18,8 +21,18 @@ import prism.Pair;
 import prism.PrismException;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
+import javax.annotation.Nullable;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static de.tum.in.probmodels.util.Util.isZero;
 
 // better structure
@@ -42,28 +55,68 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
 
   protected boolean seenNewTransitionSignificantly = false; // If a new transition has been sampled a significant number of times.
 
-  // Enable this boolean only when the updateMethod is greyBox.
-  private final boolean calculateErrorProbability;
+  // Choices including the stay action for every state that is part of an mec, see choices(). Only modified together with
+  // the stay actions, so that concurrent simulators only read it.
+  private final Int2ObjectOpenHashMap<List<Distribution>> mecStateChoices = new Int2ObjectOpenHashMap<>();
+
+  // Incremented whenever the mec indices change, so that buffered stay action counts of concurrent simulators can be discarded.
+  private int mecEpoch = 0;
+
+  // Enable the error probability only when the updateMethod is greyBox. It is kept up to date with the counts of the
+  // explorer while sampling.
+  @Nullable
+  private final ErrorProbabilityCalculator errorProbabilities;
   private final SimulateMec simulateMec;
   private final int maxSuccessorsInModel;
   private final DeltaTCalculationMethod deltaTCalculationMethod;
 
+  // Number of threads simulating sample paths concurrently. Choosing actions only requires the read lock, while
+  // simulating actions of the real model, exploring states and computing or updating mecs requires the write lock.
+  private final int samplingThreads;
+  private final ReadWriteLock episodeLock = new ReentrantReadWriteLock();
+
   protected static final double initialNSamples = 1e4;
   protected static final double multiplicativeFactor = 5;
 
+  // Lower and upper values of the most recent VI on every mec, VI on the mec continues from them.
+  private final MecValueCache<Int2ObjectMap<Bounds>> mecBoundsCache = new MecValueCache<>(Int2ObjectOpenHashMap::new);
+
+  // Confidence widths of the learned actions, kept up to date with the action counts of the explorer.
+  private final ConfidenceWidthTable confidenceWidths;
+
   public BlackOnDemandValueIterator(Explorer<S, M> explorer, UnboundedValues values, RewardGenerator<S> rewardGenerator,
                                     int revisitThreshold, double rMax, double pMin, double errorTolerance,
                                     Double2LongFunction nSampleFunction, double precision, long timeout,
                                     boolean getErrorProbability, SimulateMec simulateMec,
-                                    DeltaTCalculationMethod deltaTCalculationMethod, int maxSuccessorsInModel) {
+                                    DeltaTCalculationMethod deltaTCalculationMethod, int maxSuccessorsInModel,
+                                    int samplingThreads) {
     super(explorer, values, rewardGenerator, revisitThreshold, rMax, precision, timeout);
+    checkArgument(samplingThreads >= 1, "Need at least one sampling thread");
     this.pMin = pMin;
     this.errorTolerance = errorTolerance;
     this.nSampleFunction = nSampleFunction;
-    this.calculateErrorProbability = getErrorProbability;
+    if (getErrorProbability) {
+      BlackExplorer<S, M> blackExplorer = (BlackExplorer<S, M>) explorer;
+      this.errorProbabilities = new ErrorProbabilityCalculator(blackExplorer::getActions,
+          blackExplorer.getOriginalStateActions(), blackExplorer.getStateTransitionCounts());
+    } else {
+      this.errorProbabilities = null;
+    }
     this.simulateMec = simulateMec;
     this.deltaTCalculationMethod = deltaTCalculationMethod;
     this.maxSuccessorsInModel = maxSuccessorsInModel;
+    this.samplingThreads = samplingThreads;
+    this.confidenceWidths = new ConfidenceWidthTable(new ConfidenceWidthTable.ActionCounts() {
+      @Override
+      public int numActions(int state) {
+        return explorer.getChoices(state).size();
+      }
+
+      @Override
+      public long count(int state, int action) {
+        return ((BlackExplorer<S, M>) explorer).getActionCounts(state, action);
+      }
+    });
   }
 
   @Override
@@ -84,123 +137,101 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
     long nIterations = nSampleFunction.apply(k);
     double errorTolerance = this.errorTolerance;
 
-    // Updates the confidenceWidthFunction according to the latest counts and transDelta value. The confidenceWidthFunction
-    // returns the confidenceWidth for a state x and an action with index y. if y is greater than the number of choices
-    // the explorer holds, it must be the stay action. We set confidence width of stay action equal to zero as we
-    // know the probabilities of the action are accurate as they have been calculated and not learned.
-    Int2ObjectFunction<Int2DoubleFunction> confidenceWidthFunction = x -> (y -> y < explorer.getChoices(x).size()
-            ? Math.sqrt(-Math.log(transDelta)/(2*explorer.getActionCounts(x, y)))
-            : 0);
-
-    // Updates the confidence width function in UnboundedReachValues.
-    values.setConfidenceWidthFunction(confidenceWidthFunction);
+    // Updates the confidence widths according to the latest counts and transDelta value. Action indices beyond the
+    // choices the explorer holds belong to the stay action, which has confidence width zero as its probabilities have
+    // been calculated and not learned.
+    refreshConfidenceWidths(explorer);
+    values.setConfidenceWidths(confidenceWidths);
 
-    for (int i = 0; i < nIterations; i++) {
-      IntList visitStack = new IntArrayList();
-      int currentState = initialState;
-      Int2IntOpenHashMap stateVisitCounts = new Int2IntOpenHashMap();  // keeps counts of the number of times a state is visited
-
-      while (true) {
+    if (samplingThreads == 1) {
+      EpisodeSimulator simulator = new EpisodeSimulator(new SplittableRandom(), false);
+      for (int i = 0; i < nIterations; i++) {
         // Stop simulation if timeout occurred
-        if (isTimeout()) {
+        if (!simulator.simulate(initialState, errorTolerance)) {
           return true;
         }
+      }
+    } else if (!simulateConcurrently(initialState, nIterations, errorTolerance)) {
+      return true;
+    }
 
-        visitStack.add(currentState);
-        stateVisitCounts.putIfAbsent(currentState, 0);
-        stateVisitCounts.addTo(currentState, 1);
-
-        // checks plus state,minus state and uncertain state
-        if (BoundedMecQuotient.isSinkState(currentState)) {
-          visitStack.removeInt(visitStack.size() - 1);
-          // We update the MEC reward bounds through running VI if we reach the uncertain or the plus state. This is
-          // slightly different from the version in CAV'17 where VI is only run when the uncertain state is reached.
-          // However, this is also OK as reaching the plus state shows that probably the lower reward bound is high
-          // enough, meaning the EC is promising and it is worth getting a more precise value. We make sure in updateMEC
-          // that we don't get value that is more precise than what is required.
-          if (BoundedMecQuotient.isUncertainState(currentState)||BoundedMecQuotient.isPlusState(currentState)) {
-            int mecIndex = stateToMecMap.get(visitStack.removeInt(visitStack.size() - 1));
-            explorer.activateActionCountFilter();
-            updateMec(mecIndex);
-            explorer.deactivateActionCountFilter();
-          }
-          break;
-        }
-
-        if (!explorer().isExploredState(currentState)) {
-          explore(currentState);  // action choices etc. are populated in the partial model. The bounds of currentState are also initialised.
-        }
-
-        List<Distribution> choices = choices(currentState);
-        if (choices.isEmpty()){
-          break;
-        }
+    handleComponents();
 
-        int nextState, nextActionIndex;
-        // This condition is there as in the simulate function in CAV'19. It checks whether we have been returning to a
-        // state too many times during simulation indicating that we could be stuck inside an MEC.
-        if (stateVisitCounts.get(currentState)>=revisitThreshold && looping(visitStack)) {
-          Pair<Integer, Integer> bestStateActionPairs = getSampledBestLeavingAction(currentState);
-          currentState = bestStateActionPairs.first;
-          nextActionIndex = bestStateActionPairs.second;
-          choices = choices(currentState);
-        }
-        else {
-          nextActionIndex = sampleNextAction(currentState);
-        }
+    values.resetBounds();
+    initSinkStates();
 
-        assert nextActionIndex != -1;
+    refreshConfidenceWidths(explorer);
 
-        // If the sampled action's index is the last index and state is a part of an mec, then this index of a stay action.
-        // Here, we simply sample the next state. However, if we don't have a stay action, we have to call the explorer to
-        // sample the next state according to the real distributions.
-        if (nextActionIndex == choices.size()-1 && stateToMecMap.containsKey(currentState)){
-          nextState = choices.get(nextActionIndex).sample();
-          stayActionCounts.put(stateToMecMap.get(currentState), stayActionCounts.get(stateToMecMap.get(currentState))+1);
-        }
-        else {
-          nextState = explorer.simulateAction(currentState, nextActionIndex);
-          // If this action has been sampled enough number of times, we know that it can now be considered as a part of an MEC.
-          // Hence, we know that there might be new MECs in the model and it could be worthwhile finding them again.
-          seenNewTransitionSignificantly |= explorer.updateCounts(currentState, nextActionIndex, nextState);
-        }
+    // the bounds are updated until there is no more progress, i.e., the bounds of no state have been changed.
+    // if there has been change, this change needs to be propagated through the rest of the states.
+    update();
 
-        // This is true when the currentState doesn't have any choices from it, i.e. it is a sink state.
-        if (nextState == -1) {
-          break;
-        }
+    return true;
 
-        currentState = nextState;
+  }
 
-        computeDeltaT(explorer, errorTolerance);
+  /**
+   * Simulates nIterations sample paths on samplingThreads worker threads. Each worker has its own random source and
+   * buffers the stay actions it samples. The buffers are merged into the stay action counts whenever the worker
+   * acquires exclusive access to the model and once all paths have been simulated.
+   * @return false, if the timeout occurred.
+   */
+  private boolean simulateConcurrently(int initialState, long nIterations, double errorTolerance) throws PrismException {
+    AtomicLong remainingIterations = new AtomicLong(nIterations);
+    AtomicBoolean timedOut = new AtomicBoolean(false);
+    SplittableRandom seedRandom = new SplittableRandom();
+
+    List<EpisodeSimulator> simulators = new ArrayList<>(samplingThreads);
+    for (int i = 0; i < samplingThreads; i++) {
+      simulators.add(new EpisodeSimulator(seedRandom.split(), true));
+    }
 
+    ExecutorService executor = Executors.newFixedThreadPool(samplingThreads);
+    try {
+      List<Future<?>> workers = new ArrayList<>(samplingThreads);
+      for (EpisodeSimulator simulator : simulators) {
+        workers.add(executor.submit(() -> {
+          while (!timedOut.get() && remainingIterations.getAndDecrement() > 0) {
+            if (!simulator.simulate(initialState, errorTolerance)) {
+              timedOut.set(true);
+            }
+          }
+          return null;
+        }));
       }
-
-
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PrismException("Interrupted while simulating paths: " + e.getMessage());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof PrismException) {
+        throw (PrismException) cause;
+      }
+      Throwables.throwIfUnchecked(cause);
+      throw new PrismException("Simulating paths failed: " + cause);
+    } finally {
+      executor.shutdownNow();
     }
 
-    handleComponents();
-
-    values.resetBounds();
-    initSinkStates();
-
-    confidenceWidthFunction = x -> (y -> y < explorer.getChoices(x).size()
-            ? Math.sqrt(-Math.log(transDelta)/(2*explorer.getActionCounts(x, y)))
-            : 0);
-    values.setConfidenceWidthFunction(confidenceWidthFunction);
-
-    // the update function is ran until there has been some progress, i.e., the upper bounds of some state have been changed.
-    // if there has been change, this change needs to be propagated through the rest of the states.
-    boolean ifProgress = true;
-    int nMaxUpdates = explorer.exploredStateCount();
-    int nUpdates = 0;
-    while(ifProgress && nUpdates < nMaxUpdates) {
-      ifProgress = update();
-      nUpdates++;
+    // All workers are done, merge the remaining counts before the bounds are updated.
+    for (EpisodeSimulator simulator : simulators) {
+      simulator.flush();
     }
+    computeDeltaT((BlackExplorer<S, M>) explorer, errorTolerance);
 
-    return true;
+    return !timedOut.get();
+  }
 
+  /**
+   * Recomputes the confidence widths of all explored states. The counts may also change outside of the sampled
+   * transitions (e.g. when MECs are simulated), so the table is refreshed completely before the bounds are updated.
+   */
+  private void refreshConfidenceWidths(BlackExplorer<S, M> explorer) {
+    confidenceWidths.setTransDelta(transDelta);
+    confidenceWidths.updateStates(explorer.exploredStates());
   }
 
   private void computeDeltaT(BlackExplorer<S, M> explorer, double errorTolerance) {
@@ -215,17 +246,7 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
     }
 
     explorer.updateCountParams(transDelta, pMin);
-  }
-
-  private Pair<Integer, Integer> getSampledBestLeavingAction(int currentState) {
-    BlackUnboundedReachValues values = (BlackUnboundedReachValues) this.values;
-    Random randomIntegerSampler = new Random();
-
-    int mecIndex = stateToMecMap.get(currentState);
-    NatBitSet mecStates = this.mecs.get(mecIndex);
-    List<Pair<Integer, Integer>> bestActionStatePairs = values.getBestLeavingAction(mecStates, this::choices);
-    int sampledActionIndex = randomIntegerSampler.nextInt(bestActionStatePairs.size());
-    return bestActionStatePairs.get(sampledActionIndex);
+    confidenceWidths.setTransDelta(transDelta);
   }
 
   private int sampleNextAction(int currentState) {
@@ -235,30 +256,69 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
     // this happens when none of the actions look promising at all, i.e. all actions have a upper bound of 0.
     // To continue the simulation, we forcefully sample an action.
     if (nextActionIndex == -1) {
-      nextActionIndex = explorer.sampleNextAction(currentState);
+      synchronized (explorer) {
+        nextActionIndex = explorer.sampleNextAction(currentState);
+      }
     }
 
     return nextActionIndex;
   }
 
   /**
-   * Updates the bounds of the model according to the latest changes.
-   * @return true, if there have been any changes to the bounds of the states, else false.
+   * Updates the bounds of the model according to the latest changes until no bounds change significantly anymore, but
+   * for at most exploredStateCount rounds. The first round updates all explored states,
+   * every further round only the predecessors of the states whose bounds changed in the previous round. Only the MECs
+   * with an updated state are deflated. The bounds of all states are compared after deflation, as updating the states
+   * of an MEC may raise their upper bounds again.
    */
-  private boolean update(){
+  private void update(){
     BlackUnboundedReachValues values = (BlackUnboundedReachValues) this.values;
-    values.cacheCurrBounds(); // cache the current bounds to check if we will make any progress in update.
+    Int2ObjectMap<IntList> predecessors = computePredecessors();
 
-    for (int state: explorer.exploredStates()){
-      List<Distribution> realChoices = choices(state);
-      values.update(state, realChoices);
-    }
+    NatBitSet updateStates = NatBitSets.copyOf(explorer.exploredStates());
+    IntSet updatedMecs = new IntOpenHashSet();
+    int nMaxUpdates = explorer.exploredStateCount();
 
-    for (NatBitSet mec : this.mecs) {
-      values.deflate(mec, this::choices);
+    for (int nUpdates = 0; !updateStates.isEmpty() && nUpdates < nMaxUpdates; nUpdates++) {
+      values.resetProgress();
+      updatedMecs.clear();
+
+      for (int state : updateStates) {
+        values.update(state, choices(state));
+        if (stateToMecMap.containsKey(state)) {
+          updatedMecs.add(stateToMecMap.get(state));
+        }
+      }
+
+      for (int mecIndex : updatedMecs) {
+        values.deflate(mecs.get(mecIndex), this::choices);
+      }
+
+      // The values compare the bounds before the first change in this round, so states of an MEC which were raised by
+      // the update and lowered again by deflation don't count as progress.
+      NatBitSet nextUpdateStates = NatBitSets.set();
+      for (int state : values.progressedStates()) {
+        nextUpdateStates.addAll(predecessors.getOrDefault(state, IntLists.EMPTY_LIST));
+      }
+      updateStates = nextUpdateStates;
     }
+  }
 
-    return values.checkProgress();
+  /**
+   * @return the explored predecessors of every explored state in the current partial model, including the stay actions.
+   */
+  private Int2ObjectMap<IntList> computePredecessors() {
+    Int2ObjectMap<IntList> predecessors = new Int2ObjectOpenHashMap<>();
+    for (int state : explorer.exploredStates()) {
+      for (Distribution choice : choices(state)) {
+        for (int successor : choice.support()) {
+          if (!BoundedMecQuotient.isSinkState(successor) && explorer.isExploredState(successor)) {
+            predecessors.computeIfAbsent(successor, k -> new IntArrayList()).add(state);
+          }
+        }
+      }
+    }
+    return predecessors;
   }
 
   /**
@@ -291,33 +351,36 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
   protected void updateStayAction(int mecIndex, Bounds scaledBounds) {
     Distribution stayAction = BoundedMecQuotient.getStayDistribution(scaledBounds);
     stayActionMap.put(mecIndex, stayAction);
+    for (int state : mecs.get(mecIndex)) {
+      mecStateChoices.put(state, new StayActionChoices(state, stayAction));
+    }
   }
 
   /**
-   * Implements lines 11-15 in CAV'17 paper. Runs VI on mec.
+   * Prepares lines 11-15 in CAV'17 paper. The mec is simulated here, as this updates the counts of the explorer, only
+   * the VI on the mec is left for the returned update.
    * @param mecIndex: Index of mec on which VI has to be run.
+   * @return the prepared update, or null if the bounds of the mec are precise enough already.
    */
   @Override
-  protected void updateMec(int mecIndex){
+  protected MecUpdate prepareMecUpdate(int mecIndex){
 
     BlackExplorer<S, M> explorer = (BlackExplorer<S, M>) this.explorer;
 
+    if(isMecPrecise(mecIndex)){
+      return null;
+    }
+
     // mecBounds now contain the scaled reward upper and lower bounds.
     Bounds mecBounds = getMecBounds(mecIndex);
 
-    double currPrecision = mecBounds.difference()*this.rMax;
-
-    if(currPrecision<this.precision/2){
-      return;
-    }
-
-    double targetPrecision = currPrecision/2;
+    double targetPrecision = mecBounds.difference()*this.rMax/2;
 
     // get all the MEC states corresponding to mecRepresentative.
     Mec mec = getMec(mecIndex);
 
     if (mec.states.size()==0){
-      return;
+      return null;
     }
 
     // We start with 1, because if 0, the requiredSamples become NaN
@@ -329,31 +392,53 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
     }
 
     simulateMec(explorer, mec, nTransitions, computeNSamples(mec));
+    // Simulating the mec changed the counts of its actions.
+    confidenceWidths.updateStates(mec.states);
 
     assert !isZero(targetPrecision);
 
     // lambda function that returns a state object when given the state index. required for accessing reward generator function.
     Int2ObjectFunction<S> stateIndexMap = explorer::getState;
 
+    // Continue from the values of the previous VI on the mec. The bounds derived from the differences of two successive
+    // iterations are sound for any initial values, so this only saves the iterations done before.
+    Int2ObjectMap<Bounds> valueCache = mecBoundsCache.get(mecs.get(mecIndex));
+
     RestrictedMecBoundedValueIterator<S> valueIterator = new RestrictedMecBoundedValueIterator<>(mec, targetPrecision/2,
-            rewardGenerator, stateIndexMap, rMax, timeout);
-    valueIterator.setConfidenceWidthFunction(x -> (y -> Math.sqrt(-Math.log(transDelta)/(2*explorer.getActionCounts(x, y)))));
+            rewardGenerator, stateIndexMap, valueCache, rMax, timeout);
+    valueIterator.setConfidenceWidthFunction(x -> (y -> confidenceWidths.width(x, y)));
     valueIterator.setDistributionFunction(x -> y -> this.explorer.model().getChoice(x, y));
     valueIterator.setLabelFunction(x -> y -> this.explorer.model().getActions(x).get(y).label());
+    valueIterator.setRewardCache(rewardCache);
+    valueIterator.compile();
 
-    valueIterator.run();
-
-    Bounds newBounds = valueIterator.getBounds();
-    Bounds scaledBounds = Bounds.of(newBounds.lowerBound()/this.rMax, newBounds.upperBound()/this.rMax);
+    return new MecUpdate() {
+      @Override
+      public void solve() {
+        valueIterator.run();
+      }
 
-    // In the case when we run VI after some new states have been added, the lower bounds may be worse than the
-    // previously computed bounds. However, we know that the MEC's reward must be greater than the previously computed
-    // lower bound value. Thus, we can use the previously computer lower bound value for slightly faster convergence.
-    scaledBounds = scaledBounds.withLower(Math.max(scaledBounds.lowerBound(), mecBounds.lowerBound()));
+      @Override
+      public void publish() {
+        Bounds newBounds = valueIterator.getBounds();
+        Bounds scaledBounds = Bounds.of(newBounds.lowerBound()/rMax, newBounds.upperBound()/rMax);
 
+        // In the case when we run VI after some new states have been added, the lower bounds may be worse than the
+        // previously computed bounds. However, we know that the MEC's reward must be greater than the previously
+        // computed lower bound value. Thus, we can use the previously computer lower bound value for slightly faster
+        // convergence.
+        scaledBounds = scaledBounds.withLower(Math.max(scaledBounds.lowerBound(), mecBounds.lowerBound()));
 
-    updateStayAction(mecIndex, scaledBounds);
+        updateStayAction(mecIndex, scaledBounds);
+      }
+    };
+  }
 
+  /**
+   * @return true if the reward bounds of the mec are precise enough already, so that VI on the mec is skipped.
+   */
+  private boolean isMecPrecise(int mecIndex) {
+    return getMecBounds(mecIndex).difference()*this.rMax < this.precision/2;
   }
 
   private double computeNSamples(Mec mec) {
@@ -408,6 +493,9 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
     }
 
     resetSeenTransitionsSignificantlyFlag();
+    // New transitions of the learned model may connect already explored states, so the MECs are searched on all
+    // explored states instead of incrementally.
+    componentSearch.clear();
 
     BlackExplorer<S, M> explorer = (BlackExplorer<S, M>) explorer();
     BlackUnboundedReachValues values = (BlackUnboundedReachValues) this.values;
@@ -421,10 +509,13 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
 
     // if no new components have been found, we clear all mec info that has been computed until now.
     if(newComponents.isEmpty()){
+      mecEpoch++;
       this.mecs.clear();
       this.stateToMecMap.clear();
       this.stayActionMap.clear();
+      this.mecStateChoices.clear();
       this.mecValueCache.clear();
+      this.mecBoundsCache.clear();
       // deactivate action count filter so that the original actions are restored in the model.
       explorer.deactivateActionCountFilter();
       return;
@@ -440,19 +531,17 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
 
     // This deflates the values of the states of the new mecs. Further, the stay action is added here.
 
-    for(int i: changedMecs){
-
-      // We need to run VI on the MEC again to account for the following case. It can be that the bounds on the MEC are
-      // already very precise. Thus, the probability of reaching the uncertain state would be very small and we may
-      // never be able to run VI on the newly added states again. Thus, we need to run VI straight after adding new
-      // states.
-      updateMec(i);
-    }
+    // We need to run VI on the MEC again to account for the following case. It can be that the bounds on the MEC are
+    // already very precise. Thus, the probability of reaching the uncertain state would be very small and we may
+    // never be able to run VI on the newly added states again. Thus, we need to run VI straight after adding new
+    // states.
+    updateMecs(changedMecs);
 
     explorer.deactivateActionCountFilter();
 
     for(int i: changedMecs){
       NatBitSet newComponent = newComponents.get(i);
+      confidenceWidths.updateStates(newComponent);
 
       values.deflate(newComponent, this::choices);
     }
@@ -521,6 +610,8 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
     stayActionMap = newStayActionMap;
     stayActionCounts = newStayActionCounts;
     this.mecs = newComponents;
+    mecBoundsCache.retain(newComponents);
+    mecEpoch++;
 
     stateToMecMap.clear();
 
@@ -543,6 +634,14 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
       stayActionMap.put(mecIndex, BoundedMecQuotient.getStayDistribution(Bounds.reachUnknown()));
     }
 
+    mecStateChoices.clear();
+    for(i=0; i<this.mecs.size(); i++){
+      Distribution stayAction = stayActionMap.get(i);
+      for(int state: this.mecs.get(i)){
+        mecStateChoices.put(state, new StayActionChoices(state, stayAction));
+      }
+    }
+
     return newMecs;
 
   }
@@ -561,33 +660,290 @@ public class BlackOnDemandValueIterator<S, M extends Model> extends OnDemandValu
     return stateToMecMap.containsKey(visitStack.getInt(visitStack.size()-1));
   }
 
+  /**
+   * Returns the choices of a state in the partial model. For states in an mec, the stay action of the mec is added as
+   * the last choice. The returned list must not be modified.
+   */
   @Override
   protected List<Distribution> choices(int state) {
     assert explorer.isExploredState(state);
     assert !BoundedMecQuotient.isSinkState(state);
 
-    List<Distribution> choices = new ArrayList<>(explorer.getChoices(state));
-    if (stateToMecMap.containsKey(state)) {
-      choices.add(stayActionMap.get(stateToMecMap.get(state)));
+    List<Distribution> choices = mecStateChoices.get(state);
+    return choices == null ? explorer.getChoices(state) : choices;
+  }
+
+  /**
+   * View of the choices of an mec state followed by the stay action of the mec. The learned choices are read from the
+   * explorer on access, as they change with the transition counts.
+   */
+  private final class StayActionChoices extends AbstractList<Distribution> implements RandomAccess {
+    private final int state;
+    private final Distribution stayAction;
+
+    StayActionChoices(int state, Distribution stayAction) {
+      this.state = state;
+      this.stayAction = stayAction;
+    }
+
+    @Override
+    public Distribution get(int index) {
+      List<Distribution> choices = explorer.getChoices(state);
+      return index == choices.size() ? stayAction : choices.get(index);
+    }
+
+    @Override
+    public int size() {
+      return explorer.getChoices(state).size() + 1;
     }
-    return choices;
   }
 
   @Override
   protected void onSamplingFinished(int initialState) {
     super.onSamplingFinished(initialState);
 
-    if (calculateErrorProbability) {
+    if (errorProbabilities != null) {
       logger.log(Level.INFO, "Computing error probability");
-
-      BlackExplorer<S, M> explorer = (BlackExplorer<S, M>) this.explorer;
-      ErrorProbabilityCalculator errorProbabilityCalculator = new ErrorProbabilityCalculator(explorer::getActions,
-              explorer.getOriginalStateActions(),
-              explorer.getStateTransitionCounts(),
-              stateToMecMap,
-              mecs);
-      double result = errorProbabilityCalculator.getErrorProbability(initialState);
+      double result = errorProbabilities.getErrorProbability(initialState, stateToMecMap, mecs);
       additionalWriteInfo.add(String.valueOf(result));
     }
   }
+
+  /**
+   * Simulates sample paths as in the simulate function of CAV'19. Each simulator has its own random source. The read
+   * lock of episodeLock is held for a single step of a path only, so that exclusive access waits for the current steps
+   * of the other simulators at most. If several simulators run concurrently, they buffer the sampled stay actions
+   * locally until these are merged into the stay action counts.
+   */
+  private final class EpisodeSimulator {
+    private final SplittableRandom random;
+    private final boolean buffered;
+
+    // Sampled stay actions which have not been merged yet, accessible using mecIndices of bufferMecEpoch.
+    private final Int2IntOpenHashMap stayActionCountBuffer = new Int2IntOpenHashMap();
+    private int bufferMecEpoch;
+
+    // Scratch structures which are cleared and reused by every simulated path.
+    private final IntArrayList visitStack = new IntArrayList();
+    private final Int2IntOpenHashMap stateVisitCounts = new Int2IntOpenHashMap(); // keeps counts of the number of times a state is visited
+    private final IntArrayList bestLeavingStates = new IntArrayList();
+    private final IntArrayList bestLeavingActions = new IntArrayList();
+    private final Int2ObjectFunction<List<Distribution>> choiceFunction = BlackOnDemandValueIterator.this::choices;
+
+    EpisodeSimulator(SplittableRandom random, boolean buffered) {
+      this.random = random;
+      this.buffered = buffered;
+      this.bufferMecEpoch = mecEpoch;
+    }
+
+    /**
+     * Simulates a single sample path from initialState.
+     * @return false, if the timeout occurred.
+     */
+    boolean simulate(int initialState, double errorTolerance) throws PrismException {
+      visitStack.clear();
+      stateVisitCounts.clear();
+      int currentState = initialState;
+
+      while (currentState != -1) {
+        // Stop simulation if timeout occurred
+        if (isTimeout()) {
+          return false;
+        }
+
+        episodeLock.readLock().lock();
+        try {
+          currentState = step(currentState, errorTolerance);
+        } finally {
+          episodeLock.readLock().unlock();
+        }
+      }
+
+      return true;
+    }
+
+    /**
+     * Simulates a single step of the sample path. Requires holding the read lock of episodeLock, which is held again
+     * once this method returns.
+     * @return the next state of the path, or -1 if the path ends.
+     */
+    private int step(int currentState, double errorTolerance) throws PrismException {
+      BlackExplorer<S, M> explorer = (BlackExplorer<S, M>) explorer();
+
+      visitStack.add(currentState);
+      stateVisitCounts.addTo(currentState, 1);
+
+      // checks plus state,minus state and uncertain state
+      if (BoundedMecQuotient.isSinkState(currentState)) {
+        visitStack.removeInt(visitStack.size() - 1);
+        // We update the MEC reward bounds through running VI if we reach the uncertain or the plus state. This is
+        // slightly different from the version in CAV'17 where VI is only run when the uncertain state is reached.
+        // However, this is also OK as reaching the plus state shows that probably the lower reward bound is high
+        // enough, meaning the EC is promising and it is worth getting a more precise value. We make sure in updateMEC
+        // that we don't get value that is more precise than what is required.
+        if (BoundedMecQuotient.isUncertainState(currentState)||BoundedMecQuotient.isPlusState(currentState)) {
+          updateMec(explorer, visitStack.removeInt(visitStack.size() - 1), errorTolerance);
+        }
+        return -1;
+      }
+
+      if (!explorer.isExploredState(currentState)) {
+        acquireExclusive();
+        try {
+          // Another simulator may have explored the state in the meantime.
+          if (!explorer.isExploredState(currentState)) {
+            explore(currentState);  // action choices etc. are populated in the partial model. The bounds of currentState are also initialised.
+            confidenceWidths.updateState(currentState);
+          }
+        } finally {
+          releaseExclusive(errorTolerance);
+        }
+      }
+
+      List<Distribution> choices = choices(currentState);
+      if (choices.isEmpty()){
+        return -1;
+      }
+
+      int nextState, nextActionIndex;
+      // This condition is there as in the simulate function in CAV'19. It checks whether we have been returning to a
+      // state too many times during simulation indicating that we could be stuck inside an MEC.
+      if (stateVisitCounts.get(currentState)>=revisitThreshold && looping(currentState, errorTolerance)) {
+        int bestLeavingIndex = getSampledBestLeavingAction(currentState);
+        currentState = bestLeavingStates.getInt(bestLeavingIndex);
+        nextActionIndex = bestLeavingActions.getInt(bestLeavingIndex);
+        choices = choices(currentState);
+      }
+      else {
+        nextActionIndex = sampleNextAction(currentState);
+      }
+
+      assert nextActionIndex != -1;
+
+      // If the sampled action's index is the last index and state is a part of an mec, then this index of a stay action.
+      // Here, we simply sample the next state. However, if we don't have a stay action, we have to call the explorer to
+      // sample the next state according to the real distributions.
+      if (nextActionIndex == choices.size()-1 && stateToMecMap.containsKey(currentState)){
+        nextState = SampleUtil.sample(choices.get(nextActionIndex), random.nextDouble());
+        recordStayAction(stateToMecMap.get(currentState));
+        return nextState;
+      }
+
+      // Simulating the action may add newly discovered states to the explorer and updates its counts.
+      acquireExclusive();
+      try {
+        nextState = explorer.simulateAction(currentState, nextActionIndex);
+        recordTransition(explorer, currentState, nextActionIndex, nextState);
+      } finally {
+        releaseExclusive(errorTolerance);
+      }
+
+      // This is -1 when the currentState doesn't have any choices from it, i.e. it is a sink state.
+      return nextState;
+    }
+
+    /**
+     * Runs VI on the mec of mecState, unless its bounds are precise enough already. Only the VI requires exclusive
+     * access to the model.
+     */
+    private void updateMec(BlackExplorer<S, M> explorer, int mecState, double errorTolerance) {
+      if (!stateToMecMap.containsKey(mecState) || isMecPrecise(stateToMecMap.get(mecState))) {
+        return;
+      }
+      acquireExclusive();
+      try {
+        // Another simulator may have recomputed the mecs in the meantime.
+        if (stateToMecMap.containsKey(mecState)) {
+          explorer.activateActionCountFilter();
+          int mecIndex = stateToMecMap.get(mecState);
+          BlackOnDemandValueIterator.this.updateMec(mecIndex);
+          explorer.deactivateActionCountFilter();
+          confidenceWidths.updateStates(mecs.get(mecIndex));
+        }
+      } finally {
+        releaseExclusive(errorTolerance);
+      }
+    }
+
+    /**
+     * The looping condition of CAV'19, see {@link BlackOnDemandValueIterator#looping(IntList)}. The mecs only need to
+     * be searched again, which requires exclusive access, if a new transition has been seen significantly.
+     */
+    private boolean looping(int currentState, double errorTolerance) {
+      if (!shouldHandleComponents()) {
+        return stateToMecMap.containsKey(currentState);
+      }
+      acquireExclusive();
+      try {
+        return BlackOnDemandValueIterator.this.looping(visitStack);
+      } finally {
+        releaseExclusive(errorTolerance);
+      }
+    }
+
+    /**
+     * Samples one of the best actions leaving the MEC of currentState.
+     * @return the index of the sampled action in bestLeavingStates and bestLeavingActions.
+     */
+    private int getSampledBestLeavingAction(int currentState) {
+      BlackUnboundedReachValues values = (BlackUnboundedReachValues) BlackOnDemandValueIterator.this.values;
+
+      int mecIndex = stateToMecMap.get(currentState);
+      NatBitSet mecStates = mecs.get(mecIndex);
+      values.getBestLeavingAction(mecStates, choiceFunction, bestLeavingStates, bestLeavingActions);
+      return random.nextInt(bestLeavingStates.size());
+    }
+
+    private void recordStayAction(int mecIndex) {
+      if (!buffered) {
+        stayActionCounts.put(mecIndex, stayActionCounts.get(mecIndex)+1);
+        return;
+      }
+      if (bufferMecEpoch != mecEpoch) {
+        // The mec indices changed, the buffered counts can't be attributed anymore.
+        stayActionCountBuffer.clear();
+        bufferMecEpoch = mecEpoch;
+      }
+      stayActionCountBuffer.addTo(mecIndex, 1);
+    }
+
+    // Requires exclusive access to the model.
+    private void recordTransition(BlackExplorer<S, M> explorer, int state, int actionIndex, int successor) {
+      // If this action has been sampled enough number of times, we know that it can now be considered as a part of an MEC.
+      // Hence, we know that there might be new MECs in the model and it could be worthwhile finding them again.
+      seenNewTransitionSignificantly |= explorer.updateCounts(state, actionIndex, successor);
+      confidenceWidths.updateCount(state, actionIndex);
+      if (errorProbabilities != null) {
+        errorProbabilities.updateCount(state, actionIndex);
+      }
+    }
+
+    /**
+     * Merges the buffered stay action counts. Requires exclusive access to the model.
+     */
+    void flush() {
+      if (bufferMecEpoch == mecEpoch) {
+        for (Int2IntMap.Entry entry : Int2IntMaps.fastIterable(stayActionCountBuffer)) {
+          stayActionCounts.put(entry.getIntKey(), stayActionCounts.get(entry.getIntKey()) + entry.getIntValue());
+        }
+      }
+      stayActionCountBuffer.clear();
+      bufferMecEpoch = mecEpoch;
+    }
+
+    // Upgrades the read lock to the write lock and merges the buffered counts.
+    private void acquireExclusive() {
+      episodeLock.readLock().unlock();
+      episodeLock.writeLock().lock();
+      flush();
+    }
+
+    // Downgrades the write lock to the read lock.
+    private void releaseExclusive(double errorTolerance) {
+      // transDelta depends on the number of explored actions and is only recomputed while holding the write lock.
+      computeDeltaT((BlackExplorer<S, M>) explorer(), errorTolerance);
+      episodeLock.readLock().lock();
+      episodeLock.writeLock().unlock();
+    }
+  }
 }
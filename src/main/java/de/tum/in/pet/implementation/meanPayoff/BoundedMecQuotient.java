@@ -5,10 +5,12 @@ import de.tum.in.naturals.set.NatBitSets;
 import de.tum.in.pet.values.Bounds;
 import de.tum.in.probmodels.model.*;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.IntConsumer;
 import java.util.function.IntUnaryOperator;
@@ -24,6 +26,13 @@ public class BoundedMecQuotient<M extends Model> extends CollapseView<M> {
 
   private final Int2ObjectOpenHashMap<Distribution> stayActionMap = new Int2ObjectOpenHashMap<>();
 
+  // Memoized results of getChoices. An entry is invalidated when its state is explored or its stay action is replaced,
+  // the whole cache when states are collapsed, as this may change the representatives of any successor.
+  private final Int2ObjectOpenHashMap<List<Distribution>> choicesCache = new Int2ObjectOpenHashMap<>();
+
+  // Maps each representative to the states collapsed into it, including itself. Updated on every collapse.
+  private final Int2ObjectOpenHashMap<NatBitSet> membersMap = new Int2ObjectOpenHashMap<>();
+
   public BoundedMecQuotient(M model) {
     super(model);
   }
@@ -87,6 +96,7 @@ public class BoundedMecQuotient<M extends Model> extends CollapseView<M> {
 
     Distribution distribution = getStayDistribution(bounds);
     stayActionMap.put(representative, distribution);
+    choicesCache.remove(representative);
 
   }
 
@@ -128,6 +138,8 @@ public class BoundedMecQuotient<M extends Model> extends CollapseView<M> {
     IntSet oldRepresentatives = stayActionMap.keySet();
     // New set of representatives
     IntList newRepresentatives = super.collapse(stateList);
+    choicesCache.clear();
+    updateMembers(stateList, newRepresentatives);
 
     // These 2 operations give removedRepresentatives = oldRepresentatives-newRepresentatives
     NatBitSet removedRepresentatives = NatBitSets.copyOf(oldRepresentatives);
@@ -184,12 +196,63 @@ public class BoundedMecQuotient<M extends Model> extends CollapseView<M> {
     return newRepresentatives;
   }
 
+  // The states of a collapsed set are either uncollapsed states or representatives of previous collapses. The members
+  // of the latter are merged into the members of the new representative.
+  private void updateMembers(List<? extends IntSet> stateList, IntList newRepresentatives) {
+    IntIterator representativeIterator = newRepresentatives.iterator();
+    for (IntSet states : stateList) {
+      int representative = representativeIterator.nextInt();
+      NatBitSet members = membersMap.get(representative);
+      if (members == null) {
+        members = NatBitSets.set();
+        membersMap.put(representative, members);
+      }
+      for (int state : states) {
+        if (state != representative) {
+          NatBitSet oldMembers = membersMap.remove(state);
+          if (oldMembers != null) {
+            members.or(oldMembers);
+          }
+        }
+        members.set(state);
+      }
+    }
+  }
+
+  /**
+   * @param representative: Integer value of the representative state of an MEC.
+   * @return Returns all states collapsed into the representative, including itself. The returned set must not be
+   * modified.
+   */
+  public NatBitSet members(int representative) {
+    assert membersMap.containsKey(representative);
+
+    return membersMap.get(representative);
+  }
+
+  /**
+   * Invalidates the memoized choices of a state, e.g. because it has been explored.
+   * @param state: Integer value of the state.
+   */
+  public void invalidateChoices(int state) {
+    choicesCache.remove(state);
+  }
+
   /**
    * @param state: Integer value of state from which choices are to be found.
-   * @return Returns the choices from a state in the collapsed model.
+   * @return Returns the choices from a state in the collapsed model. The returned list must not be modified.
    */
   @Override
   public List<Distribution> getChoices(int state){
+    List<Distribution> choices = choicesCache.get(state);
+    if (choices == null) {
+      choices = Collections.unmodifiableList(computeChoices(state));
+      choicesCache.put(state, choices);
+    }
+    return choices;
+  }
+
+  private List<Distribution> computeChoices(int state){
     // Get the choices from the collapse model
     List<Distribution> choices;
 
@@ -4,7 +4,9 @@ import de.tum.in.naturals.set.NatBitSet;
 import de.tum.in.naturals.set.NatBitSets;
 import de.tum.in.pet.implementation.reachability.BlackUnboundedReachValues;
 import de.tum.in.pet.sampler.UnboundedValues;
+import de.tum.in.pet.util.ConfidenceWidthTable;
 import de.tum.in.pet.util.ErrorProbabilityCalculator;
+import de.tum.in.pet.util.SampleUtil;
 import de.tum.in.pet.values.Bounds;
 import de.tum.in.probmodels.explorer.CTMDPBlackExplorer;
 import de.tum.in.probmodels.explorer.Explorer;
@@ -19,10 +21,14 @@ import it.unimi.dsi.fastutil.ints.*;
 import prism.Pair;
 import prism.PrismException;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.RandomAccess;
+import java.util.stream.Stream;
 import java.util.logging.Level;
+import javax.annotation.Nullable;
 
 import static de.tum.in.probmodels.util.Util.isZero;
 
@@ -36,13 +42,18 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
 
     private final Int2IntMap stateToMecMap = new Int2IntOpenHashMap(); // Map that returns the mec Index the state is a part of.
     private Int2ObjectMap<Distribution> stayActionMap = new Int2ObjectOpenHashMap<>(); // Map that holds the stay action for mecs, accessible using mecIndices.
+    // The choices of every mec state including the stay action of its mec, rebuilt whenever the mecs or their stay
+    // actions change, so that choices() does not copy them on every call.
+    private final Int2ObjectOpenHashMap<List<Distribution>> mecStateChoices = new Int2ObjectOpenHashMap<>();
 
     private Int2IntMap stayActionCounts = new Int2IntOpenHashMap(); // Map that holds the number of times each stay action for an mec has been sampled, accessible using mecIndices.
 
     private boolean seenNewTransitionSignificantly = false; // If a new transition has been sampled a significant number of times.
 
-    // Enable this boolean only when the updateMethod is greyBox.
-    private final boolean calculateErrorProbability;
+    // Enable the error probability only when the updateMethod is greyBox. It is kept up to date with the counts of the
+    // explorer while sampling.
+    @Nullable
+    private final ErrorProbabilityCalculator errorProbabilities;
 
     private final MecUniformizer mecUniformizer;
 
@@ -52,6 +63,20 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
     private final int maxSuccessorsInModel;
     private final DeltaTCalculationMethod deltaTCalculationMethod;
 
+    // Scratch structures of sample(), cleared and reused by every simulated path.
+    private final Int2IntOpenHashMap stateVisitCounts = new Int2IntOpenHashMap(); // keeps counts of the number of times a state is visited
+    private final IntArrayList bestLeavingStates = new IntArrayList();
+    private final IntArrayList bestLeavingActions = new IntArrayList();
+    private final Int2ObjectFunction<List<Distribution>> choiceFunction = this::choices;
+    private final Random random = new Random();
+    // Values of the most recent VIs on every mec with the learned, the minimizing and the maximizing rates. VI on the mec
+    // continues from them.
+    private final MecValueCache<Int2DoubleMap> meanPayoffValueCache = new MecValueCache<>(Int2DoubleOpenHashMap::new);
+    private final MecValueCache<Int2DoubleMap> minimizingValueCache = new MecValueCache<>(Int2DoubleOpenHashMap::new);
+    private final MecValueCache<Int2DoubleMap> maximizingValueCache = new MecValueCache<>(Int2DoubleOpenHashMap::new);
+    // Confidence widths of the learned actions, kept up to date with the action counts of the explorer.
+    private final ConfidenceWidthTable confidenceWidths;
+
     protected static final double initialNSamples = 1e4;
     protected static final double multiplicativeFactor = 5;
 
@@ -64,7 +89,13 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
         this.pMin = pMin;
         this.errorTolerance = errorTolerance;
         this.nSampleFunction = nSampleFunction;
-        this.calculateErrorProbability = getErrorProbability;
+        if (getErrorProbability) {
+            CTMDPBlackExplorer<S, M> blackExplorer = (CTMDPBlackExplorer<S, M>) explorer;
+            this.errorProbabilities = new ErrorProbabilityCalculator(blackExplorer::getActions,
+                    blackExplorer.getOriginalStateActions(), blackExplorer.getStateTransitionCounts());
+        } else {
+            this.errorProbabilities = null;
+        }
         this.mecUniformizer = new MecUniformizer();
         this.simulateMec = simulateMec;
         this.maxSuccessorsInModel = maxSuccessorsInModel;
@@ -73,6 +104,17 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
         this.labelFunction = x -> y -> this.explorer.model().getActions(x).get(y).label();
 
         mecUniformizer.setDistributionFunction(distributionFunction);
+        this.confidenceWidths = new ConfidenceWidthTable(new ConfidenceWidthTable.ActionCounts() {
+            @Override
+            public int numActions(int state) {
+                return explorer.getChoices(state).size();
+            }
+
+            @Override
+            public long count(int state, int action) {
+                return ((CTMDPBlackExplorer<S, M>) explorer).getActionCounts(state, action);
+            }
+        });
     }
 
     @Override
@@ -93,28 +135,22 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
         long nIterations = nSampleFunction.apply(k);
         double errorTolerance = this.errorTolerance;
 
-        // Updates the confidenceWidthFunction according to the latest counts and transDelta value. The confidenceWidthFunction
-        // returns the confidenceWidth for a state x and an action with index y. if y is greater than the number of choices
-        // the explorer holds, it must be the stay action. We set confidence width of stay action equal to zero as we
-        // know the probabilities of the action are accurate as they have been calculated and not learned.
-        Int2ObjectFunction<Int2DoubleFunction> confidenceWidthFunction = x -> (y -> y < explorer.getChoices(x).size()
-                ? Math.sqrt(-Math.log(transDelta) / (2 * explorer.getActionCounts(x, y)))
-                : 0);
-
-        // Updates the confidence width function in UnboundedReachValues.
-        values.setConfidenceWidthFunction(confidenceWidthFunction);
+        // Updates the confidence widths according to the latest counts and transDelta value. Action indices beyond the
+        // choices the explorer holds belong to the stay action, which has confidence width zero as its probabilities
+        // have been calculated and not learned.
+        refreshConfidenceWidths(explorer);
+        values.setConfidenceWidths(confidenceWidths);
 
         for (int i = 0; i < nIterations; i++) {
             int currentState = initialState;
             int prevState = initialState;
-            Int2IntOpenHashMap stateVisitCounts = new Int2IntOpenHashMap();  // keeps counts of the number of times a state is visited
+            stateVisitCounts.clear();
 
             while (true) {
                 if (isTimeout()) {
                     return true;
                 }
 
-                stateVisitCounts.putIfAbsent(currentState, 0);
                 stateVisitCounts.addTo(currentState, 1);
 
                 // checks plus state,minus state and uncertain state
@@ -129,12 +165,14 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
                         explorer.activateActionCountFilter();
                         updateMec(mecIndex);
                         explorer.deactivateActionCountFilter();
+                        confidenceWidths.updateStates(mecs.get(mecIndex));
                     }
                     break;
                 }
 
                 if (!explorer().isExploredState(currentState)) {
                     explore(currentState);  // action choices etc. are populated in the partial model. The bounds of currentState are also initialised.
+                    confidenceWidths.updateState(currentState);
                 }
 
                 List<Distribution> choices = choices(currentState);
@@ -146,9 +184,9 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
                 // This condition is there as in the simulate function in CAV'19. It checks whether we have been returning to a
                 // state too many times during simulation indicating that we could be stuck inside an MEC.
                 if (stateVisitCounts.get(currentState) >= revisitThreshold && looping(currentState)) {
-                    Pair<Integer, Integer> bestStateActionPairs = getSampledBestLeavingAction(currentState);
-                    currentState = bestStateActionPairs.first;
-                    nextActionIndex = bestStateActionPairs.second;
+                    int bestLeavingIndex = getSampledBestLeavingAction(currentState);
+                    currentState = bestLeavingStates.getInt(bestLeavingIndex);
+                    nextActionIndex = bestLeavingActions.getInt(bestLeavingIndex);
                     choices = choices(currentState);
                 } else {
                     nextActionIndex = sampleNextAction(currentState);
@@ -160,13 +198,17 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
                 // Here, we simply sample the next state. However, if we don't have a stay action, we have to call the explorer to
                 // sample the next state according to the real distributions.
                 if (nextActionIndex == choices.size() - 1 && stateToMecMap.containsKey(currentState)) {
-                    nextState = choices.get(nextActionIndex).sample();
+                    nextState = SampleUtil.sample(choices.get(nextActionIndex), random.nextDouble());
                     stayActionCounts.put(stateToMecMap.get(currentState), stayActionCounts.get(stateToMecMap.get(currentState)) + 1);
                 } else {
                     nextState = explorer.simulateAction(currentState, nextActionIndex);
                     // If this action has been sampled enough number of times, we know that it can now be considered as a part of an MEC.
                     // Hence, we know that there might be new MECs in the model and it could be worthwhile finding them again.
                     seenNewTransitionSignificantly |= explorer.updateCounts(currentState, nextActionIndex, nextState, true);
+                    confidenceWidths.updateCount(currentState, nextActionIndex);
+                    if (errorProbabilities != null) {
+                        errorProbabilities.updateCount(currentState, nextActionIndex);
+                    }
                 }
 
                 // This is true when the currentState doesn't have any choices from it, i.e. it is a sink state.
@@ -189,10 +231,7 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
         values.resetBounds();
         initSinkStates();
 
-        confidenceWidthFunction = x -> (y -> y < explorer.getChoices(x).size()
-                ? Math.sqrt(-Math.log(transDelta) / (2 * explorer.getActionCounts(x, y)))
-                : 0);
-        values.setConfidenceWidthFunction(confidenceWidthFunction);
+        refreshConfidenceWidths(explorer);
 
         // the update function is ran until there has been some progress, i.e., the upper bounds of some state have been changed.
         // if there has been change, this change needs to be propagated through the rest of the states.
@@ -208,6 +247,15 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
 
     }
 
+    /**
+     * Recomputes the confidence widths of all explored states. The counts may also change outside of the sampled
+     * transitions (e.g. when MECs are simulated), so the table is refreshed completely before the bounds are updated.
+     */
+    private void refreshConfidenceWidths(CTMDPBlackExplorer<S, M> explorer) {
+        confidenceWidths.setTransDelta(transDelta);
+        confidenceWidths.updateStates(explorer.exploredStates());
+    }
+
     private void computeDeltaT(CTMDPBlackExplorer<S, M> explorer, double errorTolerance) {
         switch (deltaTCalculationMethod) {
             case P_MIN:
@@ -220,17 +268,20 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
         }
 
         explorer.updateCountParams(transDelta, pMin);
+        confidenceWidths.setTransDelta(transDelta);
     }
 
-    private Pair<Integer, Integer> getSampledBestLeavingAction(int currentState) {
+    /**
+     * Samples one of the best actions leaving the MEC of currentState.
+     * @return the index of the sampled action in bestLeavingStates and bestLeavingActions.
+     */
+    private int getSampledBestLeavingAction(int currentState) {
         BlackUnboundedReachValues values = (BlackUnboundedReachValues) this.values;
-        Random randomIntegerSampler = new Random();
 
         int mecIndex = stateToMecMap.get(currentState);
         NatBitSet mecStates = this.mecs.get(mecIndex);
-        List<Pair<Integer, Integer>> bestActionStatePairs = values.getBestLeavingAction(mecStates, this::choices);
-        int sampledActionIndex = randomIntegerSampler.nextInt(bestActionStatePairs.size());
-        return bestActionStatePairs.get(sampledActionIndex);
+        values.getBestLeavingAction(mecStates, choiceFunction, bestLeavingStates, bestLeavingActions);
+        return random.nextInt(bestLeavingStates.size());
     }
 
     private int sampleNextAction(int currentState) {
@@ -253,7 +304,7 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
      */
     private boolean update() {
         BlackUnboundedReachValues values = (BlackUnboundedReachValues) this.values;
-        values.cacheCurrBounds(); // cache the current bounds to check if we will make any progress in update.
+        values.resetProgress(); // track the changed bounds to check if we will make any progress in update.
 
         for (int state : explorer.exploredStates()) {
             List<Distribution> realChoices = choices(state);
@@ -298,6 +349,9 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
     protected void updateStayAction(int mecIndex, Bounds scaledBounds) {
         Distribution stayAction = BoundedMecQuotient.getStayDistribution(scaledBounds);
         stayActionMap.put(mecIndex, stayAction);
+        for (int state : mecs.get(mecIndex)) {
+            mecStateChoices.put(state, new StayActionChoices(state, stayAction));
+        }
     }
 
     /**
@@ -307,51 +361,94 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
      */
     @Override
     protected void updateMec(int mecIndex) {
+        updateMecs(IntLists.singleton(mecIndex));
+    }
 
+    /**
+     * Runs updateMec for several MECs. The mecs are simulated and uniformized one after another, as this accesses the
+     * explorer. The VIs on the uniformized mecs only work on the compiled mecs, so they run concurrently on the common
+     * fork-join pool. As the rate functions bounding the mean payoff depend on the first VI, this happens in two
+     * rounds. The stay actions are updated once all VIs are finished.
+     *
+     * @param mecIds: Indices of the mecs on which VI has to be run.
+     */
+    @Override
+    protected void updateMecs(IntIterable mecIds) {
         CTMDPBlackExplorer<S, M> explorer = (CTMDPBlackExplorer<S, M>) this.explorer;
 
-        // mecBounds now contain the scaled reward upper and lower bounds.
-        Bounds mecBounds = getMecBounds(mecIndex);
-
-        double currPrecision = mecBounds.difference() * this.rMax;
+        IntList mecIndices = new IntArrayList();
+        List<Mec> mecList = new ArrayList<>();
+        List<Bounds> previousBounds = new ArrayList<>();
+        List<RestrictedMecValueIterator<S, M>> valueIterators = new ArrayList<>();
+        for (int mecIndex : mecIds) {
+            // mecBounds now contain the scaled reward upper and lower bounds.
+            Bounds mecBounds = getMecBounds(mecIndex);
 
-        if (currPrecision < this.precision / 2) {
-            return;
-        }
+            double currPrecision = mecBounds.difference() * this.rMax;
 
-        double targetPrecision = currPrecision / 2;
-        assert !isZero(targetPrecision);
+            if (currPrecision < this.precision / 2) {
+                continue;
+            }
 
+            double targetPrecision = currPrecision / 2;
+            assert !isZero(targetPrecision);
 
-        // get all the MEC states corresponding to mecRepresentative.
-        Mec mec = getMec(mecIndex);
 
-        if (mec.states.size() == 0) {
-            return;
-        }
+            // get all the MEC states corresponding to mecRepresentative.
+            Mec mec = getMec(mecIndex);
 
-        int nTransitions = 1;
-        for (int state : mec.actions.keySet()) {
-            for (int actionInd : mec.actions.get(state)) {
-                nTransitions += explorer.model().getChoice(state, actionInd).size();
+            if (mec.states.size() == 0) {
+                continue;
             }
-        }
 
-        simulateMec(explorer, mec, nTransitions, computeNSamples(mec));
-        Bounds scaledBounds = findMecBounds(mec, targetPrecision, mecBounds);
-        updateStayAction(mecIndex, scaledBounds);
+            int nTransitions = 1;
+            for (int state : mec.actions.keySet()) {
+                for (int actionInd : mec.actions.get(state)) {
+                    nTransitions += explorer.model().getChoice(state, actionInd).size();
+                }
+            }
 
-    }
+            simulateMec(explorer, mec, nTransitions, computeNSamples(mec));
 
-    private Bounds findMecBounds(Mec mec, double targetPrecision, Bounds previousBounds) {
-        Bounds mecMeanPayOffBounds = performUniformizationAndValueIteration(mec, targetPrecision, previousBounds, getRateFunction());
-        double mecMeanPayOff = mecMeanPayOffBounds.average();
-        Bounds mecMeanPayOffBoundsLower = performUniformizationAndValueIteration(mec, targetPrecision, null, getMinimizingRateFunction(mecMeanPayOff));
-        Bounds mecMeanPayOffBoundsUpper = performUniformizationAndValueIteration(mec, targetPrecision, null, getMaximizingRateFunction(mecMeanPayOff));
-        return Bounds.of(mecMeanPayOffBoundsLower.lowerBound(), mecMeanPayOffBoundsUpper.upperBound());
+            mecIndices.add(mecIndex);
+            mecList.add(mec);
+            previousBounds.add(mecBounds);
+            valueIterators.add(uniformizedValueIterator(mec, targetPrecision, getRateFunction(),
+                    meanPayoffValueCache.get(mecs.get(mecIndex))));
+        }
+        valueIterators.parallelStream().forEach(RestrictedMecValueIterator::run);
+
+        // The mean payoff of the mec with the learned rates is bounded by VIs with the least and most favourable rates.
+        List<RestrictedMecValueIterator<S, M>> lowerValueIterators = new ArrayList<>();
+        List<RestrictedMecValueIterator<S, M>> upperValueIterators = new ArrayList<>();
+        for (int i = 0; i < mecIndices.size(); i++) {
+            Mec mec = mecList.get(i);
+            NatBitSet mecStates = mecs.get(mecIndices.getInt(i));
+            double targetPrecision = previousBounds.get(i).difference() * this.rMax / 2;
+            double mecMeanPayOff = scaledBounds(valueIterators.get(i), previousBounds.get(i)).average();
+            lowerValueIterators.add(uniformizedValueIterator(mec, targetPrecision,
+                    getMinimizingRateFunction(mecMeanPayOff), minimizingValueCache.get(mecStates)));
+            upperValueIterators.add(uniformizedValueIterator(mec, targetPrecision,
+                    getMaximizingRateFunction(mecMeanPayOff), maximizingValueCache.get(mecStates)));
+        }
+        Stream.concat(lowerValueIterators.stream(), upperValueIterators.stream()).parallel()
+                .forEach(RestrictedMecValueIterator::run);
+
+        for (int i = 0; i < mecIndices.size(); i++) {
+            Bounds mecMeanPayOffBoundsLower = scaledBounds(lowerValueIterators.get(i), null);
+            Bounds mecMeanPayOffBoundsUpper = scaledBounds(upperValueIterators.get(i), null);
+            updateStayAction(mecIndices.getInt(i),
+                    Bounds.of(mecMeanPayOffBoundsLower.lowerBound(), mecMeanPayOffBoundsUpper.upperBound()));
+        }
     }
 
-    private Bounds performUniformizationAndValueIteration(Mec mec, double targetPrecision, Bounds previousBounds, Int2ObjectFunction<Int2DoubleFunction> rateFunction) {
+    /**
+     * Uniformizes the mec with the given rates and prepares a VI on it, which continues from the given values. The
+     * bounds derived from the differences of two successive iterations are sound for any initial values. The returned
+     * value iterator is compiled, so it doesn't access the explorer or the uniformizer anymore.
+     */
+    private RestrictedMecValueIterator<S, M> uniformizedValueIterator(Mec mec, double targetPrecision, Int2ObjectFunction<Int2DoubleFunction> rateFunction,
+                                                                      Int2DoubleMap values) {
         CTMDPBlackExplorer<S, M> explorer = (CTMDPBlackExplorer<S, M>) this.explorer;
 
 
@@ -361,12 +458,18 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
         Int2ObjectFunction<S> stateIndexMap = explorer::getState;
 
         RestrictedMecValueIterator<S, M> valueIterator = new RestrictedMecValueIterator<S, M>(mec, targetPrecision / 2,
-                rewardGenerator, stateIndexMap, rMax, timeout);
+                rewardGenerator, stateIndexMap, values, rMax, timeout);
         valueIterator.setDistributionFunction(x -> y -> uniformizedMEC.getUniformizedDistribution(x, y));
         valueIterator.setLabelFunction(labelFunction);
+        valueIterator.setRewardCache(rewardCache);
+        valueIterator.compile();
+        return valueIterator;
+    }
 
-        valueIterator.run();
-
+    /**
+     * @return the bounds computed by the finished valueIterator, scaled to the stay action bounds.
+     */
+    private Bounds scaledBounds(RestrictedMecValueIterator<S, M> valueIterator, Bounds previousBounds) {
         Bounds newBounds = valueIterator.getBounds();
         Bounds scaledBounds = Bounds.of(newBounds.lowerBound() / this.rMax, newBounds.upperBound() / this.rMax);
 
@@ -391,8 +494,7 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
         return x -> y -> {
 
             double rate = explorer.computeRate(x, y);
-            double reward = rewardGenerator.stateReward(explorer.getState(x)) +
-                    rewardGenerator.transitionReward(explorer.getState(x), explorer.model().getActions(x).get(y).label());
+            double reward = rewardCache.reward(x, y);
             double epsilonHat = computeEpsilonHat(x, y);
 
             if (reward >= (mecValue * rMax)) {
@@ -411,8 +513,7 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
         return x -> y -> {
 
             double rate = explorer.computeRate(x, y);
-            double reward = rewardGenerator.stateReward(explorer.getState(x)) +
-                    rewardGenerator.transitionReward(explorer.getState(x), explorer.model().getActions(x).get(y).label());
+            double reward = rewardCache.reward(x, y);
             double epsilonHat = computeEpsilonHat(x, y);
 
             if (reward >= (mecValue * rMax)) {
@@ -468,6 +569,9 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
         }
 
         seenNewTransitionSignificantly = false; // now we are computing mecs. no new transitions would have been seen after this computation.
+        // New transitions of the learned model may connect already explored states, so the MECs are searched on all
+        // explored states instead of incrementally.
+        componentSearch.clear();
 
         CTMDPBlackExplorer<S, M> explorer = (CTMDPBlackExplorer<S, M>) explorer();
         BlackUnboundedReachValues values = (BlackUnboundedReachValues) this.values;
@@ -484,7 +588,11 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
             this.mecs.clear();
             this.stateToMecMap.clear();
             this.stayActionMap.clear();
+            this.mecStateChoices.clear();
             this.mecValueCache.clear();
+            this.meanPayoffValueCache.clear();
+            this.minimizingValueCache.clear();
+            this.maximizingValueCache.clear();
             // deactivate action count filter so that the original actions are restored in the model.
             explorer.deactivateActionCountFilter();
             return;
@@ -500,19 +608,17 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
 
         // This deflates the values of the states of the new mecs. Further, the stay action is added here.
 
-        for (int i : changedMecs) {
-
-            // We need to run VI on the MEC again to account for the following case. It can be that the bounds on the MEC are
-            // already very precise. Thus, the probability of reaching the uncertain state would be very small and we may
-            // never be able to run VI on the newly added states again. Thus, we need to run VI straight after adding new
-            // states.
-            updateMec(i);
-        }
+        // We need to run VI on the MEC again to account for the following case. It can be that the bounds on the MEC are
+        // already very precise. Thus, the probability of reaching the uncertain state would be very small and we may
+        // never be able to run VI on the newly added states again. Thus, we need to run VI straight after adding new
+        // states.
+        updateMecs(changedMecs);
 
         explorer.deactivateActionCountFilter();
 
         for (int i : changedMecs) {
             NatBitSet newComponent = newComponents.get(i);
+            confidenceWidths.updateStates(newComponent);
 
             values.deflate(newComponent, this::choices);
         }
@@ -581,6 +687,9 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
         stayActionMap = newStayActionMap;
         stayActionCounts = newStayActionCounts;
         this.mecs = newComponents;
+        meanPayoffValueCache.retain(newComponents);
+        minimizingValueCache.retain(newComponents);
+        maximizingValueCache.retain(newComponents);
 
         stateToMecMap.clear();
 
@@ -603,6 +712,14 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
             stayActionMap.put(mecIndex, BoundedMecQuotient.getStayDistribution(Bounds.reachUnknown()));
         }
 
+        mecStateChoices.clear();
+        for (i = 0; i < this.mecs.size(); i++) {
+            Distribution stayAction = stayActionMap.get(i);
+            for (int state : this.mecs.get(i)) {
+                mecStateChoices.put(state, new StayActionChoices(state, stayAction));
+            }
+        }
+
         return newMecs;
 
     }
@@ -621,32 +738,51 @@ public class CTMDPBlackOnDemandValueIterator<S, M extends Model> extends OnDeman
         return stateToMecMap.containsKey(lastVisitedState);
     }
 
+    /**
+     * Returns the choices of a state in the partial model. For states in an mec, the stay action of the mec is added as
+     * the last choice. The returned list must not be modified.
+     */
     @Override
     protected List<Distribution> choices(int state) {
         assert explorer.isExploredState(state);
         assert !BoundedMecQuotient.isSinkState(state);
 
-        List<Distribution> choices = new ArrayList<>(explorer.getChoices(state));
-        if (stateToMecMap.containsKey(state)) {
-            choices.add(stayActionMap.get(stateToMecMap.get(state)));
+        List<Distribution> choices = mecStateChoices.get(state);
+        return choices == null ? explorer.getChoices(state) : choices;
+    }
+
+    /**
+     * View of the choices of an mec state followed by the stay action of the mec. The learned choices are read from the
+     * explorer on access, as they change with the transition counts.
+     */
+    private final class StayActionChoices extends AbstractList<Distribution> implements RandomAccess {
+        private final int state;
+        private final Distribution stayAction;
+
+        StayActionChoices(int state, Distribution stayAction) {
+            this.state = state;
+            this.stayAction = stayAction;
+        }
+
+        @Override
+        public Distribution get(int index) {
+            List<Distribution> choices = explorer.getChoices(state);
+            return index == choices.size() ? stayAction : choices.get(index);
+        }
+
+        @Override
+        public int size() {
+            return explorer.getChoices(state).size() + 1;
         }
-        return choices;
     }
 
     @Override
     protected void onSamplingFinished(int initialState) {
         super.onSamplingFinished(initialState);
 
-        if (calculateErrorProbability) {
+        if (errorProbabilities != null) {
             logger.log(Level.INFO, "Computing error probability");
-
-            CTMDPBlackExplorer<S, M> explorer = (CTMDPBlackExplorer<S, M>) this.explorer;
-            ErrorProbabilityCalculator errorProbabilityCalculator = new ErrorProbabilityCalculator(explorer::getActions,
-                    explorer.getOriginalStateActions(),
-                    explorer.getStateTransitionCounts(),
-                    stateToMecMap,
-                    mecs);
-            double result = errorProbabilityCalculator.getErrorProbability(initialState);
+            double result = errorProbabilities.getErrorProbability(initialState, stateToMecMap, mecs);
             additionalWriteInfo.add(String.valueOf(result));
         }
     }
@@ -0,0 +1,103 @@
+package de.tum.in.pet.implementation.meanPayoff;
+
+import de.tum.in.probmodels.graph.Mec;
+import de.tum.in.probmodels.model.Distribution;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+// Compressed sparse row representation of an MEC for value iteration. States are numbered locally from 0 to
+// numStates-1 in the order of mec.states, the choices of local state i are choiceOffsets[i] to choiceOffsets[i+1]-1 and
+// the transitions of choice c are transitionOffsets[c] to transitionOffsets[c+1]-1.
+final class CompiledMec {
+
+  final int numStates;
+  final int[] states; // original state of every local state
+  final int[] choiceOffsets;
+  final int[] choiceActions; // original action index of every choice
+  final double[] choiceRewards; // transition reward of the choice plus state reward of its state
+  final int[] transitionOffsets;
+  final int[] successors; // local successor of every transition
+  final double[] probabilities;
+
+  private CompiledMec(int[] states, int[] choiceOffsets, int[] choiceActions, double[] choiceRewards,
+                      int[] transitionOffsets, int[] successors, double[] probabilities) {
+    this.numStates = states.length;
+    this.states = states;
+    this.choiceOffsets = choiceOffsets;
+    this.choiceActions = choiceActions;
+    this.choiceRewards = choiceRewards;
+    this.transitionOffsets = transitionOffsets;
+    this.successors = successors;
+    this.probabilities = probabilities;
+  }
+
+  /**
+   * Compiles the actions of the mec. All successors of these actions must be states of the mec.
+   * @param mec: Mec with respect to the original model.
+   * @param distributionFunction: returns the distribution for a state x and it's corresponding action index y.
+   * @param rewardCache: rewards of the state-action pairs.
+   */
+  static CompiledMec compile(Mec mec, Int2ObjectFunction<Int2ObjectFunction<Distribution>> distributionFunction,
+                             RewardCache<?> rewardCache) {
+    int numStates = mec.states.size();
+    int[] states = new int[numStates];
+    Int2IntOpenHashMap localIndex = new Int2IntOpenHashMap(numStates);
+    localIndex.defaultReturnValue(-1);
+    int numChoices = 0;
+    int local = 0;
+    for (int state : mec.states) {
+      states[local] = state;
+      localIndex.put(state, local);
+      local++;
+      numChoices += mec.actions.get(state).size();
+    }
+
+    int[] choiceOffsets = new int[numStates + 1];
+    int[] choiceActions = new int[numChoices];
+    double[] choiceRewards = new double[numChoices];
+    int[] transitionOffsets = new int[numChoices + 1];
+    Distribution[] distributions = new Distribution[numChoices];
+    int numTransitions = 0;
+    int choice = 0;
+    for (local = 0; local < numStates; local++) {
+      int state = states[local];
+      choiceOffsets[local] = choice;
+      IntSet allowedActions = mec.actions.get(state);  // allowedActions numbered as in original model
+      assert allowedActions != null;
+      for (int action : allowedActions) {
+        Distribution distribution = distributionFunction.apply(state).apply(action);
+        choiceActions[choice] = action;
+        choiceRewards[choice] = rewardCache.reward(state, action);
+        distributions[choice] = distribution;
+        transitionOffsets[choice] = numTransitions;
+        numTransitions += distribution.size();
+        choice++;
+      }
+    }
+    choiceOffsets[numStates] = numChoices;
+    transitionOffsets[numChoices] = numTransitions;
+
+    int[] successors = new int[numTransitions];
+    double[] probabilities = new double[numTransitions];
+    int transition = 0;
+    for (Distribution distribution : distributions) {
+      for (Int2DoubleMap.Entry entry : distribution) {
+        int successor = localIndex.get(entry.getIntKey());
+        assert successor != -1 : "successor outside of the mec";
+        successors[transition] = successor;
+        probabilities[transition] = entry.getDoubleValue();
+        transition++;
+      }
+    }
+    assert transition == numTransitions;
+
+    return new CompiledMec(states, choiceOffsets, choiceActions, choiceRewards, transitionOffsets, successors,
+            probabilities);
+  }
+
+  int numChoices() {
+    return choiceActions.length;
+  }
+}
@@ -18,9 +18,10 @@ public class GreyOnDemandValueIterator<S, M extends Model> extends BlackOnDemand
     public GreyOnDemandValueIterator(Explorer<S, M> explorer, UnboundedValues values, RewardGenerator<S> rewardGenerator,
                                      int revisitThreshold, double rMax, double pMin, double errorTolerance,
                                      Double2LongFunction nSampleFunction, double precision, long timeout, SimulateMec simulateMec,
-                                     DeltaTCalculationMethod deltaTCalculationMethod, int maxSuccessorsInModel) {
+                                     DeltaTCalculationMethod deltaTCalculationMethod, int maxSuccessorsInModel,
+                                     int samplingThreads) {
         super(explorer, values, rewardGenerator, revisitThreshold, rMax, pMin, errorTolerance, nSampleFunction, precision,
-                timeout, false, simulateMec, deltaTCalculationMethod, maxSuccessorsInModel);
+                timeout, false, simulateMec, deltaTCalculationMethod, maxSuccessorsInModel, samplingThreads);
 
         initGreyUnboundedReachValues();
     }
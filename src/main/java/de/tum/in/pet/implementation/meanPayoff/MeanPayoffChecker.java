@@ -10,6 +10,8 @@ import de.tum.in.pet.implementation.qp_meanpayoff.MeanPayOffSolverQP;
 import de.tum.in.pet.implementation.reachability.*;
 import de.tum.in.pet.sampler.UnboundedValues;
 import de.tum.in.pet.util.CliHelper;
+import de.tum.in.pet.util.ModelSnapshot;
+import de.tum.in.pet.util.ModelSnapshotWriter;
 import de.tum.in.pet.values.Bounds;
 import de.tum.in.probmodels.explorer.CTMDPBlackExplorer;
 import de.tum.in.probmodels.explorer.Explorers;
@@ -26,12 +28,15 @@ import prism.*;
 import simulator.ModulesFileModelGenerator;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.function.IntPredicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /*
 This code's purpose is to facilitate the testing of the OnDemandValueIterator.
@@ -62,6 +67,17 @@ public final class MeanPayoffChecker {
     }
   }
 
+  // Only MDPs can be solved from a snapshot. It stores the transitions as the modules file generator returns them,
+  // while continuous-time models are explored through the CTMDP generator.
+  public static double solve(ModelSnapshot snapshot, int rewardIndex, InputValues inputValues)
+          throws PrismException {
+    if (snapshot.modelType() != ModelType.MDP) {
+      throw new UnsupportedOperationException("Snapshots of " + snapshot.modelType() + " models are not supported");
+    }
+    MarkovDecisionProcess partialModel = new MarkovDecisionProcess();
+    return solve(partialModel, snapshot.generator(), snapshot.rewardGenerator(rewardIndex), inputValues);
+  }
+
   private static <S, M extends Model> double solveCtmdp(M partialModel, Generator<S> generator,
                                                         RewardGenerator<S> rewardGenerator, InputValues inputValues)
           throws PrismException {
@@ -131,7 +147,7 @@ public final class MeanPayoffChecker {
       valueIterator = new BlackOnDemandValueIterator<>(explorer, values, rewardGenerator,
               ip.revisitThreshold, ip.maxReward, ip.pMin, ip.errorTolerance, nSampleFunction,
               ip.precision / ip.maxReward, System.currentTimeMillis() + ip.timeout, ip.getErrorProbability,
-              ip.simulateMec, ip.deltaTCalculationMethod, ip.maxSuccessorsInModel);
+              ip.simulateMec, ip.deltaTCalculationMethod, ip.maxSuccessorsInModel, ip.samplingThreads);
     }
     else{
       Double2LongFunction nSampleFunction = s -> ip.iterSamples;
@@ -142,7 +158,7 @@ public final class MeanPayoffChecker {
       valueIterator = new GreyOnDemandValueIterator<>(explorer, values, rewardGenerator,
               ip.revisitThreshold, ip.maxReward, ip.pMin, ip.errorTolerance, nSampleFunction,
               ip.precision / ip.maxReward, System.currentTimeMillis()+ip.timeout,
-              ip.simulateMec, ip.deltaTCalculationMethod, ip.maxSuccessorsInModel);
+              ip.simulateMec, ip.deltaTCalculationMethod, ip.maxSuccessorsInModel, ip.samplingThreads);
     }
 
     valueIterator.run();
@@ -189,25 +205,48 @@ public final class MeanPayoffChecker {
     CommandLine commandLine = CliHelper.parse(InputOptions.getAllInputOptions(), args);
 
     double startTime1 = System.currentTimeMillis();
-    PrismHelper.PrismParseResult parse =
-            Main.parse(commandLine, InputOptions.modelOption, null, InputOptions.constantsOption);
-    ModulesFile modulesFile = parse.modulesFile();
-
-    Prism prism = new Prism(new PrismDevNullLog());
-    ModulesFileModelGenerator generator = new ModulesFileModelGenerator(modulesFile, prism);
+    ModelSnapshot snapshot = null;
+    ModulesFileModelGenerator generator = null;
+    if (ip.snapshotPath != null && !ip.solveUsingQP) {
+      Path snapshotPath = Path.of(ip.snapshotPath);
+      String fingerprint = ModelSnapshot.fingerprint(
+              Path.of(commandLine.getOptionValue(InputOptions.modelOption.getLongOpt())),
+              commandLine.getOptionValue(InputOptions.constantsOption.getLongOpt()));
+      snapshot = loadSnapshot(snapshotPath, fingerprint);
+      if (snapshot == null) {
+        generator = createGenerator(commandLine);
+        // The model is only explored completely if it can be solved from the snapshot afterwards.
+        if (generator.getModelType() == ModelType.MDP) {
+          ModelSnapshotWriter.write(generator, snapshotPath, fingerprint);
+          snapshot = ModelSnapshot.load(snapshotPath, fingerprint);
+        } else {
+          logger.log(Level.WARNING, "Ignoring the snapshot, {0} models can't be solved from a snapshot",
+                  generator.getModelType());
+        }
+      }
+    } else {
+      generator = createGenerator(commandLine);
+    }
 
     if (ip.solveUsingQP) {
       MeanPayOffSolverQP.solveUsingQP(generator, ip.rewardStructure);
     }
     else {
-      int rewardIndex = ip.rewardStructure == null ? 0 : generator.getRewardStructIndex(ip.rewardStructure);
+      int rewardIndex;
+      if (ip.rewardStructure == null) {
+        rewardIndex = 0;
+      } else if (snapshot == null) {
+        rewardIndex = generator.getRewardStructIndex(ip.rewardStructure);
+      } else {
+        rewardIndex = snapshot.rewardStructIndex(ip.rewardStructure);
+      }
       if (rewardIndex == -1) {
         throw new NoSuchElementException("Reward module " + commandLine.getOptionValue(InputOptions.rewardModuleOption.getLongOpt()) + " not found");
       }
 
       long startTime2 = System.currentTimeMillis();
       timeVBound.add(new Pair<>(startTime2, Bounds.of(0, ip.maxReward)));
-      double meanPayoff = solve(generator, rewardIndex, ip);
+      double meanPayoff = snapshot == null ? solve(generator, rewardIndex, ip) : solve(snapshot, rewardIndex, ip);
       long endTime = System.currentTimeMillis();
 
       ResultWriter.write(commandLine, timeVBound, additionalWriteInfo, ip.outputPath);
@@ -218,4 +257,31 @@ public final class MeanPayoffChecker {
     }
   }
 
+  // Returns null if there is no snapshot of the model at the path which can be solved.
+  @Nullable
+  private static ModelSnapshot loadSnapshot(Path snapshotPath, String fingerprint) throws IOException {
+    if (!Files.exists(snapshotPath)) {
+      return null;
+    }
+    ModelSnapshot snapshot;
+    try {
+      snapshot = ModelSnapshot.load(snapshotPath, fingerprint);
+    } catch (ModelSnapshot.MismatchException e) {
+      logger.log(Level.INFO, "Snapshot {0} doesn''t match the model and constants, it is written again",
+              snapshotPath);
+      return null;
+    }
+    return snapshot.modelType() == ModelType.MDP ? snapshot : null;
+  }
+
+  private static ModulesFileModelGenerator createGenerator(CommandLine commandLine)
+          throws PrismException, IOException {
+    PrismHelper.PrismParseResult parse =
+            Main.parse(commandLine, InputOptions.modelOption, null, InputOptions.constantsOption);
+    ModulesFile modulesFile = parse.modulesFile();
+
+    Prism prism = new Prism(new PrismDevNullLog());
+    return new ModulesFileModelGenerator(modulesFile, prism);
+  }
+
 }
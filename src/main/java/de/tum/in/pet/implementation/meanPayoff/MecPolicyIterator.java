@@ -0,0 +1,415 @@
+package de.tum.in.pet.implementation.meanPayoff;
+
+import de.tum.in.pet.values.Bounds;
+import de.tum.in.probmodels.generator.RewardGenerator;
+import de.tum.in.probmodels.graph.Mec;
+import de.tum.in.probmodels.model.Distribution;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Computes the maximal mean payoff of an MEC by multichain policy iteration (Puterman '94 Section 9.2). Every policy is
+ * evaluated exactly by solving its gain and bias equations, so neither the aperiodicity transformation of VI is needed
+ * nor does the number of iterations depend on the precision or the conditioning of the MEC. The equations are solved by
+ * Gaussian elimination on dense matrices, so the cost grows cubically with the size of the MEC.
+ *
+ * The bounds are the minimum and maximum of T(h) - h, where h is the bias of the last policy and T the Bellman operator.
+ * They enclose the maximal mean payoff for any h, so they stay sound under rounding errors or a timeout, and they
+ * coincide for the bias of an optimal policy.
+ */
+public class MecPolicyIterator<S> implements MecSolver<S> {
+
+  // Values are considered equal if they differ by at most this, relative to their magnitude. A policy is only changed
+  // if this strictly improves it, so rounding errors can't make it cycle between equally good actions.
+  private static final double TOLERANCE = 1e-10;
+  private static final int MAX_ITERATIONS = 1000;
+
+  public final Mec mec; // Mec with respect to original model
+  public final double targetPrecision;
+  public final Int2DoubleMap values;  // map of states and the bias of the last policy
+  public final RewardGenerator<S> rewardGenerator;
+  private int iterCount;  // number of evaluated policies
+  private final Int2ObjectFunction<S> stateIndexMap; // map from original model state number to corresponding state object
+  private final double rMax;
+  private final long timeout;
+
+  private Bounds bounds;
+
+  private CompiledMec compiledMec;
+
+  // Returns the distribution for a state x and it's corresponding action index y
+  private Int2ObjectFunction<Int2ObjectFunction<Distribution>> distributionFunction = x -> (y -> null);
+
+  // Returns the label of the action y
+  private Int2ObjectFunction<Int2ObjectFunction<Object>> labelFunction = x -> (y -> null);
+
+  // Rewards shared with other VIs, if any
+  private RewardCache<S> rewardCache;
+
+  public MecPolicyIterator(Mec mec, double targetPrecision, RewardGenerator<S> rewardGenerator,
+                           Int2ObjectFunction<S> stateIndexMap, double rMax, long timeout) {
+    this(mec, targetPrecision, rewardGenerator, stateIndexMap, new Int2DoubleOpenHashMap(), rMax, timeout);
+  }
+
+  public MecPolicyIterator(Mec mec, double targetPrecision, RewardGenerator<S> rewardGenerator,
+                           Int2ObjectFunction<S> stateIndexMap, Int2DoubleMap values, double rMax, long timeout) {
+    this.mec = mec;
+    this.targetPrecision = targetPrecision;
+    this.values = values;
+    this.rewardGenerator = rewardGenerator;
+    this.stateIndexMap = stateIndexMap;
+    this.rMax = rMax;
+    this.timeout = timeout;
+    this.iterCount = 0;
+  }
+
+  @Override
+  public void setDistributionFunction(Int2ObjectFunction<Int2ObjectFunction<Distribution>> distributionFunction) {
+    this.distributionFunction = distributionFunction;
+  }
+
+  @Override
+  public void setLabelFunction(Int2ObjectFunction<Int2ObjectFunction<Object>> labelFunction) {
+    this.labelFunction = labelFunction;
+  }
+
+  @Override
+  public void setRewardCache(RewardCache<S> rewardCache) {
+    this.rewardCache = rewardCache;
+  }
+
+  @Override
+  public void compile() {
+    // Without a shared cache, the rewards are evaluated for this policy iteration only.
+    RewardCache<S> rewards = rewardCache != null ? rewardCache
+            : new RewardCache<>(rewardGenerator, stateIndexMap, labelFunction);
+    compiledMec = CompiledMec.compile(mec, distributionFunction, rewards);
+  }
+
+  /**
+   * Improves the policy until it is optimal or the bounds are precise enough. The first policy is greedy with respect
+   * to the given values, i.e. with the values of a previous VI or policy iteration it usually is close to optimal.
+   */
+  @Override
+  public void run() {
+    if (compiledMec == null) {
+      compile();
+    }
+    int numStates = compiledMec.numStates;
+
+    double[] gain = new double[numStates];
+    double[] bias = new double[numStates];
+    for (int i = 0; i < numStates; i++) {
+      bias[i] = values.get(compiledMec.states[i]);
+    }
+    int[] policy = new int[numStates];
+    for (int i = 0; i < numStates; i++) {
+      policy[i] = greedyChoice(i, bias);
+    }
+
+    do {
+      evaluate(policy, gain, bias);
+      iterCount++;
+      bounds = bellmanBounds(bias);
+    } while (bounds.difference() >= targetPrecision && iterCount < MAX_ITERATIONS && !isTimeout()
+            && improve(policy, gain, bias));
+
+    for (int i = 0; i < numStates; i++) {
+      values.put(compiledMec.states[i], bias[i]);
+    }
+  }
+
+  private int greedyChoice(int state, double[] vector) {
+    int best = compiledMec.choiceOffsets[state];
+    double bestValue = compiledMec.choiceRewards[best] + expectation(best, vector);
+    for (int choice = best + 1; choice < compiledMec.choiceOffsets[state + 1]; choice++) {
+      double value = compiledMec.choiceRewards[choice] + expectation(choice, vector);
+      if (value > bestValue) {
+        best = choice;
+        bestValue = value;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Computes gain and bias of the policy. Within every recurrent class, the gain is constant and the bias of one state
+   * is fixed to zero. Then, gain and bias of the transient states follow from those of the recurrent states.
+   */
+  private void evaluate(int[] policy, double[] gain, double[] bias) {
+    int numStates = compiledMec.numStates;
+
+    boolean[][] reachable = new boolean[numStates][];
+    IntArrayList stack = new IntArrayList();
+    for (int i = 0; i < numStates; i++) {
+      boolean[] reached = new boolean[numStates];
+      reached[i] = true;
+      stack.add(i);
+      while (!stack.isEmpty()) {
+        int state = stack.popInt();
+        int choice = policy[state];
+        for (int t = compiledMec.transitionOffsets[choice]; t < compiledMec.transitionOffsets[choice + 1]; t++) {
+          int successor = compiledMec.successors[t];
+          if (!reached[successor]) {
+            reached[successor] = true;
+            stack.add(successor);
+          }
+        }
+      }
+      reachable[i] = reached;
+    }
+
+    // A state is recurrent iff it can be reached again from every state reachable from it. Then, its recurrent class
+    // is the set of states reachable from it.
+    boolean[] recurrent = new boolean[numStates];
+    for (int i = 0; i < numStates; i++) {
+      recurrent[i] = true;
+      for (int j = 0; j < numStates && recurrent[i]; j++) {
+        recurrent[i] = !reachable[i][j] || reachable[j][i];
+      }
+    }
+
+    int[] position = new int[numStates];
+    boolean[] solved = new boolean[numStates];
+    IntArrayList members = new IntArrayList();
+    for (int i = 0; i < numStates; i++) {
+      if (!recurrent[i] || solved[i]) {
+        continue;
+      }
+      members.clear();
+      for (int j = 0; j < numStates; j++) {
+        if (reachable[i][j]) {
+          position[j] = members.size();
+          members.add(j);
+        }
+      }
+
+      // Variable 0 is the gain of the class and variable k > 0 is the bias of the k-th member, the bias of member 0 is
+      // zero. Equation k is g + h_k - sum_j P_kj h_j = r_k.
+      int size = members.size();
+      double[][] matrix = new double[size][size];
+      double[] rhs = new double[size];
+      for (int k = 0; k < size; k++) {
+        int state = members.getInt(k);
+        int choice = policy[state];
+        matrix[k][0] = 1.0;
+        if (k > 0) {
+          matrix[k][k] += 1.0;
+        }
+        for (int t = compiledMec.transitionOffsets[choice]; t < compiledMec.transitionOffsets[choice + 1]; t++) {
+          int successor = position[compiledMec.successors[t]];
+          if (successor > 0) {
+            matrix[k][successor] -= compiledMec.probabilities[t];
+          }
+        }
+        rhs[k] = compiledMec.choiceRewards[choice];
+      }
+      solve(matrix, rhs);
+      for (int k = 0; k < size; k++) {
+        int state = members.getInt(k);
+        gain[state] = rhs[0];
+        bias[state] = k == 0 ? 0.0 : rhs[k];
+        solved[state] = true;
+      }
+    }
+
+    members.clear();
+    for (int i = 0; i < numStates; i++) {
+      if (!recurrent[i]) {
+        position[i] = members.size();
+        members.add(i);
+      }
+    }
+    if (members.isEmpty()) {
+      return;
+    }
+
+    // On the transient states, g = P g and h = r - g + P h, where the values of the recurrent states are known.
+    int size = members.size();
+    double[] gainRhs = new double[size];
+    for (int k = 0; k < size; k++) {
+      int choice = policy[members.getInt(k)];
+      for (int t = compiledMec.transitionOffsets[choice]; t < compiledMec.transitionOffsets[choice + 1]; t++) {
+        int successor = compiledMec.successors[t];
+        if (recurrent[successor]) {
+          gainRhs[k] += compiledMec.probabilities[t] * gain[successor];
+        }
+      }
+    }
+    solve(transientMatrix(policy, recurrent, position, members), gainRhs);
+
+    double[] biasRhs = new double[size];
+    for (int k = 0; k < size; k++) {
+      int choice = policy[members.getInt(k)];
+      biasRhs[k] = compiledMec.choiceRewards[choice] - gainRhs[k];
+      for (int t = compiledMec.transitionOffsets[choice]; t < compiledMec.transitionOffsets[choice + 1]; t++) {
+        int successor = compiledMec.successors[t];
+        if (recurrent[successor]) {
+          biasRhs[k] += compiledMec.probabilities[t] * bias[successor];
+        }
+      }
+    }
+    solve(transientMatrix(policy, recurrent, position, members), biasRhs);
+
+    for (int k = 0; k < size; k++) {
+      int state = members.getInt(k);
+      gain[state] = gainRhs[k];
+      bias[state] = biasRhs[k];
+    }
+  }
+
+  // I - P restricted to the transient states, which is invertible as they are left eventually.
+  private double[][] transientMatrix(int[] policy, boolean[] recurrent, int[] position, IntArrayList members) {
+    int size = members.size();
+    double[][] matrix = new double[size][size];
+    for (int k = 0; k < size; k++) {
+      int choice = policy[members.getInt(k)];
+      matrix[k][k] = 1.0;
+      for (int t = compiledMec.transitionOffsets[choice]; t < compiledMec.transitionOffsets[choice + 1]; t++) {
+        int successor = compiledMec.successors[t];
+        if (!recurrent[successor]) {
+          matrix[k][position[successor]] -= compiledMec.probabilities[t];
+        }
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Improves the policy, first with respect to the gain and, if that isn't possible, with respect to the bias among the
+   * actions which maximize the gain. The action of a state only changes if another one is strictly better.
+   * @return whether the policy has changed.
+   */
+  private boolean improve(int[] policy, double[] gain, double[] bias) {
+    int numStates = compiledMec.numStates;
+    boolean changed = false;
+    for (int i = 0; i < numStates; i++) {
+      int best = policy[i];
+      double bestGain = expectation(best, gain);
+      for (int choice = compiledMec.choiceOffsets[i]; choice < compiledMec.choiceOffsets[i + 1]; choice++) {
+        double choiceGain = expectation(choice, gain);
+        if (choiceGain > bestGain + tolerance(bestGain)) {
+          best = choice;
+          bestGain = choiceGain;
+        }
+      }
+      if (best != policy[i]) {
+        policy[i] = best;
+        changed = true;
+      }
+    }
+    if (changed) {
+      return true;
+    }
+
+    for (int i = 0; i < numStates; i++) {
+      int best = policy[i];
+      double maxGain = expectation(best, gain);
+      double bestValue = compiledMec.choiceRewards[best] + expectation(best, bias);
+      for (int choice = compiledMec.choiceOffsets[i]; choice < compiledMec.choiceOffsets[i + 1]; choice++) {
+        if (expectation(choice, gain) < maxGain - tolerance(maxGain)) {
+          continue;
+        }
+        double value = compiledMec.choiceRewards[choice] + expectation(choice, bias);
+        if (value > bestValue + tolerance(bestValue)) {
+          best = choice;
+          bestValue = value;
+        }
+      }
+      if (best != policy[i]) {
+        policy[i] = best;
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  private Bounds bellmanBounds(double[] bias) {
+    double max = -Double.MAX_VALUE;
+    double min = Double.MAX_VALUE;
+    for (int i = 0; i < compiledMec.numStates; i++) {
+      int choice = greedyChoice(i, bias);
+      double diff = compiledMec.choiceRewards[choice] + expectation(choice, bias) - bias[i];
+      if (diff > max) {
+        max = diff;
+      }
+      if (diff < min) {
+        min = diff;
+      }
+    }
+    // As in RestrictedMecValueIterator, rounding errors may lead to an upper bound slightly greater than rMax.
+    if (max >= rMax) {
+      max = rMax;
+    }
+    return Bounds.of(min, max);
+  }
+
+  private double expectation(int choice, double[] vector) {
+    double sum = 0.0;
+    for (int t = compiledMec.transitionOffsets[choice]; t < compiledMec.transitionOffsets[choice + 1]; t++) {
+      sum += compiledMec.probabilities[t] * vector[compiledMec.successors[t]];
+    }
+    return sum;
+  }
+
+  private static double tolerance(double value) {
+    return TOLERANCE * Math.max(1.0, Math.abs(value));
+  }
+
+  /**
+   * Solves matrix * x = rhs by Gaussian elimination with partial pivoting. Both arguments are overwritten, rhs with x.
+   */
+  private static void solve(double[][] matrix, double[] rhs) {
+    int size = rhs.length;
+    for (int column = 0; column < size; column++) {
+      int pivot = column;
+      for (int row = column + 1; row < size; row++) {
+        if (Math.abs(matrix[row][column]) > Math.abs(matrix[pivot][column])) {
+          pivot = row;
+        }
+      }
+      double[] swapRow = matrix[column];
+      matrix[column] = matrix[pivot];
+      matrix[pivot] = swapRow;
+      double swap = rhs[column];
+      rhs[column] = rhs[pivot];
+      rhs[pivot] = swap;
+
+      double[] pivotRow = matrix[column];
+      for (int row = column + 1; row < size; row++) {
+        double factor = matrix[row][column] / pivotRow[column];
+        if (factor == 0.0) {
+          continue;
+        }
+        double[] currentRow = matrix[row];
+        for (int k = column; k < size; k++) {
+          currentRow[k] -= factor * pivotRow[k];
+        }
+        rhs[row] -= factor * rhs[column];
+      }
+    }
+    for (int row = size - 1; row >= 0; row--) {
+      double sum = rhs[row];
+      for (int k = row + 1; k < size; k++) {
+        sum -= matrix[row][k] * rhs[k];
+      }
+      rhs[row] = sum / matrix[row][row];
+    }
+  }
+
+  @Override
+  public Bounds getBounds() {
+    return bounds;
+  }
+
+  @Override
+  public Int2DoubleMap getValues() {
+    return this.values;
+  }
+
+  private boolean isTimeout() {
+    return System.currentTimeMillis() >= timeout;
+  }
+}
@@ -0,0 +1,39 @@
+package de.tum.in.pet.implementation.meanPayoff;
+
+import de.tum.in.pet.values.Bounds;
+import de.tum.in.probmodels.model.Distribution;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
+
+/**
+ * Computes bounds on the maximal mean payoff of a white-box MEC, e.g. by value iteration or policy iteration.
+ */
+public interface MecSolver<S> {
+
+  void setDistributionFunction(Int2ObjectFunction<Int2ObjectFunction<Distribution>> distributionFunction);
+
+  void setLabelFunction(Int2ObjectFunction<Int2ObjectFunction<Object>> labelFunction);
+
+  /**
+   * Sets rewards shared with other solvers. Otherwise, the rewards are evaluated on compilation.
+   */
+  void setRewardCache(RewardCache<S> rewardCache);
+
+  /**
+   * Compiles the MEC using the current distribution and label functions. Afterwards, run() doesn't access the model
+   * anymore and may run on another thread.
+   */
+  void compile();
+
+  void run();
+
+  /**
+   * @return Returns the calculated reward upper and lower bounds.
+   */
+  Bounds getBounds();
+
+  /**
+   * @return Return values from which a later solver on the same MEC can continue.
+   */
+  Int2DoubleMap getValues();
+}
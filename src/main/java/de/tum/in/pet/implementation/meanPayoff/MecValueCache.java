@@ -0,0 +1,48 @@
+package de.tum.in.pet.implementation.meanPayoff;
+
+import de.tum.in.naturals.set.NatBitSet;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Holds the values of the most recent VI on every MEC, so that the next VI on the MEC can continue from them. The values
+// are keyed by the states of the MEC instead of its index, so they survive the renumbering of the MECs and are dropped
+// as soon as the states of the MEC change.
+final class MecValueCache<V> {
+
+  private Map<NatBitSet, V> valuesMap = new HashMap<>();
+  private final Supplier<V> emptyValues;
+
+  MecValueCache(Supplier<V> emptyValues) {
+    this.emptyValues = emptyValues;
+  }
+
+  /**
+   * @param mecStates: states of the MEC. The set must not be modified afterwards.
+   * @return the values of the previous VI on the MEC, or new empty values which are kept for the next VI.
+   */
+  V get(NatBitSet mecStates) {
+    return valuesMap.computeIfAbsent(mecStates, k -> emptyValues.get());
+  }
+
+  /**
+   * Drops the values of all MECs which aren't part of mecs anymore.
+   * @param mecs: List of sets where each set represents an mec.
+   */
+  void retain(List<NatBitSet> mecs) {
+    Map<NatBitSet, V> retainedValues = new HashMap<>();
+    for (NatBitSet mecStates : mecs) {
+      V values = valuesMap.get(mecStates);
+      if (values != null) {
+        retainedValues.put(mecStates, values);
+      }
+    }
+    valuesMap = retainedValues;
+  }
+
+  void clear() {
+    valuesMap.clear();
+  }
+}
@@ -5,6 +5,7 @@ import de.tum.in.naturals.set.NatBitSets;
 import de.tum.in.pet.sampler.AnnotatedModel;
 import de.tum.in.pet.sampler.Iterator;
 import de.tum.in.pet.sampler.UnboundedValues;
+import de.tum.in.pet.util.IncrementalComponentSearch;
 import de.tum.in.pet.values.Bounds;
 import de.tum.in.probmodels.explorer.Explorer;
 import de.tum.in.probmodels.generator.RewardGenerator;
@@ -17,9 +18,9 @@ import prism.PrismException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.IntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import static de.tum.in.probmodels.util.Util.isZero;
 
@@ -31,23 +32,50 @@ public class OnDemandValueIterator<S, M extends Model> implements Iterator<S, M>
   protected final UnboundedValues values;
   private final BoundedMecQuotient<M> boundedMecQuotient;
   protected final RewardGenerator<S> rewardGenerator;
+  // rewards of the explored state-action pairs, shared by all VIs on mecs.
+  protected final RewardCache<S> rewardCache;
 
   protected final MecComponentAnalyser mecAnalyser = new MecComponentAnalyser();
+  // keeps track of the states explored since the last call of handleComponents() and restricts the search to them.
+  protected final IncrementalComponentSearch componentSearch = new IncrementalComponentSearch(mecAnalyser);
 
   protected final double precision;
   protected final int revisitThreshold;
   protected final double rMax;
 
-  // variable keeps track if new states have been explored and if handleComponents() needs to be run again.
-  protected boolean newStatesSinceCollapse = false;
-
   // stores most recent VI results for all states.
   protected Int2ObjectMap<Int2DoubleMap> mecValueCache = new Int2ObjectOpenHashMap<>();
 
+  // stores the Mec objects of the collapsed MECs by their representatives until the MEC is collapsed again.
+  private final Int2ObjectMap<Mec> mecCache = new Int2ObjectOpenHashMap<>();
+
   protected List<Pair<Long, Bounds>> timeVBound = new ArrayList<>();
 
   protected final long timeout;
 
+  // MECs with at most this many states are solved by policy iteration instead of VI. Policy iteration solves dense
+  // linear systems, so its cost grows cubically with the size of the MEC, but it doesn't depend on the precision.
+  private static final int POLICY_ITERATION_MAX_STATES = 32;
+  // If the required precision relative to rMax is at most POLICY_ITERATION_PRECISION, VI needs many iterations, so
+  // policy iteration is used for MECs with up to POLICY_ITERATION_MAX_STATES_PRECISE states.
+  private static final int POLICY_ITERATION_MAX_STATES_PRECISE = 128;
+  private static final double POLICY_ITERATION_PRECISION = 1e-4;
+
+  // Scratch structures of sample(), cleared and reused by every sampled path.
+  private final IntArrayList visitStack = new IntArrayList();
+  private final Int2IntOpenHashMap stateVisitCounts = new Int2IntOpenHashMap(); // keeps counts of the number of times a state is visited
+
+  /**
+   * A VI on a single mec. It is prepared on the thread running the iterator, as it accesses the explorer. Afterwards,
+   * solve() only works on the compiled mec and may run concurrently to the updates of other mecs, while publish() has to
+   * be called on the thread running the iterator again.
+   */
+  protected interface MecUpdate {
+    void solve();
+
+    void publish();
+  }
+
   // Each string will be added to the temp.txt file.
   protected final List<String> additionalWriteInfo = new ArrayList<>();
 
@@ -57,9 +85,16 @@ public class OnDemandValueIterator<S, M extends Model> implements Iterator<S, M>
 
     this.values = values;
     this.rewardGenerator = rewardGenerator;
+    this.rewardCache = new RewardCache<>(rewardGenerator, explorer::getState,
+            x -> y -> explorer.model().getActions(x).get(y).label());
 
     this.revisitThreshold = revisitThreshold;
     this.boundedMecQuotient = new BoundedMecQuotient<>(explorer.model());
+    // states explored before sampling, e.g. the initial states, have to be considered by the first search, too.
+    componentSearch.explored(explorer.exploredStates());
+    for (int state : explorer.exploredStates()) {
+      rewardCache.explored(state, explorer.model().getActions(state).size());
+    }
     this.rMax = rMax;
 
     this.precision = precision;
@@ -172,9 +207,9 @@ public class OnDemandValueIterator<S, M extends Model> implements Iterator<S, M>
    */
   protected boolean sample(int initialState, int run) throws PrismException {
 
-    IntStack visitStack = new IntArrayList();
+    visitStack.clear();
+    stateVisitCounts.clear();
     int currentState = initialState;
-    Int2IntOpenHashMap stateVisitCounts = new Int2IntOpenHashMap();  // keeps counts of the number of times a state is visited
 
     boolean updatedEC = false;
     boolean foundDesignatedSinkState = false;
@@ -182,7 +217,6 @@ public class OnDemandValueIterator<S, M extends Model> implements Iterator<S, M>
     while(true){
 
       visitStack.push(currentState);
-      stateVisitCounts.putIfAbsent(currentState, 0);
       stateVisitCounts.addTo(currentState, 1);
 
       // checks plus state,minus state and uncertain state
@@ -249,16 +283,19 @@ public class OnDemandValueIterator<S, M extends Model> implements Iterator<S, M>
     return BoundedMecQuotient.getBoundsFromStayAction(boundedMecQuotient.getStayAction(mecRepresentative));
   }
 
-  // todo cache
   /**
    * @param mecRepresentative: mecRepresentative of the desired MEC.
    * @return MEC object for the desired mecRepresentative.
    */
   protected Mec getMec(int mecRepresentative){
-    NatBitSet mecStates = NatBitSets.copyOf(explorer.exploredStates().stream()
-            .filter(s -> boundedMecQuotient.representative(s)==mecRepresentative)
-            .collect(Collectors.toList()));
-    return Mec.create(explorer().model(), mecStates);
+    Mec mec = mecCache.get(mecRepresentative);
+    if (mec == null) {
+      // All members of an MEC are explored, so their choices in the model don't change until the MEC is extended. The
+      // members are copied as the quotient extends its set on the next collapse.
+      mec = Mec.create(explorer().model(), NatBitSets.copyOf(boundedMecQuotient.members(mecRepresentative)));
+      mecCache.put(mecRepresentative, mec);
+    }
+    return mec;
   }
 
   /**
@@ -275,6 +312,39 @@ public class OnDemandValueIterator<S, M extends Model> implements Iterator<S, M>
    * @param mecRepresentative: Representative state of mec on which VI has to be run.
    */
   protected void updateMec(int mecRepresentative){
+    MecUpdate update = prepareMecUpdate(mecRepresentative);
+    if (update != null) {
+      update.solve();
+      update.publish();
+    }
+  }
+
+  /**
+   * Runs updateMec for several MECs. The MECs are disjoint, so their value iterations run concurrently on the common
+   * fork-join pool. They are prepared one after another, as only the calling thread may access the explorer, and the
+   * stay actions are updated once all of them are finished.
+   * @param mecIds: Representatives (or indices) of the mecs on which VI has to be run.
+   */
+  protected void updateMecs(IntIterable mecIds){
+    List<MecUpdate> updates = new ArrayList<>();
+    for (int mecId : mecIds) {
+      MecUpdate update = prepareMecUpdate(mecId);
+      if (update != null) {
+        updates.add(update);
+      }
+    }
+    updates.parallelStream().forEach(MecUpdate::solve);
+    for (MecUpdate update : updates) {
+      update.publish();
+    }
+  }
+
+  /**
+   * Prepares the VI on an mec, see updateMec.
+   * @param mecRepresentative: Representative state of mec on which VI has to be run.
+   * @return the prepared update, or null if the bounds of the mec are precise enough already.
+   */
+  protected MecUpdate prepareMecUpdate(int mecRepresentative){
     assert this instanceof BlackOnDemandValueIterator || boundedMecQuotient.representative(mecRepresentative) == mecRepresentative;
 
     // mecBounds now contain the scaled reward upper and lower bounds.
@@ -283,7 +353,7 @@ public class OnDemandValueIterator<S, M extends Model> implements Iterator<S, M>
     double currPrecision = mecBounds.difference()*this.rMax;
 
     if(currPrecision<this.precision){
-      return;
+      return null;
     }
 
     double targetPrecision = currPrecision/2;
@@ -294,7 +364,7 @@ public class OnDemandValueIterator<S, M extends Model> implements Iterator<S, M>
     Mec mec = getMec(mecRepresentative);
 
     if (mec.states.size()==0){
-      return;
+      return null;
     }
 
     assert !isZero(targetPrecision);
@@ -306,43 +376,66 @@ public class OnDemandValueIterator<S, M extends Model> implements Iterator<S, M>
     // lambda function that returns a state object when given the state index. required for accessing reward generator function.
     Int2ObjectFunction<S> stateIndexMap = explorer::getState;
 
-    RestrictedMecValueIterator<S, M> valueIterator = new RestrictedMecValueIterator<>(mec, targetPrecision, rewardGenerator, stateIndexMap, valueCache, rMax, timeout);
-    valueIterator.setDistributionFunction(x -> y -> this.explorer.model().getChoice(x, y));
-    valueIterator.setLabelFunction(x -> y -> this.explorer.model().getActions(x).get(y).label());
+    MecSolver<S> solver = createMecSolver(mec, targetPrecision, stateIndexMap, valueCache);
+    solver.setDistributionFunction(x -> y -> this.explorer.model().getChoice(x, y));
+    solver.setLabelFunction(x -> y -> this.explorer.model().getActions(x).get(y).label());
+    solver.setRewardCache(rewardCache);
+    solver.compile();
 
-    valueIterator.run();
+    return new MecUpdate() {
+      @Override
+      public void solve() {
+        solver.run();
+      }
 
-    Bounds newBounds = valueIterator.getBounds();
-    Bounds scaledBounds = Bounds.of(newBounds.lowerBound()/this.rMax, newBounds.upperBound()/this.rMax);
+      @Override
+      public void publish() {
+        Bounds newBounds = solver.getBounds();
+        Bounds scaledBounds = Bounds.of(newBounds.lowerBound()/rMax, newBounds.upperBound()/rMax);
 
-    // In the case when we run VI after some new states have been added, the lower bounds may be worse than the
-    // previously computed bounds. However, we know that the MEC's reward must be greater than the previously computed
-    // lower bound value. Thus, we can use the previously computer lower bound value for slightly faster convergence.
-    scaledBounds = scaledBounds.withLower(Math.max(scaledBounds.lowerBound(), mecBounds.lowerBound()));
+        // In the case when we run VI after some new states have been added, the lower bounds may be worse than the
+        // previously computed bounds. However, we know that the MEC's reward must be greater than the previously
+        // computed lower bound value. Thus, we can use the previously computer lower bound value for slightly faster
+        // convergence.
+        scaledBounds = scaledBounds.withLower(Math.max(scaledBounds.lowerBound(), mecBounds.lowerBound()));
 
-    updateStayAction(mecRepresentative, scaledBounds);
+        updateStayAction(mecRepresentative, scaledBounds);
 
-    valueCache = valueIterator.getValues();
-    mecValueCache.put(mecRepresentative, valueCache);
+        mecValueCache.put(mecRepresentative, solver.getValues());
+      }
+    };
   }
 
+  /**
+   * Chooses between VI and policy iteration for the mec. Both continue from the given values.
+   * @param targetPrecision: Precision of the reward bounds required from the solver.
+   */
+  protected MecSolver<S> createMecSolver(Mec mec, double targetPrecision, Int2ObjectFunction<S> stateIndexMap,
+                                      Int2DoubleMap values){
+    int numStates = mec.states.size();
+    if (numStates <= POLICY_ITERATION_MAX_STATES || (numStates <= POLICY_ITERATION_MAX_STATES_PRECISE
+            && targetPrecision <= POLICY_ITERATION_PRECISION * rMax)) {
+      return new MecPolicyIterator<>(mec, targetPrecision, rewardGenerator, stateIndexMap, values, rMax, timeout);
+    }
+    return new RestrictedMecValueIterator<S, M>(mec, targetPrecision, rewardGenerator, stateIndexMap, values, rMax, timeout);
+  }
 
   /**
    * Implements OnTheFlyEC from CAV'17 paper.
    */
   public void handleComponents(){
 
-    if(!newStatesSinceCollapse){
+    if(!componentSearch.hasNewStates()){
       return;
     }
 
-    newStatesSinceCollapse = false;
     logger.log(Level.INFO, "Searching components");
 
-    NatBitSet states = NatBitSets.copyOf(explorer.exploredStates());
-    states.removeAll(boundedMecQuotient.removedStates()); // states variable now stores only the states in the current collapsed partial model.
-
-    List<NatBitSet> newComponents = mecAnalyser.findComponents(boundedMecQuotient, states);  // find all MECs in the partial model.
+    // find all MECs in the current collapsed partial model. Only the states explored since the last search can be part
+    // of a new MEC, so the search is restricted to the states connected to them.
+    List<NatBitSet> newComponents = componentSearch.findComponents(boundedMecQuotient, state ->
+            !BoundedMecQuotient.isSinkState(state) && explorer.isExploredState(state)
+                    && !boundedMecQuotient.isRemoved(state));
     // This contains only newly found components. Since all previously found components are collapsed, they won't be recognized as MECs anymore.
 
     if(newComponents.isEmpty()){
@@ -357,24 +450,31 @@ public class OnDemandValueIterator<S, M extends Model> implements Iterator<S, M>
 
     // This collapses the sets of states into representatives. Further, the stay action is added here.
     IntList representatives = boundedMecQuotient.collapse(newComponents);
-    var collapseIterator = newComponents.iterator();
-    IntIterator representativeIterator = representatives.iterator();
-
-    while(collapseIterator.hasNext()){
-      // the components and the corresponding representatives are in the same order.
-      int representative = representativeIterator.nextInt();
+    // The Mec objects of the extended MECs and of the representatives merged into them are outdated.
+    for (NatBitSet component : newComponents) {
+      component.forEach((IntConsumer) mecCache::remove);
+    }
+    representatives.forEach((IntConsumer) mecCache::remove);
 
+    for (int representative : representatives) {
       // Removing from cache as new states have been added to mec and all values need to computed again from start.
       mecValueCache.remove(representative);
 
       // Reset stay action bounds as mec has been expanded
       boundedMecQuotient.updateStayAction(representative, Bounds.of(BoundedMecQuotient.getBoundsFromStayAction(boundedMecQuotient.getStayAction(representative)).lowerBound(), 1));
+    }
+
+    // We need to run VI on the MEC again to account for the following case. It can be that the bounds on the MEC are
+    // already very precise. Thus, the probability of reaching the uncertain state would be very small and we may
+    // never be able to run VI on the newly added states again. Thus, we need to run VI straight after adding new
+    // states.
+    updateMecs(representatives);
 
-      // We need to run VI on the MEC again to account for the following case. It can be that the bounds on the MEC are
-      // already very precise. Thus, the probability of reaching the uncertain state would be very small and we may
-      // never be able to run VI on the newly added states again. Thus, we need to run VI straight after adding new
-      // states.
-      updateMec(representative);
+    var collapseIterator = newComponents.iterator();
+    IntIterator representativeIterator = representatives.iterator();
+    while(collapseIterator.hasNext()){
+      // the components and the corresponding representatives are in the same order.
+      int representative = representativeIterator.nextInt();
 
       // updates the bounds of the representative according to all actions of mec members going out of the MEC.
       values.collapse(representative, choices(representative), collapseIterator.next());
@@ -389,8 +489,10 @@ public class OnDemandValueIterator<S, M extends Model> implements Iterator<S, M>
   protected void explore(int state) throws PrismException {
     assert !explorer.isExploredState(state);
     assert !BoundedMecQuotient.isSinkState(state);
-    newStatesSinceCollapse = true;
-    explorer.exploreState(state);  //  state added to partial model, and explorer.isExploredState(state) is set to true.
+    explorer.exploreState(state);
+    componentSearch.explored(state);  //  state added to partial model, and explorer.isExploredState(state) is set to true.
+    rewardCache.explored(state, explorer.model().getActions(state).size());
+    boundedMecQuotient.invalidateChoices(state);
   }
 
   /**
@@ -1,15 +1,10 @@
 package de.tum.in.pet.implementation.meanPayoff;
 
-import de.tum.in.naturals.set.NatBitSet;
 import de.tum.in.pet.values.Bounds;
 import de.tum.in.probmodels.generator.RewardGenerator;
 import de.tum.in.probmodels.graph.Mec;
 import de.tum.in.probmodels.model.Distribution;
 import it.unimi.dsi.fastutil.ints.*;
-import prism.Pair;
-
-import java.util.ArrayList;
-import java.util.List;
 
 public class RestrictedMecBoundedValueIterator<S> {
 
@@ -24,6 +19,10 @@ public class RestrictedMecBoundedValueIterator<S> {
 
   private Bounds bounds;
 
+  private CompiledMec compiledMec;
+  private double[] confidenceWidths; // confidence width of every choice of compiledMec
+  private final double[] actionBounds = new double[2]; // scratch array of getActionBounds
+
   // Returns the confidence width for a state x and it's corresponding action index y
   private Int2ObjectFunction<Int2DoubleFunction> confidenceWidthFunction = x -> (y -> (0));
 
@@ -33,8 +32,15 @@ public class RestrictedMecBoundedValueIterator<S> {
   // Returns the label of the action y
   private Int2ObjectFunction<Int2ObjectFunction<Object>> labelFunction = x -> (y -> null);
 
+  // Rewards shared with other VIs, if any
+  private RewardCache<S> rewardCache;
+
   private final double aperidocityConstant;
 
+  // Every EXTRAPOLATION_INTERVAL iterations, the bounds are extrapolated from the last difference, see run().
+  private static final int EXTRAPOLATION_INTERVAL = 16;
+  private boolean extrapolation = true;
+
   private final long timeout;
 
   public RestrictedMecBoundedValueIterator(Mec mec, double targetPrecision, RewardGenerator<S> rewardGenerator,
@@ -83,75 +89,149 @@ public class RestrictedMecBoundedValueIterator<S> {
     this.labelFunction = labelFunction;
   }
 
-  public void run(){
-    int numStates = mec.size();
-    NatBitSet states = mec.states;
+  public void setRewardCache(RewardCache<S> rewardCache) {
+    this.rewardCache = rewardCache;
+  }
 
-    // This array stores the difference of values for each state between two successive iterations. This is Delta_n in CAV'17.
-    List<Pair<Double, Double>> diff = new ArrayList<>();
+  /**
+   * @param extrapolation: whether run() tries to skip iterations by extrapolating the bounds. Enabled by default.
+   */
+  public void setExtrapolation(boolean extrapolation) {
+    this.extrapolation = extrapolation;
+  }
 
-    // This is to make the size of diff to be num states.
-    // During each iteration we use set method to change the values of diff. It will throw error if index is greater than size.
-    for (int i = 0; i < numStates; i++) {
-      diff.add(new Pair<>(0d, 0d));
+  /**
+   * @return Number of sweeps over the mec done so far.
+   */
+  public int getIterCount() {
+    return iterCount;
+  }
+
+  /**
+   * Compiles the MEC to arrays using the current distribution, label and confidence width functions. run() compiles
+   * the MEC itself if this hasn't been called before. Afterwards, run() doesn't access the model anymore and may run on
+   * another thread.
+   */
+  public void compile(){
+    // Without a shared cache, the rewards are evaluated for this VI only.
+    RewardCache<S> rewards = rewardCache != null ? rewardCache
+            : new RewardCache<>(rewardGenerator, stateIndexMap, labelFunction);
+    compiledMec = CompiledMec.compile(mec, distributionFunction, rewards);
+
+    // The confidence widths don't change while VI runs, so they are looked up once per choice instead of in every
+    // iteration.
+    confidenceWidths = new double[compiledMec.numChoices()];
+    for (int i = 0; i < compiledMec.numStates; i++) {
+      int state = compiledMec.states[i];
+      Int2DoubleFunction stateConfidenceWidths = confidenceWidthFunction.get(state);
+      for (int choice = compiledMec.choiceOffsets[i]; choice < compiledMec.choiceOffsets[i + 1]; choice++) {
+        confidenceWidths[choice] = stateConfidenceWidths.get(compiledMec.choiceActions[choice]);
+      }
+    }
+  }
+
+  /**
+   * Runs VI. The MEC is compiled to arrays first, so an iteration neither allocates nor looks up any maps.
+   */
+  public void run(){
+    if (compiledMec == null) {
+      compile();
     }
+    int numStates = compiledMec.numStates;
 
-    if(values.size()==0) { // no pre-computed values sent
-      IntIterator stateIterator = states.iterator();
-      while (stateIterator.hasNext()) {
-        int state = stateIterator.nextInt();
-        values.put(state, Bounds.of(0, 0));
+    // Bounds of the current and the next iteration, indexed by the local state numbers of compiledMec. If no
+    // pre-computed values are sent, all bounds start at zero.
+    double[] currLower = new double[numStates];
+    double[] currUpper = new double[numStates];
+    double[] nextLower = new double[numStates];
+    double[] nextUpper = new double[numStates];
+    for (int i = 0; i < numStates; i++) {
+      Bounds stateValues = values.get(compiledMec.states[i]);
+      if (stateValues != null) {
+        currLower[i] = stateValues.lowerBound();
+        currUpper[i] = stateValues.upperBound();
       }
     }
+    double[] candidateLower = null;
+    double[] candidateUpper = null;
+    double[] candidateNextLower = null;
+    double[] candidateNextUpper = null;
 
-    double maxUpper, minUpper, maxLower, minLower;
+    // min and max of the difference of lower and upper bounds between two successive iterations (Delta_n in CAV'17), in
+    // the order minLower, maxLower, minUpper, maxUpper.
+    double[] differenceBounds = new double[4];
+    // Bounds of all iterations hold at the same time, so the tightest of them are kept.
+    double minLower = -Double.MAX_VALUE, maxLower = Double.MAX_VALUE;
+    double minUpper = -Double.MAX_VALUE, maxUpper = Double.MAX_VALUE;
+    double previousLowerSpan = Double.MAX_VALUE, previousUpperSpan = Double.MAX_VALUE;
     do {
-      Int2ObjectMap<Bounds> oldValues = new Int2ObjectOpenHashMap<>(values);
-      Int2ObjectMap<Bounds> tempValues = new Int2ObjectOpenHashMap<>();
-      IntIterator stateIterator = states.iterator();
-      int count = 0;
-      // A single iteration of VI
-      while (stateIterator.hasNext()) {
-        int state = stateIterator.nextInt();
-        double maxUpperBound = 0.0;
-        double maxLowerBound = 0.0;
-        IntSet allowedActions = mec.actions.get(state);  // allowedActions numbered as in original model
-        assert allowedActions != null;
-//        List<Action> choices = model.getActions(state);  // get all actions (not distributions)
-        // Get Actions from original model, filter according to mec actions
-        for (int action : allowedActions) {  // find the value of the state over all actions
-          // Send action label instead of action object. State object needs to be fetched from stateIndexMap.
-          // val_transformed = const*rewards + actionVal. Instead, we have found val = rewards + actionVal/const (This division is done by actionVal itself). We do this to store the original value.
-          double val = rewardGenerator.transitionReward(stateIndexMap.get(state), labelFunction.apply(state).apply(action)) // Action.label() returns label
-                  + rewardGenerator.stateReward(stateIndexMap.get(state));
-
-          Bounds actionBounds = getActionBounds(state, distributionFunction.apply(state).apply(action), // Action.distribution returns distribution
-                  confidenceWidthFunction.get(state).get(action));
-          maxLowerBound = Math.max(actionBounds.lowerBound()+val, maxLowerBound);
-          maxUpperBound = Math.max(actionBounds.upperBound()+val, maxUpperBound);
+      iterate(currLower, currUpper, nextLower, nextUpper, differenceBounds);
+      iterCount++;
+      minLower = Math.max(minLower, differenceBounds[0]);
+      maxLower = Math.min(maxLower, differenceBounds[1]);
+      minUpper = Math.max(minUpper, differenceBounds[2]);
+      maxUpper = Math.min(maxUpper, differenceBounds[3]);
+      double lowerSpan = differenceBounds[1] - differenceBounds[0];
+      double upperSpan = differenceBounds[3] - differenceBounds[2];
+
+      boolean extrapolated = false;
+      if (extrapolation && iterCount % EXTRAPOLATION_INTERVAL == 0 && lowerSpan < previousLowerSpan
+              && upperSpan < previousUpperSpan) {
+        // Same extrapolation as in RestrictedMecValueIterator, separately for the lower and the upper bounds. It is only
+        // tried if the extrapolated lower bounds stay below the upper bounds and kept if both spans get tighter.
+        if (candidateLower == null) {
+          candidateLower = new double[numStates];
+          candidateUpper = new double[numStates];
+          candidateNextLower = new double[numStates];
+          candidateNextUpper = new double[numStates];
+        }
+        double lowerRate = lowerSpan / previousLowerSpan;
+        double upperRate = upperSpan / previousUpperSpan;
+        double lowerFactor = lowerRate / (1 - lowerRate);
+        double upperFactor = upperRate / (1 - upperRate);
+        for (int i = 0; i < numStates; i++) {
+          candidateLower[i] = nextLower[i] + lowerFactor * (nextLower[i] - currLower[i]);
+          candidateUpper[i] = nextUpper[i] + upperFactor * (nextUpper[i] - currUpper[i]);
         }
-        tempValues.put(state, Bounds.of(maxLowerBound, maxUpperBound));
-        diff.set(count++, new Pair<>(maxLowerBound-oldValues.get(state).lowerBound(),
-                maxUpperBound-oldValues.get(state).upperBound()));
+        extrapolated = isOrdered(candidateLower, candidateUpper);
       }
-      for(int state: values.keySet()) {
-        values.put(state, tempValues.get(state));
+      if (extrapolated) {
+        iterate(candidateLower, candidateUpper, candidateNextLower, candidateNextUpper, differenceBounds);
+        iterCount++;
+        minLower = Math.max(minLower, differenceBounds[0]);
+        maxLower = Math.min(maxLower, differenceBounds[1]);
+        minUpper = Math.max(minUpper, differenceBounds[2]);
+        maxUpper = Math.min(maxUpper, differenceBounds[3]);
+        double candidateLowerSpan = differenceBounds[1] - differenceBounds[0];
+        double candidateUpperSpan = differenceBounds[3] - differenceBounds[2];
+        extrapolated = candidateLowerSpan < lowerSpan && candidateUpperSpan < upperSpan;
+        if (extrapolated) {
+          double[] swap = currLower;
+          currLower = candidateNextLower;
+          candidateNextLower = swap;
+          swap = currUpper;
+          currUpper = candidateNextUpper;
+          candidateNextUpper = swap;
+          previousLowerSpan = candidateLowerSpan;
+          previousUpperSpan = candidateUpperSpan;
+        }
       }
-      iterCount++;
-
-      maxLower=0.0; // max of diff (max of Delta_n)
-      minLower=Double.MAX_VALUE; // min of diff (min of Delta_n)
-      maxUpper=0.0; // max of diff (max of Delta_n)
-      minUpper=Double.MAX_VALUE; // min of diff (min of Delta_n)
-      for (Pair<Double, Double> b : diff) {
-        maxLower = Math.max(maxLower, b.first);
-        minLower = Math.min(minLower, b.first);
-        maxUpper = Math.max(maxUpper, b.second);
-        minUpper = Math.min(minUpper, b.second);
+      if (!extrapolated) {
+        double[] swap = currLower;
+        currLower = nextLower;
+        nextLower = swap;
+        swap = currUpper;
+        currUpper = nextUpper;
+        nextUpper = swap;
+        previousLowerSpan = lowerSpan;
+        previousUpperSpan = upperSpan;
       }
-      int a = 0;
     } while ((maxLower-minLower) >= targetPrecision && (maxUpper-minUpper) >= targetPrecision && !isTimeout());  // stopping criterion of value iteration
 
+    for (int i = 0; i < numStates; i++) {
+      values.put(compiledMec.states[i], Bounds.of(currLower[i], currUpper[i]));
+    }
+
     // Sometimes the upper bound is slightly greater than rMax, because of floating point error.
     // This was observed when running the pnueli-zuck3 model.
     // We change the upper bound to be rMax itself, when it goes beyond rMax.
@@ -161,7 +241,53 @@ public class RestrictedMecBoundedValueIterator<S> {
     bounds = Bounds.of(minLower, maxUpper);
   }
 
-  // todo: vectorize operation
+  /**
+   * A single iteration of VI from the current to the next lower and upper bounds.
+   * @param differenceBounds: min and max of the difference of the next and the current lower bounds and of the upper
+   *                        bounds are written to index 0 to 3.
+   */
+  private void iterate(double[] currLower, double[] currUpper, double[] nextLower, double[] nextUpper,
+                       double[] differenceBounds) {
+    double maxLower=-Double.MAX_VALUE;
+    double minLower=Double.MAX_VALUE;
+    double maxUpper=-Double.MAX_VALUE;
+    double minUpper=Double.MAX_VALUE;
+    for (int i = 0; i < compiledMec.numStates; i++) {
+      // As in RestrictedMecValueIterator, every state has a choice and the maxima may be negative.
+      double maxUpperBound = Double.NEGATIVE_INFINITY;
+      double maxLowerBound = Double.NEGATIVE_INFINITY;
+      for (int choice = compiledMec.choiceOffsets[i]; choice < compiledMec.choiceOffsets[i + 1]; choice++) {
+        // val_transformed = const*rewards + actionVal. Instead, we have found val = rewards + actionVal/const (This division is done by actionVal itself). We do this to store the original value.
+        double val = compiledMec.choiceRewards[choice];
+        getActionBounds(compiledMec, i, choice, confidenceWidths[choice], currLower, currUpper, actionBounds);
+        maxLowerBound = Math.max(actionBounds[0]+val, maxLowerBound);
+        maxUpperBound = Math.max(actionBounds[1]+val, maxUpperBound);
+      }
+      assert maxLowerBound <= maxUpperBound;
+      nextLower[i] = maxLowerBound;
+      nextUpper[i] = maxUpperBound;
+      double lowerDiff = maxLowerBound - currLower[i];
+      double upperDiff = maxUpperBound - currUpper[i];
+      maxLower = Math.max(maxLower, lowerDiff);
+      minLower = Math.min(minLower, lowerDiff);
+      maxUpper = Math.max(maxUpper, upperDiff);
+      minUpper = Math.min(minUpper, upperDiff);
+    }
+    differenceBounds[0] = minLower;
+    differenceBounds[1] = maxLower;
+    differenceBounds[2] = minUpper;
+    differenceBounds[3] = maxUpper;
+  }
+
+  private static boolean isOrdered(double[] lower, double[] upper) {
+    for (int i = 0; i < lower.length; i++) {
+      if (lower[i] > upper[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Suppose for a state s, Distribution d, there is one successor s'. Here we introduce self loop to state s, by taking
    * action d, with probability (1 - aperiodicity), and then calculate the bounds of this state. This is done to avoid
@@ -176,32 +302,36 @@ public class RestrictedMecBoundedValueIterator<S> {
    * Both the value functions will return the same value. We use the second one.
    * If there are multiple successors, we multiply each of their value with (aperiodicity * aperiodicity).
    * We also use greybox equations to update our bounds, which has high confidence width.
+   *
+   * The lower and upper bound of the action are written to actionBounds[0] and actionBounds[1].
    */
-  private Bounds getActionBounds(int state, Distribution distribution, double confidenceWidth) {
+  private void getActionBounds(CompiledMec compiledMec, int state, int choice, double confidenceWidth,
+                               double[] lowerValues, double[] upperValues, double[] actionBounds) {
     double lower = 0.0d;
     double upper = 0.0d;
     double probSum = 0.0d;
-    double minLower = Integer.MAX_VALUE;
-    double maxUpper = 0;
-    for (Int2DoubleMap.Entry entry : distribution) {
-      int successor = entry.getIntKey();
-      double probability = Math.max(0, entry.getDoubleValue()-confidenceWidth);
-      Bounds succValues = values.get(successor);
+    double minLower = Double.MAX_VALUE;
+    double maxUpper = -Double.MAX_VALUE;
+    for (int transition = compiledMec.transitionOffsets[choice]; transition < compiledMec.transitionOffsets[choice + 1];
+         transition++) {
+      int successor = compiledMec.successors[transition];
+      double probability = Math.max(0, compiledMec.probabilities[transition]-confidenceWidth);
       probSum += probability;
-      double succLower = this.aperidocityConstant*succValues.lowerBound();
-      double succUpper = this.aperidocityConstant*succValues.upperBound();
+      double succLower = this.aperidocityConstant*lowerValues[successor];
+      double succUpper = this.aperidocityConstant*upperValues[successor];
       lower += succLower*probability*this.aperidocityConstant;
       upper += succUpper*probability*this.aperidocityConstant;
       minLower = Math.min(minLower, succLower);
       maxUpper = Math.max(maxUpper, succUpper);
     }
-    
+
     double remProb = 1-probSum;
     lower += remProb*minLower*this.aperidocityConstant;
     upper += remProb*maxUpper*this.aperidocityConstant;
-    lower += (1-this.aperidocityConstant)*this.aperidocityConstant*values.get(state).lowerBound();
-    upper += (1-this.aperidocityConstant)*this.aperidocityConstant*values.get(state).upperBound();
-    return Bounds.of(lower/this.aperidocityConstant, upper/this.aperidocityConstant);
+    lower += (1-this.aperidocityConstant)*this.aperidocityConstant*lowerValues[state];
+    upper += (1-this.aperidocityConstant)*this.aperidocityConstant*upperValues[state];
+    actionBounds[0] = lower/this.aperidocityConstant;
+    actionBounds[1] = upper/this.aperidocityConstant;
   }
 
 
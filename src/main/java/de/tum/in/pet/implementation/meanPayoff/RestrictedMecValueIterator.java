@@ -1,6 +1,5 @@
 package de.tum.in.pet.implementation.meanPayoff;
 
-import de.tum.in.naturals.set.NatBitSet;
 import de.tum.in.pet.values.Bounds;
 import de.tum.in.probmodels.generator.RewardGenerator;
 import de.tum.in.probmodels.graph.Mec;
@@ -9,7 +8,7 @@ import de.tum.in.probmodels.model.Model;
 import it.unimi.dsi.fastutil.ints.*;
 
 
-public class RestrictedMecValueIterator<S, M extends Model> {
+public class RestrictedMecValueIterator<S, M extends Model> implements MecSolver<S> {
 
   public final Mec mec; // Mec with respect to original model
   public final double targetPrecision;
@@ -22,18 +21,27 @@ public class RestrictedMecValueIterator<S, M extends Model> {
 
   private Bounds bounds;
 
+  private CompiledMec compiledMec;
+
   // self loops are induced in the model for every action, and the self loop transition is chosen with probability 1-self.aperiodictyConstant
   // this helps in ensuring the convergence of the algorithm in a finite number of steps. Increasing the constant gives a more precise value.
   // however, it takes a larger number of steps. This is primarily required when considering periodic Models. this process makes the model aperiodic.
   // Refer to Puterman '94 Section 8.5.4 for details and proofs.
   private final double aperidocityConstant;
 
+  // Every EXTRAPOLATION_INTERVAL iterations, the values are extrapolated from the last difference, see run().
+  private static final int EXTRAPOLATION_INTERVAL = 16;
+  private boolean extrapolation = true;
+
   // Returns the distribution for a state x and it's corresponding action index y
   private Int2ObjectFunction<Int2ObjectFunction<Distribution>> distributionFunction = x -> (y -> null);
 
   // Returns the label of the action y
   private Int2ObjectFunction<Int2ObjectFunction<Object>> labelFunction = x -> (y -> null);
 
+  // Rewards shared with other VIs, if any
+  private RewardCache<S> rewardCache;
+
   public RestrictedMecValueIterator(Mec mec, double targetPrecision, RewardGenerator<S> rewardGenerator,
                                     Int2ObjectFunction<S> stateIndexMap, double rMax, long timeout){
     this.mec = mec;
@@ -62,98 +70,147 @@ public class RestrictedMecValueIterator<S, M extends Model> {
 
   // todo: confidence width
   /**
-   * Simulates VI.
+   * Compiles the MEC to arrays using the current distribution and label functions. run() compiles the MEC itself if
+   * this hasn't been called before. Afterwards, run() doesn't access the model anymore and may run on another thread.
+   */
+  public void compile(){
+    // Without a shared cache, the rewards are evaluated for this VI only.
+    RewardCache<S> rewards = rewardCache != null ? rewardCache
+            : new RewardCache<>(rewardGenerator, stateIndexMap, labelFunction);
+    compiledMec = CompiledMec.compile(mec, distributionFunction, rewards);
+  }
+
+  /**
+   * Simulates VI. The MEC is compiled to arrays first, so an iteration neither allocates nor looks up any maps.
    */
   public void run(){
-    int numStates = mec.size();
-    NatBitSet states = mec.states;
-    double[] diff =new double[numStates];  // This array stores the difference of values for each state between two successive iterations. This is Delta_n in CAV'17.
-
-    if(values.size()==0) { // no pre-computed values sent
-      IntIterator stateIterator = states.iterator();
-      while (stateIterator.hasNext()) {
-        int state = stateIterator.nextInt();
-        values.put(state, 0.0);
-      }
+    if (compiledMec == null) {
+      compile();
+    }
+    int numStates = compiledMec.numStates;
+
+    // Values of the current and the next iteration, indexed by the local state numbers of compiledMec. If no
+    // pre-computed values are sent, all values start at zero.
+    double[] currValues = new double[numStates];
+    double[] nextValues = new double[numStates];
+    for (int i = 0; i < numStates; i++) {
+      currValues[i] = values.get(compiledMec.states[i]);
     }
 
-    double max, min;
+    double[] candidateValues = null;
+    double[] candidateNextValues = null;
+
+    // min and max of the difference of values between two successive iterations (Delta_n in CAV'17)
+    double[] differenceBounds = new double[2];
+    // Bounds of all iterations hold at the same time, so the tightest of them are kept.
+    double lower = -Double.MAX_VALUE;
+    double upper = Double.MAX_VALUE;
+    double previousSpan = Double.MAX_VALUE;
     do {
-      Int2DoubleOpenHashMap oldValues = new Int2DoubleOpenHashMap(values);
-      Int2DoubleOpenHashMap tempValues = new Int2DoubleOpenHashMap();
-      IntIterator stateIterator = states.iterator();
-      int count = 0;
-      // A single iteration of VI
-      while (stateIterator.hasNext()) {
-        int state = stateIterator.nextInt();
-        double maxActionValue = 0.0;
-        IntSet allowedActions = mec.actions.get(state);  // allowedActions numbered as in original model
-        assert allowedActions != null;
-        // Get Actions from original model, filter according to mec actions
-        for (int action : allowedActions) {  // find the value of the state over all actions
-          // Send action label instead of action object. State object needs to be fetched from stateIndexMap.
-          // val_transformed = const*rewards + actionVal. Instead, we have found val = rewards + actionVal/const (This division is done by actionVal itself). We do this to store the original value.
-          double val = rewardGenerator.transitionReward(stateIndexMap.get(state), labelFunction.apply(state).apply(action)) // Action.label() returns label
-                  + rewardGenerator.stateReward(stateIndexMap.get(state))
-                  + getActionVal(state, distributionFunction.apply(state).apply(action)); // Action.distribution returns distribution
-          if (val > maxActionValue) {
-            maxActionValue = val;
-          }
-        }
-        tempValues.put(state, maxActionValue);
-        diff[count++] = (maxActionValue - oldValues.get(state));
-      }
-      for(int state: values.keySet()) {
-        values.put(state, tempValues.get(state));
-      }
+      iterate(compiledMec, currValues, nextValues, differenceBounds);
       iterCount++;
+      lower = Math.max(lower, differenceBounds[0]);
+      upper = Math.min(upper, differenceBounds[1]);
+      double span = differenceBounds[1] - differenceBounds[0];
 
-      max=0.0; // max of diff (max of Delta_n)
-      min=Double.MAX_VALUE; // min of diff (min of Delta_n)
-      for (double v : diff) {
-        if (v > max) {
-          max = v;
+      boolean extrapolated = false;
+      if (extrapolation && iterCount % EXTRAPOLATION_INTERVAL == 0 && span < previousSpan
+              && (upper-lower) >= targetPrecision) {
+        // The span of the differences shrinks about geometrically with some rate, and so does the remaining change of
+        // the values relative to each other. Summing up the geometric series, it is about rate/(1-rate) times the last
+        // difference. The extrapolated values are only a guess, but the differences of the Bellman operator bound the
+        // mean payoff for any values, so they are kept only if these bounds are tighter.
+        if (candidateValues == null) {
+          candidateValues = new double[numStates];
+          candidateNextValues = new double[numStates];
         }
-        if (v < min) {
-          min = v;
+        double rate = span / previousSpan;
+        double factor = rate / (1 - rate);
+        for (int i = 0; i < numStates; i++) {
+          candidateValues[i] = nextValues[i] + factor * (nextValues[i] - currValues[i]);
         }
+        iterate(compiledMec, candidateValues, candidateNextValues, differenceBounds);
+        iterCount++;
+        lower = Math.max(lower, differenceBounds[0]);
+        upper = Math.min(upper, differenceBounds[1]);
+        double candidateSpan = differenceBounds[1] - differenceBounds[0];
+        if (candidateSpan < span) {
+          double[] swap = currValues;
+          currValues = candidateNextValues;
+          candidateNextValues = swap;
+          previousSpan = candidateSpan;
+          extrapolated = true;
+        }
+      }
+      if (!extrapolated) {
+        double[] swap = currValues;
+        currValues = nextValues;
+        nextValues = swap;
+        previousSpan = span;
       }
-    } while ((max-min) >= targetPrecision && (!isTimeout()));  // stopping criterion of value iteration
+    } while ((upper-lower) >= targetPrecision && (!isTimeout()));  // stopping criterion of value iteration
 
+    for (int i = 0; i < numStates; i++) {
+      values.put(compiledMec.states[i], currValues[i]);
+    }
 
     // Sometimes the upper bound is slightly greater than rMax, because of floating point error.
     // This was observed when running the pnueli-zuck3 model.
     // We change the upper bound to be rMax itself, when it goes beyond rMax.
-    if (max >= rMax) {
-      max = rMax;
+    if (upper >= rMax) {
+      upper = rMax;
     }
-    bounds = Bounds.of(min, max);
+    bounds = Bounds.of(lower, upper);
   }
 
-  // todo: vectorize operation
+  /**
+   * A single iteration of VI from currValues to nextValues.
+   * @param differenceBounds: min and max of the difference of the next and the current values are written to index 0
+   *                        and 1.
+   */
+  private void iterate(CompiledMec compiledMec, double[] currValues, double[] nextValues, double[] differenceBounds) {
+    double max=-Double.MAX_VALUE;
+    double min=Double.MAX_VALUE;
+    for (int i = 0; i < compiledMec.numStates; i++) {
+      // Every state of an mec has a choice, so this is the maximum of the Bellman operator and may be negative.
+      double maxActionValue = Double.NEGATIVE_INFINITY;
+      for (int choice = compiledMec.choiceOffsets[i]; choice < compiledMec.choiceOffsets[i + 1]; choice++) {
+        // val_transformed = const*rewards + actionVal. Instead, we have found val = rewards + actionVal/const (This division is done by actionVal itself). We do this to store the original value.
+        double val = compiledMec.choiceRewards[choice] + getActionVal(compiledMec, i, choice, currValues);
+        if (val > maxActionValue) {
+          maxActionValue = val;
+        }
+      }
+      nextValues[i] = maxActionValue;
+      double diff = maxActionValue - currValues[i];
+      if (diff > max) {
+        max = diff;
+      }
+      if (diff < min) {
+        min = diff;
+      }
+    }
+    differenceBounds[0] = min;
+    differenceBounds[1] = max;
+  }
 
   /**
-   * @param state: Integer value of the state from which the action originates.
-   * @param distribution: Distribution consisting of the probability of reaching successor states for the action.
+   * @param compiledMec: the compiled MEC.
+   * @param state: local index of the state from which the action originates.
+   * @param choice: index of the choice in compiledMec.
+   * @param values: current values of the local states.
    * @return Returns the associated value of a single action.
    */
-  private double getActionVal(int state, Distribution distribution) {
-    //int numSuccessors = distribution.size();
+  private double getActionVal(CompiledMec compiledMec, int state, int choice, double[] values) {
     double sum = 0.0;
-    for (Int2DoubleMap.Entry entry : distribution) {
-      int successor = entry.getIntKey();
-/*
-      if (successor == state) {
-        continue;
-      }
-*/
-      double probability = this.aperidocityConstant*entry.getDoubleValue();
-      assert values.containsKey(successor);
+    for (int transition = compiledMec.transitionOffsets[choice]; transition < compiledMec.transitionOffsets[choice + 1];
+         transition++) {
+      double probability = this.aperidocityConstant*compiledMec.probabilities[transition];
       // this gives transformed value of successor
-      double successorVal = this.aperidocityConstant*values.get(successor);
+      double successorVal = this.aperidocityConstant*values[compiledMec.successors[transition]];
       sum = sum + probability * successorVal;
     }
-    sum += (1-this.aperidocityConstant)*this.aperidocityConstant*values.get(state);
+    sum += (1-this.aperidocityConstant)*this.aperidocityConstant*values[state];
     // sum stores the transformed value. This returns the original value
     return sum/this.aperidocityConstant;
   }
@@ -167,6 +224,24 @@ public class RestrictedMecValueIterator<S, M extends Model> {
     this.labelFunction = labelFunction;
   }
 
+  public void setRewardCache(RewardCache<S> rewardCache) {
+    this.rewardCache = rewardCache;
+  }
+
+  /**
+   * @param extrapolation: whether run() tries to skip iterations by extrapolating the values. Enabled by default.
+   */
+  public void setExtrapolation(boolean extrapolation) {
+    this.extrapolation = extrapolation;
+  }
+
+  /**
+   * @return Number of sweeps over the mec done so far.
+   */
+  public int getIterCount() {
+    return iterCount;
+  }
+
 
   /**
    * @return Returns the calculated reward upper and lower bounds.
@@ -6,6 +6,7 @@ import de.tum.in.naturals.set.RoaringNatBitSetFactory;
 import de.tum.in.pet.Input.DefaultInputValues;
 import de.tum.in.pet.Main;
 import de.tum.in.pet.util.CliHelper;
+import de.tum.in.pet.util.FullModelExplorer;
 import de.tum.in.pet.values.Bounds;
 import de.tum.in.probmodels.explorer.DefaultExplorer;
 import de.tum.in.probmodels.explorer.Explorer;
@@ -30,13 +31,12 @@ import simulator.ModulesFileModelGenerator;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.function.IntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /* This code's purpose is to facilitate the independent testing of the RestrictedValueIterator. Right now, this code
-* accepts only 3 parameters, -m/--model (model file path) --precision (precision required from vi) --const
-* defining constants in models, if any. Right now, the file only supports MDPs having singular initial states and
+* accepts only 4 parameters, -m/--model (model file path) --precision (precision required from vi) --const
+* defining constants in models, if any, and --no-extrapolation to run plain VI. The number of sweeps is logged. Right now, the file only supports MDPs having singular initial states and
 * runs the VI for the first random mec it chooses. To really test your code, it is advised to use models where
 * all states in a model belong to a single mec. */
 
@@ -49,40 +49,18 @@ public class RestrictedValueIteratorChecker {
   }
 
   // This function makes sure the entire model is explored so that the model is fully built.
-  private static void exploreFullModel(Explorer<?, ?> explorer) {
-
-    IntSet exploredStates = new IntOpenHashSet(explorer.exploredStates());
-    IntSet newExploredStates = new IntOpenHashSet(exploredStates);
-
-    while (newExploredStates.size()!=0) {
-      exploredStates.forEach((IntConsumer) s -> {
-        List<Distribution> choices = explorer.getChoices(s);
-        IntSet neighbours = new IntArraySet();
-        choices.forEach(d -> neighbours.addAll(d.support()));
-
-        for(int n: neighbours)
-          if (!explorer.isExploredState(n)){
-            try {
-              explorer.exploreState(n);
-            } catch (PrismException e) {
-              e.printStackTrace();
-            }
-          }
-      });
-
-      newExploredStates = new IntOpenHashSet(explorer.exploredStates());
-      newExploredStates.removeAll(exploredStates);
-      exploredStates = new IntOpenHashSet(explorer.exploredStates());
-    }
-
+  private static void exploreFullModel(Explorer<?, ?> explorer) throws PrismException {
+    FullModelExplorer.Statistics statistics = FullModelExplorer.explore(explorer);
+    logger.log(Level.INFO, "Explored " + statistics);
   }
 
   // Providing general solve function outside. This function calls appropriate function for model type.
-  private static Bounds solve(ModelGenerator generator, double precision) {
+  private static Bounds solve(ModelGenerator generator, double precision, boolean extrapolation)
+          throws PrismException {
     ModelType modelType = generator.getModelType();
     switch (modelType) {
       case MDP:
-        return solveMdp(generator, precision);
+        return solveMdp(generator, precision, extrapolation);
       case CTMC:
       case DTMC:
       case LTS:
@@ -96,7 +74,8 @@ public class RestrictedValueIteratorChecker {
   }
 
   // General solving code.
-  private static <S, M extends Model> Bounds solve(M partialModel, Generator<S> generator, ComponentAnalyser analyser, RewardGenerator<S> rewardGenerator, double precision) {
+  private static <S, M extends Model> Bounds solve(M partialModel, Generator<S> generator, ComponentAnalyser analyser, RewardGenerator<S> rewardGenerator, double precision, boolean extrapolation)
+          throws PrismException {
 
     var explorer = DefaultExplorer.of(partialModel, generator, false);
     exploreFullModel(explorer);
@@ -120,7 +99,9 @@ public class RestrictedValueIteratorChecker {
     valueIterator.setConfidenceWidthFunction(x -> (y -> 0.01));
     valueIterator.setDistributionFunction(x -> (y -> model.getActions(x).get(y).distribution()));
     valueIterator.setLabelFunction(x -> (y -> model.getActions(x).get(y).label()));
+    valueIterator.setExtrapolation(extrapolation);
     valueIterator.run();
+    logger.log(Level.INFO, "Value iteration took " + valueIterator.getIterCount() + " sweeps.");
     Bounds bounds = valueIterator.getBounds();
     if(bounds==null){
       logger.log(Level.WARNING, "Value Iterator returns null bounds.");
@@ -132,7 +113,8 @@ public class RestrictedValueIteratorChecker {
   }
 
   // MDP specific loading operations
-  private static Bounds solveMdp(ModelGenerator prismGenerator, double precision) {
+  private static Bounds solveMdp(ModelGenerator prismGenerator, double precision, boolean extrapolation)
+          throws PrismException {
 
     MarkovDecisionProcess partialModel = new MarkovDecisionProcess();
     ComponentAnalyser componentAnalyser = new MecComponentAnalyser();
@@ -140,7 +122,7 @@ public class RestrictedValueIteratorChecker {
 
     RewardGenerator<State> rewardGenerator = new PrismRewardGenerator(0, prismGenerator);
 
-    return solve(partialModel, generator, componentAnalyser, rewardGenerator, precision);
+    return solve(partialModel, generator, componentAnalyser, rewardGenerator, precision, extrapolation);
   }
 
   public static void main(String... args) throws IOException, PrismException{
@@ -151,6 +133,8 @@ public class RestrictedValueIteratorChecker {
 //    Option propertyNameOption = new Option(null, "property", true, "Name of property to check");
     Option constantsOption = new Option("c", "const", true,
             "Constants of model/property file, comma separated list");
+    Option noExtrapolationOption = new Option(null, "no-extrapolation", false,
+            "Run plain VI without extrapolating the values");
 //    Option expectedValuesOption = new Option(null, "expected", true,
 //            "Comma separated list of the true values of the properties");
 //    Option onlyPrintResultOption = new Option(null, "only-result", false,
@@ -164,7 +148,8 @@ public class RestrictedValueIteratorChecker {
     Options options = new Options()
             .addOption(precisionOption)
             .addOption(modelOption)
-            .addOption(constantsOption);
+            .addOption(constantsOption)
+            .addOption(noExtrapolationOption);
 
     CommandLine commandLine = CliHelper.parse(options, args);
 
@@ -182,7 +167,7 @@ public class RestrictedValueIteratorChecker {
 
     ModelGenerator generator = new ModulesFileModelGenerator(modulesFile, prism);
 
-    Bounds bounds = solve(generator, precision);
+    Bounds bounds = solve(generator, precision, !commandLine.hasOption(noExtrapolationOption.getLongOpt()));
 
     System.out.println(bounds);
 
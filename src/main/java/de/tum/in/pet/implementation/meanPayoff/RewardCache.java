@@ -0,0 +1,74 @@
+package de.tum.in.pet.implementation.meanPayoff;
+
+import de.tum.in.probmodels.generator.RewardGenerator;
+import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
+
+import java.util.Arrays;
+
+/**
+ * Rewards of the state-action pairs, i.e. the transition reward of the action plus the state reward of the state.
+ * Evaluating the reward structure is expensive compared to a sweep of VI, and the rewards never change, so they are
+ * computed once, preferably when the state is explored, and shared by all VIs of an iterator. Not thread-safe, the
+ * rewards are read when compiling an mec.
+ */
+public final class RewardCache<S> {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final RewardGenerator<S> rewardGenerator;
+  private final Int2ObjectFunction<S> stateIndexMap; // map from original model state number to corresponding state object
+  private final Int2ObjectFunction<Int2ObjectFunction<Object>> labelFunction; // returns the label of the action y of state x
+
+  // Indexed by the state number, entries which aren't computed yet are NaN.
+  private double[] stateRewards = new double[0];
+  private double[][] rewards = new double[0][];
+
+  public RewardCache(RewardGenerator<S> rewardGenerator, Int2ObjectFunction<S> stateIndexMap,
+                     Int2ObjectFunction<Int2ObjectFunction<Object>> labelFunction) {
+    this.rewardGenerator = rewardGenerator;
+    this.stateIndexMap = stateIndexMap;
+    this.labelFunction = labelFunction;
+  }
+
+  /**
+   * Computes the rewards of all actions of a newly explored state.
+   */
+  public void explored(int state, int numActions) {
+    // Backwards, so that the array of the state is allocated with its final length.
+    for (int action = numActions - 1; action >= 0; action--) {
+      reward(state, action);
+    }
+  }
+
+  /**
+   * @return the transition reward of the action with index action of state plus the state reward of state.
+   */
+  public double reward(int state, int action) {
+    if (state >= rewards.length) {
+      int capacity = Math.max(Math.max(INITIAL_CAPACITY, 2 * rewards.length), state + 1);
+      rewards = Arrays.copyOf(rewards, capacity);
+      int oldCapacity = stateRewards.length;
+      stateRewards = Arrays.copyOf(stateRewards, capacity);
+      Arrays.fill(stateRewards, oldCapacity, capacity, Double.NaN);
+    }
+    double[] stateActionRewards = rewards[state];
+    if (stateActionRewards == null || action >= stateActionRewards.length) {
+      int oldLength = stateActionRewards == null ? 0 : stateActionRewards.length;
+      stateActionRewards = stateActionRewards == null ? new double[action + 1]
+              : Arrays.copyOf(stateActionRewards, action + 1);
+      Arrays.fill(stateActionRewards, oldLength, action + 1, Double.NaN);
+      rewards[state] = stateActionRewards;
+    }
+
+    double reward = stateActionRewards[action];
+    if (Double.isNaN(reward)) {
+      S stateObject = stateIndexMap.get(state);
+      if (Double.isNaN(stateRewards[state])) {
+        stateRewards[state] = rewardGenerator.stateReward(stateObject);
+      }
+      reward = rewardGenerator.transitionReward(stateObject, labelFunction.apply(state).apply(action))
+              + stateRewards[state];
+      stateActionRewards[action] = reward;
+    }
+    return reward;
+  }
+}
@@ -1,5 +1,6 @@
 package de.tum.in.pet.implementation.qp_meanpayoff;
 
+import de.tum.in.pet.util.ReachableStateIndex;
 import de.tum.in.probmodels.generator.PrismRewardGenerator;
 import de.tum.in.probmodels.generator.RewardGenerator;
 import de.tum.in.probmodels.model.Action;
@@ -16,18 +17,20 @@ public class MDPModelConstructor {
     private RewardGenerator<State> rewardGenerator;
     private List<State> statesList;
 
+    // Builds the reachable part of the model. States are numbered in the order of their discovery, starting with the
+    // initial states.
     public MarkovDecisionProcess constructMDP(ModulesFileModelGenerator generator, String rewardStructure) throws PrismException {
-        statesList = generator.createVarList().getAllStates();
-        int numStates = statesList.size();
+        ReachableStateIndex stateIndex = new ReachableStateIndex(generator);
 
         MarkovDecisionProcess model = new MarkovDecisionProcess();
-        model.addStates(numStates);
+        model.addStates(stateIndex.size());
 
         int numChoices, numTransitions;
         DistributionBuilder builder;
         String choiceLabel;
-        for (int state = 0; state < numStates; state++) {
-            generator.exploreState(statesList.get(state));
+        // The index grows while exploring, so every discovered state is explored eventually.
+        for (int state = 0; state < stateIndex.size(); state++) {
+            generator.exploreState(stateIndex.getState(state));
 
             numChoices = generator.getNumChoices();
 
@@ -41,24 +44,25 @@ public class MDPModelConstructor {
 
                 for (int transition = 0; transition < numTransitions; transition++) {
                     State targetState = generator.computeTransitionTarget(choice, transition);
-                    int target = statesList.indexOf(targetState);
-                    assert target != -1;
+                    int target = stateIndex.index(targetState);
                     double prob = generator.getTransitionProbability(choice, transition);
 
                     builder.add(target, prob);
                 }
 
+                model.addStates(stateIndex.size() - model.getNumStates());
                 model.addChoice(state, Action.of(builder.build(), choiceLabel));
             }
         }
 
         for (State initialState : generator.getInitialStates()) {
-            int initialStateIndex = statesList.indexOf(initialState);
+            int initialStateIndex = stateIndex.getIndex(initialState);
             assert initialStateIndex != -1;
 
             model.addInitialState(initialStateIndex);
         }
 
+        statesList = stateIndex.states();
         storeRewardGenerator(rewardStructure, generator);
         return model;
     }
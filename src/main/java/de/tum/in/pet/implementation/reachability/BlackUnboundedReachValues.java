@@ -1,16 +1,14 @@
 package de.tum.in.pet.implementation.reachability;
 
 import de.tum.in.pet.sampler.SuccessorHeuristic;
+import de.tum.in.pet.util.ConfidenceWidthTable;
 import de.tum.in.pet.util.SampleUtil;
 import de.tum.in.pet.values.Bounds;
 import de.tum.in.probmodels.model.Distribution;
 import it.unimi.dsi.fastutil.ints.*;
-import prism.Pair;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.function.IntPredicate;
-import java.util.function.ToDoubleFunction;
 
 import static de.tum.in.probmodels.util.Util.isOne;
 import static de.tum.in.probmodels.util.Util.isZero;
@@ -19,10 +17,19 @@ public class BlackUnboundedReachValues extends UnboundedReachValues{
 
   private final UpdateMethod updateMethod;
 
-  // Returns the confidence width for a state x and it's corresponding action index y
-  private Int2ObjectFunction<Int2DoubleFunction> confidenceWidthFunction = x -> (y -> (0));
+  // Holds the confidence width for a state and it's corresponding action index
+  private ConfidenceWidthTable confidenceWidths = ConfidenceWidthTable.zero();
 
-  private Int2ObjectMap<Bounds> oldBounds;
+  // Bounds changing by less than this value are not considered as progress.
+  private static final double progressThreshold = 1e-6;
+
+  // Bounds of the states changed since the last call of resetProgress(), as they were before the first change. A
+  // null value means that the state had no bounds.
+  private final Int2ObjectOpenHashMap<Bounds> changedBounds = new Int2ObjectOpenHashMap<>();
+
+  // Accumulators of successorBounds, one per thread as several simulators may sample concurrently.
+  private final ThreadLocal<ConfidenceBoundsSum> confidenceBoundsSums =
+          ThreadLocal.withInitial(ConfidenceBoundsSum::new);
 
   public BlackUnboundedReachValues(ValueUpdate update, UpdateMethod updateMethod, IntPredicate target, double precision,
                                    SuccessorHeuristic heuristic) {
@@ -31,38 +38,72 @@ public class BlackUnboundedReachValues extends UnboundedReachValues{
   }
 
   /**
-   * Setter for confidenceWidthFunction.
+   * Setter for the confidence widths.
    */
-  public void setConfidenceWidthFunction(Int2ObjectFunction<Int2DoubleFunction> confidenceWidthFunction){
-    this.confidenceWidthFunction = confidenceWidthFunction;
+  public void setConfidenceWidths(ConfidenceWidthTable confidenceWidths){
+    this.confidenceWidths = confidenceWidths;
   }
 
-  public void resetConfidenceWidthFunction(){
-    this.confidenceWidthFunction = x -> (y -> (0));
+  public void resetConfidenceWidths(){
+    this.confidenceWidths = ConfidenceWidthTable.zero();
   }
 
   /**
-   * Creates a copy of the current bounds.
+   * Starts tracking the progress of the bounds from their current values.
    */
-  public void cacheCurrBounds(){
-    oldBounds = new Int2ObjectOpenHashMap<>(this.bounds);
+  public void resetProgress(){
+    changedBounds.clear();
   }
 
   /**
-   * Checks whether there have been any significant changes in values compared to the last time the cacheCurrBounds()
+   * Checks whether there have been any significant changes in values compared to the last time the resetProgress()
    * was called
    * @return true if there are changes, else false
    */
   public boolean checkProgress(){
-    for(int state: bounds.keySet()){
-      if(!oldBounds.containsKey(state)||!((Math.abs(bounds.get(state).upperBound()-oldBounds.get(state).upperBound())<1e-6)&&
-              (Math.abs(bounds.get(state).lowerBound()-oldBounds.get(state).lowerBound())<1e-6))){
+    for (Int2ObjectMap.Entry<Bounds> entry : Int2ObjectMaps.fastIterable(changedBounds)) {
+      if (hasProgressed(entry.getIntKey(), entry.getValue())) {
         return true;
       }
     }
     return false;
   }
 
+  /**
+   * @return the states whose bounds changed significantly since the last time resetProgress() was called.
+   */
+  public IntList progressedStates(){
+    IntList progressedStates = new IntArrayList();
+    for (Int2ObjectMap.Entry<Bounds> entry : Int2ObjectMaps.fastIterable(changedBounds)) {
+      if (hasProgressed(entry.getIntKey(), entry.getValue())) {
+        progressedStates.add(entry.getIntKey());
+      }
+    }
+    return progressedStates;
+  }
+
+  private boolean hasProgressed(int state, Bounds oldBounds) {
+    Bounds newBounds = bounds.get(state);
+    return oldBounds == null || Math.abs(newBounds.upperBound() - oldBounds.upperBound()) >= progressThreshold
+            || Math.abs(newBounds.lowerBound() - oldBounds.lowerBound()) >= progressThreshold;
+  }
+
+  // Stores the bounds of a state and remembers its previous bounds for the progress check. Unlike storeBounds, the
+  // bounds may get looser, e.g. when the confidence widths changed.
+  private void putBounds(int state, Bounds newBounds) {
+    Bounds oldBounds = bounds.put(state, newBounds);
+    if (!changedBounds.containsKey(state)) {
+      changedBounds.put(state, oldBounds);
+    }
+    boundsChanged(state);
+  }
+
+  @Override
+  public void resetBounds(){
+    super.resetBounds();
+    changedBounds.clear();
+  }
+
   /**
    * Function to sample the index of the next action from choices from state.
    * @param state: Current state from which the action originates.
@@ -71,71 +112,126 @@ public class BlackUnboundedReachValues extends UnboundedReachValues{
    */
   @Override
   public int sampleNextAction(int state, List<Distribution> choices){
+    int choiceCount = choices.size();
+    if (choiceCount == 1) {
+      return 0;
+    }
 
-    ToDoubleFunction<Integer> actionScore = i -> choices.get(i).isEmpty()
-            ? 1 : isSmallestFixPoint()
-                  ? 1.0d - choices.get(i).sumWeighted(this::lowerBound)
-                  : successorBounds(state, choices.get(i), confidenceWidthFunction.apply(state).applyAsDouble(i)).upperBound();
-
-    return SampleUtil.getOptimalChoice(choices, actionScore);
+    double[] actionScores = SampleUtil.actionScores(choiceCount);
+    for (int i = 0; i < choiceCount; i++) {
+      Distribution choice = choices.get(i);
+      actionScores[i] = choice.isEmpty()
+              ? 1 : isSmallestFixPoint()
+                    ? 1.0d - choice.sumWeighted(lowerBoundFunction)
+                    : successorUpperBound(state, i, choice, confidenceWidths.width(state, i));
+    }
+    return SampleUtil.getOptimalChoice(actionScores, choiceCount);
   }
 
   /**
    * Returns the bounds of an action according to the modified Bellman Equations equations in the CAV'19 paper. They
    * have been slightly modified according to Section 3.6.
    * @param state: originating state. If the distribution is void, the bounds of state are returned.
+   * @param actionIndex: index of the action among the choices of state.
    * @param distribution: The probability distribution for sampling the next successor for an action.
    * @param confidenceWidth: The confidence width for a state-action pair.
    * @return Bounds of an action from a state with some confidence width.
    */
-  private Bounds successorBounds(int state, Distribution distribution, double confidenceWidth) {
-    if (distribution.support().size()==0){
+  private Bounds successorBounds(int state, int actionIndex, Distribution distribution, double confidenceWidth) {
+    if (distribution.isEmpty()){
       return Bounds.reachUnknown();
     }
-    double lower = 0.0d;
-    double upper = 0.0d;
-    double sum = 0.0d;
-    double minLower = 1;
-    double maxUpper = 0;
-    for (Int2DoubleMap.Entry entry : distribution) {
-      int successor = entry.getIntKey();
-      Bounds successorBounds = bounds(successor);
-      double probability = Math.max(0, entry.getDoubleValue()-confidenceWidth);
-      sum += probability;
-      lower += successorBounds.lowerBound() * probability;
-      upper += successorBounds.upperBound() * probability;
-      minLower = Math.min(minLower, successorBounds.lowerBound());
-      maxUpper = Math.max(maxUpper, successorBounds.upperBound());
-    }
+    ConfidenceBoundsSum sums = confidenceBoundsSums.get().of(distribution, confidenceWidth);
 
 //  If the confidence width is very high, then all the successor probabilities (T_HAT) of state, Distribution will be 0.
 //  Hence, sum will be 0. In that case, we don't return the successor bounds. We just return the bounds of the state
 //  itself. This is because, bounds of the incoming state will anyways be larger than the successorBounds, since it is
 //  a predecessor.
-    if (sum == 0.0d) {
+    if (sums.sum == 0.0d) {
       // If there is no return statement here, and the sum is 0, then minLower, maxUpper will be returned.
       // Sum is 0, because we have visited this transition very few times. So returning the minLower, maxUpper
       // of successor might be bad, since it may be wrong. Some actions of successor, might not even be explored.
       return bounds(state);
     }
-    double remProb = 1-sum;
-    if(doMostConservativeGuess(state, distribution)) {
+    double remProb = 1-sums.sum;
+    double minLower = sums.minLower;
+    double maxUpper = sums.maxUpper;
+    if(doMostConservativeGuess(state, actionIndex, distribution)) {
       minLower = 0;
       maxUpper = 1;
     }
-    return Bounds.reach(lower+remProb*minLower, upper+remProb*maxUpper);
+    return Bounds.reach(sums.lower+remProb*minLower, sums.upper+remProb*maxUpper);
+  }
+
+  /**
+   * The upper bound of {@link #successorBounds(int, int, Distribution, double)}, without creating the bounds. Used
+   * when sampling, which only compares the upper bounds of the actions.
+   */
+  private double successorUpperBound(int state, int actionIndex, Distribution distribution, double confidenceWidth) {
+    if (distribution.isEmpty()){
+      return 1.0d;
+    }
+    ConfidenceBoundsSum sums = confidenceBoundsSums.get().of(distribution, confidenceWidth);
+    if (sums.sum == 0.0d) {
+      return upperBound(state);
+    }
+    double maxUpper = doMostConservativeGuess(state, actionIndex, distribution) ? 1 : sums.maxUpper;
+    return sums.upper+(1-sums.sum)*maxUpper;
+  }
+
+  // Sums up the bounds of the successors of a distribution, weighted by their probability reduced by the confidence
+  // width. It is passed to Distribution.forEach, so that no entry iterator has to be allocated.
+  private final class ConfidenceBoundsSum implements Distribution.IntDoubleConsumer {
+    private double confidenceWidth;
+    double lower;
+    double upper;
+    double sum;
+    double minLower;
+    double maxUpper;
+
+    ConfidenceBoundsSum of(Distribution distribution, double confidenceWidth) {
+      this.confidenceWidth = confidenceWidth;
+      lower = 0.0d;
+      upper = 0.0d;
+      sum = 0.0d;
+      minLower = 1;
+      maxUpper = 0;
+      distribution.forEach(this);
+      return this;
+    }
+
+    @Override
+    public void accept(int successor, double probability) {
+      Bounds successorBounds = bounds(successor);
+      double reducedProbability = Math.max(0, probability-confidenceWidth);
+      sum += reducedProbability;
+      lower += successorBounds.lowerBound() * reducedProbability;
+      upper += successorBounds.upperBound() * reducedProbability;
+      minLower = Math.min(minLower, successorBounds.lowerBound());
+      maxUpper = Math.max(maxUpper, successorBounds.upperBound());
+    }
   }
 
   /**
+   * @param actionIndex: index of the action among the choices of state, whose successors are given by distribution.
    * @return true, if we have to update using most conservative bounds. i.e minLower to be zero and maxUpper to be 1
    */
-  protected boolean doMostConservativeGuess(int state, Distribution distribution) {
+  protected boolean doMostConservativeGuess(int state, int actionIndex, Distribution distribution) {
     return updateMethod == UpdateMethod.BLACKBOX;
   }
 
-  public List<Pair<Integer, Integer>> getBestLeavingAction(IntSet states, Int2ObjectFunction<List<Distribution>> choiceFunction) {
+  /**
+   * Finds the actions leaving the set of states which have the best upper bound.
+   * @param states: set of states, e.g. an MEC.
+   * @param choiceFunction: function that returns the choices for a given state.
+   * @param bestStates: cleared and then filled with the originating states of the best leaving actions.
+   * @param bestActions: cleared and then filled with the indices of the best leaving actions, in the same order.
+   */
+  public void getBestLeavingAction(IntSet states, Int2ObjectFunction<List<Distribution>> choiceFunction,
+                                   IntList bestStates, IntList bestActions) {
     double bestUpperBound;
-    List<Pair<Integer, Integer>> bestActionStatePairs = new ArrayList<>();
+    bestStates.clear();
+    bestActions.clear();
 
     if (update == ValueUpdate.MAX_VALUE) {
       bestUpperBound = 0.0d;
@@ -148,14 +244,17 @@ public class BlackUnboundedReachValues extends UnboundedReachValues{
           if(states.containsAll(distribution.support()) && !distribution.isEmpty()){
             continue;
           }
-          double newUpperBound = successorBounds(state, distribution, confidenceWidthFunction.get(state).get(i)).upperBound();
+          double newUpperBound = successorUpperBound(state, i, distribution, confidenceWidths.width(state, i));
           if (newUpperBound > bestUpperBound) {
             bestUpperBound = newUpperBound;
-            bestActionStatePairs = new ArrayList<>();
-            bestActionStatePairs.add(new Pair<>(state, i));
+            bestStates.clear();
+            bestActions.clear();
+            bestStates.add(state);
+            bestActions.add(i);
           }
           else if (newUpperBound == bestUpperBound) {
-            bestActionStatePairs.add(new Pair<>(state, i));
+            bestStates.add(state);
+            bestActions.add(i);
           }
         }
       }
@@ -170,20 +269,21 @@ public class BlackUnboundedReachValues extends UnboundedReachValues{
           if(distribution.support().containsAll(states)){
             continue;
           }
-          double newUpperBound = successorBounds(state, distribution, confidenceWidthFunction.get(state).get(i)).upperBound();
+          double newUpperBound = successorUpperBound(state, i, distribution, confidenceWidths.width(state, i));
           if (newUpperBound < bestUpperBound){
             bestUpperBound = newUpperBound;
-            bestActionStatePairs = new ArrayList<>();
-            bestActionStatePairs.add(new Pair<>(state, i));
+            bestStates.clear();
+            bestActions.clear();
+            bestStates.add(state);
+            bestActions.add(i);
           }
           else if (newUpperBound == bestUpperBound) {
-            bestActionStatePairs.add(new Pair<>(state, i));
+            bestStates.add(state);
+            bestActions.add(i);
           }
         }
       }
     }
-
-    return bestActionStatePairs;
   }
 
   /**
@@ -194,17 +294,19 @@ public class BlackUnboundedReachValues extends UnboundedReachValues{
    */
   public void deflate(IntSet states, Int2ObjectFunction<List<Distribution>> choiceFunction){
 
-    List<Pair<Integer, Integer>> bestLeavingActionStatePair = this.getBestLeavingAction(states, choiceFunction);
+    IntList bestStates = new IntArrayList();
+    IntList bestActions = new IntArrayList();
+    this.getBestLeavingAction(states, choiceFunction, bestStates, bestActions);
 
-    int actionState = bestLeavingActionStatePair.get(0).first;
-    int actionIndex = bestLeavingActionStatePair.get(0).second;
+    int actionState = bestStates.getInt(0);
+    int actionIndex = bestActions.getInt(0);
     Distribution distribution = choiceFunction.get(actionState).get(actionIndex);
-    double newUpperBound = successorBounds(actionState, distribution,
-            confidenceWidthFunction.get(actionState).get(actionIndex)).upperBound();
+    double newUpperBound = successorUpperBound(actionState, actionIndex, distribution,
+            confidenceWidths.width(actionState, actionIndex));
 
     for (int state: states){
       if (upperBound(state)>newUpperBound) {
-        bounds.put(state, Bounds.of(lowerBound(state), newUpperBound));
+        putBounds(state, Bounds.of(lowerBound(state), newUpperBound));
       }
     }
   }
@@ -223,11 +325,11 @@ public class BlackUnboundedReachValues extends UnboundedReachValues{
     // If there are no choices from the state, it must have a zero value (u=0, l=0)
     if (choices.isEmpty()) {
       newBounds = Bounds.reachZero();
-      bounds.put(state, newBounds);
+      putBounds(state, newBounds);
     }
     else if (choices.size() == 1) {
-      newBounds = successorBounds(state, choices.get(0), confidenceWidthFunction.get(state).get(0));
-      bounds.put(state, newBounds);
+      newBounds = successorBounds(state, 0, choices.get(0), confidenceWidths.width(state, 0));
+      putBounds(state, newBounds);
     }
     else {
       double newLowerBound;
@@ -239,8 +341,8 @@ public class BlackUnboundedReachValues extends UnboundedReachValues{
         newLowerBound = 0.0d;
         newUpperBound = 0.0d;
         for (int distributionIndex=0; distributionIndex<choices.size(); distributionIndex++) {
-          Bounds bounds = successorBounds(state, choices.get(distributionIndex),
-                  confidenceWidthFunction.get(state).get(distributionIndex));
+          Bounds bounds = successorBounds(state, distributionIndex, choices.get(distributionIndex),
+                  confidenceWidths.width(state, distributionIndex));
           double upperBound = bounds.upperBound();
           if (upperBound > newUpperBound) {
             newUpperBound = upperBound;
@@ -256,8 +358,8 @@ public class BlackUnboundedReachValues extends UnboundedReachValues{
         newUpperBound = 1.0d;
         newLowerBound = 1.0d;
         for (int distributionIndex=0; distributionIndex<choices.size(); distributionIndex++) {
-          Bounds bounds = successorBounds(state, choices.get(distributionIndex),
-                  confidenceWidthFunction.get(state).get(distributionIndex));
+          Bounds bounds = successorBounds(state, distributionIndex, choices.get(distributionIndex),
+                  confidenceWidths.width(state, distributionIndex));
           double upperBound = bounds.upperBound();
           if (upperBound < newUpperBound) {
             newUpperBound = upperBound;
@@ -271,7 +373,7 @@ public class BlackUnboundedReachValues extends UnboundedReachValues{
 
       assert newLowerBound <= newUpperBound;
       newBounds = Bounds.of(newLowerBound, newUpperBound);
-      bounds.put(state, newBounds);
+      putBounds(state, newBounds);
     }
   }
 
@@ -16,7 +16,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.function.IntPredicate;
 import java.util.function.IntToDoubleFunction;
-import java.util.function.ToDoubleFunction;
 
 public class BoundedReachValues implements BoundedValues {
   private final double precision;
@@ -70,7 +69,7 @@ public class BoundedReachValues implements BoundedValues {
 
   @Override
   public int sampleNextState(int state, int remaining, List<Distribution> choices) {
-    ToDoubleFunction<Integer> actionScore = i ->
+    IntToDoubleFunction actionScore = i ->
         choices.get(i).sumWeighted(s -> bounds(s, remaining - 1).upperBound());
     IntToDoubleFunction successorDifferences = s -> bounds(s, remaining - 1).difference();
 
@@ -0,0 +1,33 @@
+package de.tum.in.pet.implementation.reachability;
+
+import de.tum.in.pet.sampler.SuccessorHeuristic;
+import de.tum.in.pet.util.ConcurrentInt2ObjectMap;
+import de.tum.in.pet.values.Bounds;
+import java.util.function.IntPredicate;
+
+/**
+ * Variant of {@link UnboundedReachValues} which may be updated by several sampling threads at
+ * once. Concurrent updates of the same state are merged by intersecting the stored and the new
+ * bounds, so a stale update (computed from older successor values) can never loosen the bounds.
+ * Since both bounds computed by any update are sound, their intersection is sound, too.
+ */
+public class ConcurrentUnboundedReachValues extends UnboundedReachValues {
+  public ConcurrentUnboundedReachValues(ValueUpdate update, IntPredicate target, double precision,
+      SuccessorHeuristic heuristic) {
+    super(new ConcurrentInt2ObjectMap<>(), update, target, precision, heuristic, false);
+  }
+
+  @Override
+  protected void storeBounds(int state, Bounds newBounds) {
+    bounds.merge(state, newBounds, ConcurrentUnboundedReachValues::intersect);
+  }
+
+  private static Bounds intersect(Bounds oldBounds, Bounds newBounds) {
+    if (oldBounds.contains(newBounds)) {
+      return newBounds;
+    }
+    double lower = Math.max(oldBounds.lowerBound(), newBounds.lowerBound());
+    double upper = Math.max(lower, Math.min(oldBounds.upperBound(), newBounds.upperBound()));
+    return Bounds.reach(lower, upper);
+  }
+}
@@ -37,9 +37,7 @@ public class GreyUnboundedReachValues extends BlackUnboundedReachValues {
      * If all successors are not visited, then we return true to use most conservative bounds.
      */
     @Override
-    protected boolean doMostConservativeGuess(int state, Distribution distribution) {
-        int actionIndex = getActionIndex(state, distribution);
-
+    protected boolean doMostConservativeGuess(int state, int actionIndex, Distribution distribution) {
         //If it is a stay action, then we know all of it's successors, because we create them.
         if (isStayAction(state, actionIndex)) {
             return false;
@@ -53,19 +51,7 @@ public class GreyUnboundedReachValues extends BlackUnboundedReachValues {
         if (numSuccessorsSeen < actualSuccessors) {
             return true;
         }
-        return super.doMostConservativeGuess(state, distribution);
-    }
-
-    private int getActionIndex(int state, Distribution distribution) {
-        List<Distribution> stateActions = choiceFunction.apply(state);
-
-        for (int i = 0; i < stateActions.size(); i++) {
-            if (stateActions.get(i).equals(distribution)) {
-                return i;
-            }
-        }
-
-        return -1;
+        return super.doMostConservativeGuess(state, actionIndex, distribution);
     }
 
     private boolean isStayAction(int state, int actionIndex) {
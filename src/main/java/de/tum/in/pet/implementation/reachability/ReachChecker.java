@@ -132,15 +132,16 @@ public final class ReachChecker {
   }
 
   private static Result<?, ?> solve(ModelGenerator generator, PrismQuery<?> expression,
-      SuccessorHeuristic heuristic, double precision) throws PrismException {
+      SuccessorHeuristic heuristic, double precision, UnboundedSamplerConfig samplerConfig)
+      throws PrismException {
     ModelType modelType = generator.getModelType();
     switch (modelType) {
       case CTMC:
-        return solveCtmc(generator, expression, heuristic, precision);
+        return solveCtmc(generator, expression, heuristic, precision, samplerConfig);
       case DTMC:
-        return solveDtmc(generator, expression, heuristic, precision);
+        return solveDtmc(generator, expression, heuristic, precision, samplerConfig);
       case MDP:
-        return solveMdp(generator, expression, heuristic, precision);
+        return solveMdp(generator, expression, heuristic, precision, samplerConfig);
       case LTS:
       case CTMDP:
       case PTA:
@@ -153,11 +154,18 @@ public final class ReachChecker {
 
   private static <S, M extends Model, R> Result<S, R> solve(Explorer<S, M> explorer,
       SuccessorHeuristic heuristic, double precision, ComponentAnalyser componentAnalyser,
-      IntPredicate predicate, QueryType<R> type) throws PrismException {
-    var target = new ReachabilityCache(predicate);
-    var values = new UnboundedReachValues(type.update(), target, precision, heuristic);
-    UnboundedSamplerConfig config = UnboundedSamplerConfig.getDefault();
-    var sampler = new UnboundedSampler<>(explorer, componentAnalyser, values, config);
+      IntPredicate predicate, QueryType<R> type, UnboundedSamplerConfig samplerConfig)
+      throws PrismException {
+    UnboundedReachValues values;
+    if (samplerConfig.samplingThreads() > 1) {
+      // Paths are sampled concurrently, the target cache and the values have to be thread-safe
+      var target = ReachabilityCache.concurrent(predicate);
+      values = new ConcurrentUnboundedReachValues(type.update(), target, precision, heuristic);
+    } else {
+      var target = new ReachabilityCache(predicate);
+      values = new UnboundedReachValues(type.update(), target, precision, heuristic);
+    }
+    var sampler = new UnboundedSampler<>(explorer, componentAnalyser, values, samplerConfig);
 
     logger.log(Level.INFO, "Checking expression {0} {1}", new Object[] {predicate, type});
     sampler.run();
@@ -190,7 +198,8 @@ public final class ReachChecker {
 
   private static <M extends Model, R> Result<?, R> solve(PrismQuery<R> query,
       ComponentAnalyser analyser, M partialModel, Generator<State> generator,
-      SuccessorHeuristic heuristic, double precision) throws PrismException {
+      SuccessorHeuristic heuristic, double precision, UnboundedSamplerConfig samplerConfig)
+      throws PrismException {
     if (query.isBounded()) {
       ExpressionTemporal prismExpression = query.expression();
       checkArgument(prismExpression.getOperator() == ExpressionTemporal.P_F);
@@ -211,7 +220,8 @@ public final class ReachChecker {
     if (prismExpression.getOperator() == ExpressionTemporal.P_F) {
       var explorer = DefaultExplorer.of(partialModel, generator, false);
       var predicate = new StateToIntTarget<>(new PrismExpressionWrapper(right), explorer::getState);
-      return solve(explorer, heuristic, precision, analyser, predicate, query.type());
+      return solve(explorer, heuristic, precision, analyser, predicate, query.type(),
+          samplerConfig);
     }
 
     Expression left = prismExpression.getOperand1();
@@ -229,34 +239,38 @@ public final class ReachChecker {
     var explorer = DefaultExplorer.of(partialModel, productGenerator, false);
     var productPredicate = new StateToIntTarget<>(predicate, explorer::getState);
 
-    return solve(explorer, heuristic, precision, analyser, productPredicate, query.type());
+    return solve(explorer, heuristic, precision, analyser, productPredicate, query.type(),
+        samplerConfig);
   }
 
   private static <R> Result<?, R> solveMdp(ModelGenerator prismGenerator,
-      PrismQuery<R> expression, SuccessorHeuristic heuristic, double precision)
-      throws PrismException {
+      PrismQuery<R> expression, SuccessorHeuristic heuristic, double precision,
+      UnboundedSamplerConfig samplerConfig) throws PrismException {
     MarkovDecisionProcess partialModel = new MarkovDecisionProcess();
     ComponentAnalyser componentAnalyser = new MecComponentAnalyser();
     Generator<State> generator = new MdpGenerator(prismGenerator);
-    return solve(expression, componentAnalyser, partialModel, generator, heuristic, precision);
+    return solve(expression, componentAnalyser, partialModel, generator, heuristic, precision,
+        samplerConfig);
   }
 
   private static <R> Result<?, R> solveCtmc(ModelGenerator prismGenerator,
-      PrismQuery<R> expression, SuccessorHeuristic heuristic, double precision)
-      throws PrismException {
+      PrismQuery<R> expression, SuccessorHeuristic heuristic, double precision,
+      UnboundedSamplerConfig samplerConfig) throws PrismException {
     MarkovChain partialModel = new MarkovChain();
     ComponentAnalyser componentAnalyser = new SccComponentAnalyser();
     Generator<State> generator = new CtmcEmbeddingGenerator(prismGenerator);
-    return solve(expression, componentAnalyser, partialModel, generator, heuristic, precision);
+    return solve(expression, componentAnalyser, partialModel, generator, heuristic, precision,
+        samplerConfig);
   }
 
   private static <R> Result<?, R> solveDtmc(ModelGenerator prismGenerator,
-      PrismQuery<R> expression, SuccessorHeuristic heuristic, double precision)
-      throws PrismException {
+      PrismQuery<R> expression, SuccessorHeuristic heuristic, double precision,
+      UnboundedSamplerConfig samplerConfig) throws PrismException {
     MarkovChain partialModel = new MarkovChain();
     ComponentAnalyser componentAnalyser = new SccComponentAnalyser();
     Generator<State> generator = new DtmcGenerator(prismGenerator);
-    return solve(expression, componentAnalyser, partialModel, generator, heuristic, precision);
+    return solve(expression, componentAnalyser, partialModel, generator, heuristic, precision,
+        samplerConfig);
   }
 
   public static void main(String... args) throws IOException, PrismException {
@@ -271,6 +285,8 @@ public final class ReachChecker {
         "Comma separated list of the true values of the properties");
     Option onlyPrintResultOption = new Option(null, "only-result", false,
         "Only print result");
+    Option threadsOption = new Option(null, "threads", true,
+        "Number of threads sampling paths concurrently (default 1)");
     Option relativeErrorOption = new Option(null, "relative-error", false,
         "Use relative error estimate");
 
@@ -286,7 +302,8 @@ public final class ReachChecker {
         .addOption(expectedValuesOption)
         .addOption(constantsOption)
         .addOption(onlyPrintResultOption)
-        .addOption(relativeErrorOption);
+        .addOption(relativeErrorOption)
+        .addOption(threadsOption);
 
     CommandLine commandLine = CliHelper.parse(options, args);
 
@@ -298,6 +315,11 @@ public final class ReachChecker {
     SuccessorHeuristic heuristic = CliHelper.parseHeuristic(
         commandLine.getOptionValue(heuristicOption.getLongOpt()), SuccessorHeuristic.WEIGHTED);
 
+    int samplingThreads = CliHelper.parseThreads(commandLine.getOptionValue(threadsOption.getLongOpt()),
+        UnboundedSamplerConfig.DEFAULT_SAMPLING_THREADS);
+    UnboundedSamplerConfig samplerConfig =
+        UnboundedSamplerConfig.builder().samplingThreads(samplingThreads).build();
+
     // NatBitSets.setFactory(new DefaultNatBitSetFactory((a, b) -> true));
     NatBitSets.setFactory(new RoaringNatBitSetFactory());
 
@@ -346,7 +368,7 @@ public final class ReachChecker {
 
     List<Result<?, ?>> results = new ArrayList<>();
     for (PrismQuery<?> expression : prismQueries) {
-      Result<?, ?> result = solve(generator, expression, heuristic, precision);
+      Result<?, ?> result = solve(generator, expression, heuristic, precision, samplerConfig);
       results.add(result);
     }
 
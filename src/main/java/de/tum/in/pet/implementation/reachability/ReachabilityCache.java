@@ -1,5 +1,6 @@
 package de.tum.in.pet.implementation.reachability;
 
+import de.tum.in.pet.util.ConcurrentInt2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import java.util.function.IntPredicate;
@@ -9,11 +10,21 @@ public class ReachabilityCache implements IntPredicate {
     TARGET, NON_TARGET
   }
 
-  private final Int2ObjectMap<Type> states = new Int2ObjectOpenHashMap<>();
+  private final Int2ObjectMap<Type> states;
   private final IntPredicate target;
 
   public ReachabilityCache(IntPredicate target) {
+    this(target, new Int2ObjectOpenHashMap<>());
+  }
+
+  private ReachabilityCache(IntPredicate target, Int2ObjectMap<Type> states) {
     this.target = target;
+    this.states = states;
+  }
+
+  // Cache which may be queried from several threads concurrently
+  public static ReachabilityCache concurrent(IntPredicate target) {
+    return new ReachabilityCache(target, new ConcurrentInt2ObjectMap<>());
   }
 
   private Type type(int state) {
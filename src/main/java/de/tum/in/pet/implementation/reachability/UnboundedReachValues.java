@@ -7,28 +7,51 @@ import static de.tum.in.probmodels.util.Util.isZero;
 import de.tum.in.pet.sampler.SuccessorHeuristic;
 import de.tum.in.pet.sampler.UnboundedValues;
 import de.tum.in.pet.util.SampleUtil;
+import de.tum.in.pet.util.SuccessorWeights;
 import de.tum.in.pet.values.Bounds;
 import de.tum.in.probmodels.model.Distribution;
 import it.unimi.dsi.fastutil.ints.*;
 
 import java.util.List;
+import java.util.function.IntConsumer;
 import java.util.function.IntPredicate;
 import java.util.function.IntToDoubleFunction;
-import java.util.function.ToDoubleFunction;
+import javax.annotation.Nullable;
 
 public class UnboundedReachValues implements UnboundedValues {
-  protected final Int2ObjectMap<Bounds> bounds = new Int2ObjectOpenHashMap<>();
+  protected final Int2ObjectMap<Bounds> bounds;
   protected final ValueUpdate update;
   protected final IntPredicate target; // Predicate to indicate if a given state is a target state
   protected final double precision;
   private final SuccessorHeuristic heuristic;
+  // Trees of the successor weights for the WEIGHTED and DIFFERENCE heuristics, updated whenever bounds change.
+  @Nullable
+  private final SuccessorWeights successorWeights;
+  // Created once, so that sampling does not allocate a function per call.
+  protected final IntToDoubleFunction lowerBoundFunction = this::lowerBound;
+  protected final IntToDoubleFunction upperBoundFunction = this::upperBound;
+  private final IntToDoubleFunction differenceFunction = s -> bounds(s).difference();
+  // Accumulators of successorBounds, one per thread as the values may be read concurrently.
+  private final ThreadLocal<SuccessorBoundsSum> successorBoundsSums = ThreadLocal.withInitial(SuccessorBoundsSum::new);
 
   public UnboundedReachValues(ValueUpdate update, IntPredicate target, double precision,
       SuccessorHeuristic heuristic) {
+    this(new Int2ObjectOpenHashMap<>(), update, target, precision, heuristic, true);
+  }
+
+  // Allows subclasses to supply their own bound storage, e.g. a thread-safe one. The successor weight trees are not
+  // thread-safe, so they have to be disabled if several threads sample at once.
+  protected UnboundedReachValues(Int2ObjectMap<Bounds> bounds, ValueUpdate update,
+      IntPredicate target, double precision, SuccessorHeuristic heuristic, boolean successorTrees) {
+    this.bounds = bounds;
     this.update = update;
     this.target = target;
     this.precision = precision;
     this.heuristic = heuristic;
+    this.successorWeights = successorTrees
+        && (heuristic == SuccessorHeuristic.WEIGHTED || heuristic == SuccessorHeuristic.DIFFERENCE)
+        ? new SuccessorWeights(s -> bounds(s).difference(), heuristic == SuccessorHeuristic.WEIGHTED)
+        : null;
   }
 
   @Override
@@ -77,28 +100,37 @@ public class UnboundedReachValues implements UnboundedValues {
   @Override
   // Samples a successor from a state given a list of choices.
   public int sampleNextState(int state, List<Distribution> choices) {
-    // Gives weights to action according the their respective support's upper bounds.
-    ToDoubleFunction<Integer> actionScore = isSmallestFixPoint()
-        ? i -> 1.0d - choices.get(i).sumWeighted(this::lowerBound)
-        : i -> choices.get(i).sumWeighted(this::upperBound);
-    IntToDoubleFunction successorDifferences = s -> bounds(s).difference();
-
-    return SampleUtil.sampleNextState(choices, heuristic, actionScore, successorDifferences);
+    double[] actionScores = SampleUtil.isGraphHeuristic(heuristic) ? null : actionScores(choices);
+    return SampleUtil.sampleNextState(choices, heuristic, actionScores, differenceFunction, successorWeights);
   }
 
   @Override
   public int sampleNextAction(int state, List<Distribution> choices){
-    ToDoubleFunction<Integer> actionScore = isSmallestFixPoint()
-            ? i -> 1.0d - choices.get(i).sumWeighted(this::lowerBound)
-            : i -> choices.get(i).sumWeighted(this::upperBound);
+    return SampleUtil.getOptimalChoice(actionScores(choices), choices.size());
+  }
 
-    return SampleUtil.getOptimalChoice(choices, actionScore);
+  // Gives weights to action according the their respective support's upper bounds. The scores are written to the
+  // scratch array of the thread, which is only valid until the next sample.
+  private double[] actionScores(List<Distribution> choices) {
+    int choiceCount = choices.size();
+    double[] actionScores = SampleUtil.actionScores(choiceCount);
+    if (choiceCount > 1) {
+      for (int i = 0; i < choiceCount; i++) {
+        actionScores[i] = isSmallestFixPoint()
+            ? 1.0d - choices.get(i).sumWeighted(lowerBoundFunction)
+            : choices.get(i).sumWeighted(upperBoundFunction);
+      }
+    }
+    return actionScores;
   }
 
   @Override
   // collapse a set of state into a new representative. Updates the bounds of the representative and removes bounds for all other states
   public void collapse(int representative, List<Distribution> choices, IntSet collapsed) {
-    bounds.keySet().removeAll(collapsed);
+    collapsed.forEach((IntConsumer) state -> {
+      bounds.remove(state);
+      boundsChanged(state);
+    });
 
     if (isSmallestFixPoint()) {
       // Only collapse bottom components
@@ -107,7 +139,7 @@ public class UnboundedReachValues implements UnboundedValues {
 
     // checks if any of the collapsed states is a target, if yes, set bounds to one (u=1, l=1).
     if (IntIterators.any(collapsed.iterator(), target)) {
-      bounds.put(representative, Bounds.reachOne());
+      storeBounds(representative, Bounds.reachOne());
     } else {
       // updates bounds according to choices
       update(representative, choices);
@@ -116,25 +148,50 @@ public class UnboundedReachValues implements UnboundedValues {
 
   // Calculates new bounds according to an action. Lines 20, 21 in OnDemandVI in CAV'17 paper
   protected Bounds successorBounds(int state, Distribution distribution) {
-    double lower = 0.0d;
-    double upper = 0.0d;
-    double sum = 0.0d;
-    for (Int2DoubleMap.Entry entry : distribution) {
-      int successor = entry.getIntKey();
+    SuccessorBoundsSum sums = successorBoundsSums.get().of(state, distribution);
+    if (sums.sum == 0.0d) {
+      return bounds(state);
+    }
+    return Bounds.reach(sums.lowerBound(), sums.upperBound());
+  }
+
+  // Sums up the bounds of the successors of a distribution weighted by their probability, for successorBounds and
+  // update. It is passed to Distribution.forEach, so that no entry iterator has to be allocated.
+  private final class SuccessorBoundsSum implements Distribution.IntDoubleConsumer {
+    private int state;
+    double lower;
+    double upper;
+    double sum;
+
+    SuccessorBoundsSum of(int state, Distribution distribution) {
+      this.state = state;
+      lower = 0.0d;
+      upper = 0.0d;
+      sum = 0.0d;
+      distribution.forEach(this);
+      return this;
+    }
+
+    @Override
+    public void accept(int successor, double probability) {
       // It may be that the distribution has self loops, we want to avoid those
       if (successor == state) {
-        continue;
+        return;
       }
       Bounds successorBounds = bounds(successor);
-      double probability = entry.getDoubleValue();
       sum += probability;
       lower += successorBounds.lowerBound() * probability;
       upper += successorBounds.upperBound() * probability;
     }
-    if (sum == 0.0d) {
-      return bounds(state);
+
+    // The bounds of the successors, or of the state itself if the distribution only is a self loop.
+    double lowerBound() {
+      return sum == 0.0d ? UnboundedReachValues.this.lowerBound(state) : lower / sum;
+    }
+
+    double upperBound() {
+      return sum == 0.0d ? UnboundedReachValues.this.upperBound(state) : upper / sum;
     }
-    return Bounds.reach(lower / sum, upper / sum);
   }
 
   @Override
@@ -148,16 +205,13 @@ public class UnboundedReachValues implements UnboundedValues {
     }
     assert !target.test(state);
 
-    Bounds oldBounds;
     Bounds newBounds;
     // If there are no choices from the state, it must have a zero value (u=0, l=0)
     if (choices.isEmpty()) {
       newBounds = Bounds.reachZero();
-      oldBounds = bounds.put(state, newBounds);
     }
     else if (choices.size() == 1) {
       newBounds = successorBounds(state, choices.get(0));
-      oldBounds = bounds.put(state, newBounds);
     }
     else {
       double newLowerBound;
@@ -169,7 +223,7 @@ public class UnboundedReachValues implements UnboundedValues {
         newLowerBound = 0.0d;
         newUpperBound = 0.0d;
         for (Distribution distribution : choices) {
-          Bounds bounds = successorBounds(state, distribution);
+          SuccessorBoundsSum bounds = successorBoundsSums.get().of(state, distribution);
           double upperBound = bounds.upperBound();
           if (upperBound > newUpperBound) {
             newUpperBound = upperBound;
@@ -185,7 +239,7 @@ public class UnboundedReachValues implements UnboundedValues {
         newUpperBound = 1.0d;
         newLowerBound = 1.0d;
         for (Distribution distribution : choices) {
-          Bounds bounds = successorBounds(state, distribution);
+          SuccessorBoundsSum bounds = successorBoundsSums.get().of(state, distribution);
           double upperBound = bounds.upperBound();
           if (upperBound < newUpperBound) {
             newUpperBound = upperBound;
@@ -199,14 +253,30 @@ public class UnboundedReachValues implements UnboundedValues {
 
       assert newLowerBound <= newUpperBound;
       newBounds = Bounds.of(newLowerBound, newUpperBound);
-      oldBounds = bounds.put(state, newBounds);
     }
+    storeBounds(state, newBounds);
+  }
+
+  // Stores the newly computed bounds of a state. Bounds may only ever get tighter.
+  protected void storeBounds(int state, Bounds newBounds) {
+    Bounds oldBounds = bounds.put(state, newBounds);
     assert oldBounds == null || oldBounds.contains(newBounds);
+    boundsChanged(state);
+  }
+
+  // Has to be called by every modification of the bounds of a state, except for resetBounds.
+  protected void boundsChanged(int state) {
+    if (successorWeights != null) {
+      successorWeights.scoreChanged(state);
+    }
   }
 
   @Override
   public void resetBounds(){
     bounds.clear();
+    if (successorWeights != null) {
+      successorWeights.clear();
+    }
   }
 
   @Override
@@ -1,7 +1,9 @@
 package de.tum.in.pet.sampler;
 
+import com.google.common.base.Throwables;
 import de.tum.in.naturals.set.NatBitSet;
 import de.tum.in.naturals.set.NatBitSets;
+import de.tum.in.pet.util.IncrementalComponentSearch;
 import de.tum.in.pet.values.Bounds;
 import de.tum.in.probmodels.explorer.Explorer;
 import de.tum.in.probmodels.graph.ComponentAnalyser;
@@ -18,6 +20,13 @@ import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.ints.IntStack;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,13 +40,20 @@ public class UnboundedSampler<S, M extends Model> implements Iterator<S, M> {
   private final UnboundedValues values;
   private final CollapseModel<M> collapseModel;
   private final ComponentAnalyser analyser;
+  // Tracks the states explored since the last component search
+  private final IncrementalComponentSearch componentSearch;
 
   private final NatBitSet statesInComponents = NatBitSets.set();
   private final IntSet sampledStates = new IntOpenHashSet();
 
+  // Sampling threads hold the read lock, exploring and collapsing requires the write lock
+  private final ReadWriteLock modelLock = new ReentrantReadWriteLock();
+  private final int samplingThreads;
+
   private long collapseThreshold;
   private int loopCount = 0;
-  private boolean newStatesSinceCollapse = false;
+  // Incremented whenever components are collapsed, allows to detect stale paths
+  private volatile int collapseEpoch = 0;
 
   private final int maxBacktrackPerSample;
   private final int maxExploresPerSample;
@@ -48,12 +64,16 @@ public class UnboundedSampler<S, M extends Model> implements Iterator<S, M> {
     this.explorer = explorer;
     this.collapseModel = new CollapseView<>(explorer.model());
     this.analyser = analyser;
+    this.componentSearch = new IncrementalComponentSearch(analyser);
+    // States explored before sampling starts, e.g. the initial states, are new to the first search, too
+    componentSearch.explored(explorer.exploredStates());
     this.values = values;
     this.collapseThreshold = config.initialCollapseThreshold();
 
     maxBacktrackPerSample = config.maxBacktrackPerSample();
     maxExploresPerSample = config.maxExploresPerSample();
     collapseMethod = config.collapseMethod();
+    samplingThreads = config.samplingThreads();
   }
 
   @Override
@@ -75,29 +95,87 @@ public class UnboundedSampler<S, M extends Model> implements Iterator<S, M> {
 
   @Override
   public void run() throws PrismException {
-    long count = 0;
-    for (int initialState : explorer.initialStates()) {
-      // The representative of the initial states might be a different state
-      int representative = collapseModel.representative(initialState);
-      while (!values.isSolved(representative)) {
-        count += 1;
-        if (sample(representative)) {
-          // If MECs have been merged, update the representative (it might have changed)
-          representative = collapseModel.representative(initialState);
-          assert explorer.isExploredState(representative)
-              && collapseModel.representative(representative)
-              == collapseModel.representative(initialState);
+    if (samplingThreads == 1) {
+      for (int initialState : explorer.initialStates()) {
+        sampleUntilSolved(initialState);
+      }
+      return;
+    }
+
+    // The workers of all initial states share one pool
+    ExecutorService executor = Executors.newFixedThreadPool(samplingThreads);
+    try {
+      for (int initialState : explorer.initialStates()) {
+        sampleUntilSolvedConcurrently(executor, initialState);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void sampleUntilSolvedConcurrently(ExecutorService executor, int initialState)
+      throws PrismException {
+    List<Future<?>> workers = new ArrayList<>(samplingThreads);
+    try {
+      for (int i = 0; i < samplingThreads; i++) {
+        workers.add(executor.submit(() -> {
+          sampleUntilSolved(initialState);
+          return null;
+        }));
+      }
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PrismException("Interrupted while sampling: " + e.getMessage());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof PrismException) {
+        throw (PrismException) cause;
+      }
+      Throwables.throwIfUnchecked(cause);
+      throw new PrismException("Sampling failed: " + cause);
+    } finally {
+      // Stop the remaining workers of this state if one of them failed
+      for (Future<?> worker : workers) {
+        worker.cancel(true);
+      }
+    }
+  }
+
+  // Samples paths until the initial state is solved. Safe to be called by several threads at once.
+  // The read lock is only held while sampling a single path, so that writers wait for the current
+  // paths of the other threads at most.
+  private void sampleUntilSolved(int initialState) throws PrismException {
+    Lock readLock = modelLock.readLock();
+    while (true) {
+      readLock.lock();
+      try {
+        // The representative of the initial states might be a different state and change when
+        // MECs are merged
+        int representative = collapseModel.representative(initialState);
+        if (values.isSolved(representative)) {
+          return;
         }
+        sample(representative);
+      } finally {
+        readLock.unlock();
       }
     }
   }
 
+  // Must be called while holding the read lock; the lock is held again once this method returns.
+  // Returns true if components have been collapsed while sampling.
   private boolean sample(int initialState) throws PrismException {
-    assert !values.isSolved(initialState);
+    // Other threads may have solved the state in the meantime
+    assert samplingThreads > 1 || !values.isSolved(initialState);
+    int epoch = collapseEpoch;
 
     IntList visitedStates = new IntArrayList();
     IntStack visitStack = (IntStack) visitedStates;
     IntSet visitedStateSet = new IntOpenHashSet();
+    IntSet pathStates = new IntOpenHashSet();
 
     int exploreCount = 0;
     int currentState = initialState;
@@ -108,7 +186,7 @@ public class UnboundedSampler<S, M extends Model> implements Iterator<S, M> {
 
       visitStack.push(currentState);
       if (visitedStateSet.add(currentState)) {
-        sampledStates.add(currentState);
+        pathStates.add(currentState);
       } else {
         stateRevisit += 1;
       }
@@ -143,34 +221,25 @@ public class UnboundedSampler<S, M extends Model> implements Iterator<S, M> {
           }
           exploreCount += 1;
           explore(nextState);
+          if (epoch != collapseEpoch) {
+            // The lock was released while exploring and another thread collapsed components
+            return true;
+          }
         }
 
         currentState = nextState;
       }
     }
 
-    // Handle end components
-    if (stateRevisit > 5) {
-      loopCount += 1;
-      // We looped quite often - chances for this are high if there is a MEC, otherwise the
-      // sampling probabilities would decrease
-      if (loopCount > collapseThreshold) {
-        // Search for fix points in the model
-        // TODO Only search on frequently visited states?
-        boolean anythingChanged = handleComponents();
-
-        loopCount = 0;
-        // Some arbitrary increasing number - collapsing is expensive
-        collapseThreshold += explorer.exploredStates().size();
-
-        if (anythingChanged) {
-          // The path could now contain invalid states (i.e. some which have been merged), we have
-          // to sample again.
-          visitedStates.clear();
+    synchronized (sampledStates) {
+      sampledStates.addAll(pathStates);
+    }
 
-          return true;
-        }
-      }
+    // Handle end components
+    if (stateRevisit > 5 && handleLoop() || epoch != collapseEpoch) {
+      // The path could now contain invalid states (i.e. some which have been merged), we have
+      // to sample again.
+      return true;
     }
 
     // Propagate values backwards along the path
@@ -182,32 +251,76 @@ public class UnboundedSampler<S, M extends Model> implements Iterator<S, M> {
     return false;
   }
 
+  // Must be called while holding the read lock. Returns true if components have been collapsed.
+  private boolean handleLoop() {
+    Lock readLock = modelLock.readLock();
+    Lock writeLock = modelLock.writeLock();
+    readLock.unlock();
+    writeLock.lock();
+    try {
+      loopCount += 1;
+      // We looped quite often - chances for this are high if there is a MEC, otherwise the
+      // sampling probabilities would decrease
+      if (loopCount <= collapseThreshold) {
+        return false;
+      }
+      // Search for fix points in the model
+      // TODO Only search on frequently visited states?
+      boolean anythingChanged = handleComponents();
+
+      loopCount = 0;
+      // Some arbitrary increasing number - collapsing is expensive
+      collapseThreshold += explorer.exploredStates().size();
+
+      if (anythingChanged) {
+        collapseEpoch += 1;
+      }
+      return anythingChanged;
+    } finally {
+      // Downgrade to the read lock
+      readLock.lock();
+      writeLock.unlock();
+    }
+  }
+
+  // Must be called while holding the read lock
   private void explore(int state) throws PrismException {
-    assert !explorer.isExploredState(state);
-    newStatesSinceCollapse = true;
-    explorer.exploreState(state);
-    values.explored(state);
+    Lock readLock = modelLock.readLock();
+    Lock writeLock = modelLock.writeLock();
+    readLock.unlock();
+    writeLock.lock();
+    try {
+      // Another thread might have explored the state in the meantime
+      if (!explorer.isExploredState(state)) {
+        explorer.exploreState(state);
+        componentSearch.explored(state);
+        values.explored(state);
+      }
+    } finally {
+      readLock.lock();
+      writeLock.unlock();
+    }
   }
 
   private boolean handleComponents() {
-    if (!newStatesSinceCollapse) {
+    if (!componentSearch.hasNewStates()) {
       return false;
     }
-    newStatesSinceCollapse = false;
 
     logger.log(Level.INFO, "Searching components");
 
-    NatBitSet states;
+    List<NatBitSet> components;
     if (collapseMethod == CollapseMethod.ALL_STATES) {
-      states = NatBitSets.copyOf(explorer.exploredStates());
-      states.removeAll(collapseModel.removedStates());
+      // Any new component contains a newly explored state, only search the part of the model connected to them
+      components = componentSearch.findComponents(collapseModel,
+          state -> explorer.isExploredState(state) && !collapseModel.isRemoved(state));
     } else {
-      states = NatBitSets.copyOf(sampledStates);
+      NatBitSet states = NatBitSets.copyOf(sampledStates);
+      assert states.stream().noneMatch(collapseModel::isRemoved);
+      assert explorer.exploredStates().containsAll(states);
+      components = analyser.findComponents(collapseModel, states);
+      componentSearch.clear();
     }
-    assert states.stream().noneMatch(collapseModel::isRemoved);
-    assert explorer.exploredStates().containsAll(states);
-
-    List<NatBitSet> components = analyser.findComponents(collapseModel, states);
     sampledStates.clear();
 
     if (components.isEmpty()) {
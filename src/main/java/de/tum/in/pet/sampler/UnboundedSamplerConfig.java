@@ -1,5 +1,7 @@
 package de.tum.in.pet.sampler;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import org.immutables.value.Value;
 
 @Value.Immutable(builder = true)
@@ -9,6 +11,7 @@ public abstract class UnboundedSamplerConfig {
   public static final int DEFAULT_MAX_BACK_TRACE_PER_SAMPLE = 4;
   public static final long DEFAULT_REPORT_PROGRESS_EVERY_STEPS = 500_000;
   public static final int DEFAULT_INITIAL_COLLAPSE_THRESHOLD = 10;
+  public static final int DEFAULT_SAMPLING_THREADS = 1;
 
   @Value.Default
   public int maxExploresPerSample() {
@@ -35,6 +38,18 @@ public abstract class UnboundedSamplerConfig {
     return CollapseMethod.ONLY_SAMPLED_STATES;
   }
 
+  // Number of threads sampling paths concurrently. Values greater than one require thread-safe
+  // values, e.g. ConcurrentUnboundedReachValues.
+  @Value.Default
+  public int samplingThreads() {
+    return DEFAULT_SAMPLING_THREADS;
+  }
+
+  @Value.Check
+  protected void check() {
+    checkArgument(samplingThreads() >= 1, "Need at least one sampling thread");
+  }
+
   public static ImmutableUnboundedSamplerConfig.Builder builder() {
     return ImmutableUnboundedSamplerConfig.builder();
   }
@@ -0,0 +1,104 @@
+package de.tum.in.pet.util;
+
+import de.tum.in.probmodels.model.Distribution;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Samples successors of a fixed distribution in constant time by Walker's alias method, using Vose's numerically stable
+ * construction. Every column holds a successor, the probability to keep it and an alias which is taken otherwise.
+ * Building the table takes time linear in the size of the distribution.
+ */
+public final class AliasTable {
+  private final int[] successors;
+  private final double[] thresholds;
+  private final int[] aliases;
+
+  private AliasTable(int[] successors, double[] thresholds, int[] aliases) {
+    this.successors = successors;
+    this.thresholds = thresholds;
+    this.aliases = aliases;
+  }
+
+  /**
+   * @param distribution a non-empty distribution, which is normalized if its probabilities don't sum up to one.
+   */
+  public static AliasTable of(Distribution distribution) {
+    int size = distribution.size();
+    assert size > 0;
+    int[] successors = new int[size];
+    double[] scaled = new double[size];
+    double sum = 0.0d;
+    int column = 0;
+    for (Int2DoubleMap.Entry entry : distribution) {
+      successors[column] = entry.getIntKey();
+      scaled[column] = entry.getDoubleValue();
+      sum += entry.getDoubleValue();
+      column++;
+    }
+
+    IntArrayList small = new IntArrayList();
+    IntArrayList large = new IntArrayList();
+    for (column = 0; column < size; column++) {
+      scaled[column] = scaled[column] * size / sum;
+      if (scaled[column] < 1.0d) {
+        small.add(column);
+      } else {
+        large.add(column);
+      }
+    }
+
+    double[] thresholds = new double[size];
+    int[] aliases = new int[size];
+    while (!small.isEmpty() && !large.isEmpty()) {
+      int smallColumn = small.popInt();
+      int largeColumn = large.popInt();
+      thresholds[smallColumn] = scaled[smallColumn];
+      aliases[smallColumn] = largeColumn;
+      scaled[largeColumn] = (scaled[largeColumn] + scaled[smallColumn]) - 1.0d;
+      if (scaled[largeColumn] < 1.0d) {
+        small.add(largeColumn);
+      } else {
+        large.add(largeColumn);
+      }
+    }
+    // Remaining columns are full up to rounding errors.
+    while (!large.isEmpty()) {
+      int largeColumn = large.popInt();
+      thresholds[largeColumn] = 1.0d;
+      aliases[largeColumn] = largeColumn;
+    }
+    while (!small.isEmpty()) {
+      int smallColumn = small.popInt();
+      thresholds[smallColumn] = 1.0d;
+      aliases[smallColumn] = smallColumn;
+    }
+    return new AliasTable(successors, thresholds, aliases);
+  }
+
+  public int size() {
+    return successors.length;
+  }
+
+  // The successor, threshold and alias of a column, exposed for tests.
+  int successor(int column) {
+    return successors[column];
+  }
+
+  double threshold(int column) {
+    return thresholds[column];
+  }
+
+  int alias(int column) {
+    return aliases[column];
+  }
+
+  /**
+   * @param uniform a number drawn uniformly from [0, 1).
+   */
+  public int sample(double uniform) {
+    double value = uniform * successors.length;
+    int column = (int) value;
+    return value - column < thresholds[column] ? successors[column] : successors[aliases[column]];
+  }
+}
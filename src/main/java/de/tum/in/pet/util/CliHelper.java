@@ -122,6 +122,25 @@ public final class CliHelper {
     }
   }
 
+  public static int parseThreads(String optionString, int defaultValue) {
+    if (optionString == null) {
+      return defaultValue;
+    }
+    int threads;
+    try {
+      threads = Integer.parseInt(optionString);
+    } catch (NumberFormatException e) {
+      logger.log(Level.FINE, "Failed to parse threads", e);
+      threads = 0;
+    }
+    if (threads < 1) {
+      System.out.println("Invalid number of threads " + optionString + ". Expected a positive integer.");
+      System.exit(1);
+      throw new AssertionError();
+    }
+    return threads;
+  }
+
   public static CommandLine parse(Options options, String[] args) {
     HelpFormatter formatter = new HelpFormatter();
     CommandLineParser cliParser = new DefaultParser();
@@ -0,0 +1,118 @@
+package de.tum.in.pet.util;
+
+import it.unimi.dsi.fastutil.ints.AbstractInt2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.objects.AbstractObjectSet;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.ObjectSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+
+/**
+ * Thread-safe {@link Int2ObjectMap} backed by a {@link ConcurrentHashMap}. Single key operations
+ * (including {@link #merge(int, Object, BiFunction)} and
+ * {@link #computeIfAbsent(int, IntFunction)}) are atomic, iteration is weakly consistent.
+ * Null values are not supported.
+ */
+public class ConcurrentInt2ObjectMap<V> extends AbstractInt2ObjectMap<V> {
+  private static final long serialVersionUID = 1L;
+
+  private final ConcurrentHashMap<Integer, V> map;
+
+  public ConcurrentInt2ObjectMap() {
+    this.map = new ConcurrentHashMap<>();
+  }
+
+  public ConcurrentInt2ObjectMap(int expectedSize) {
+    this.map = new ConcurrentHashMap<>(expectedSize);
+  }
+
+  @Override
+  public V get(int key) {
+    V value = map.get(key);
+    return value == null ? defaultReturnValue() : value;
+  }
+
+  @Override
+  public V getOrDefault(int key, V defaultValue) {
+    return map.getOrDefault(key, defaultValue);
+  }
+
+  @Override
+  public boolean containsKey(int key) {
+    return map.containsKey(key);
+  }
+
+  @Override
+  public V put(int key, V value) {
+    V old = map.put(key, value);
+    return old == null ? defaultReturnValue() : old;
+  }
+
+  @Override
+  public V remove(int key) {
+    V old = map.remove(key);
+    return old == null ? defaultReturnValue() : old;
+  }
+
+  @Override
+  public V computeIfAbsent(int key, IntFunction<? extends V> mappingFunction) {
+    return map.computeIfAbsent(key, mappingFunction::apply);
+  }
+
+  @Override
+  public V merge(int key, V value,
+      BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    return map.merge(key, value, remappingFunction);
+  }
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return map.isEmpty();
+  }
+
+  @Override
+  public void clear() {
+    map.clear();
+  }
+
+  @Override
+  public ObjectSet<Int2ObjectMap.Entry<V>> int2ObjectEntrySet() {
+    return new AbstractObjectSet<>() {
+      @Override
+      public ObjectIterator<Int2ObjectMap.Entry<V>> iterator() {
+        Iterator<Map.Entry<Integer, V>> iterator = map.entrySet().iterator();
+        return new ObjectIterator<>() {
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public Int2ObjectMap.Entry<V> next() {
+            Map.Entry<Integer, V> entry = iterator.next();
+            return new BasicEntry<>(entry.getKey(), entry.getValue());
+          }
+
+          @Override
+          public void remove() {
+            iterator.remove();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return map.size();
+      }
+    };
+  }
+}
@@ -0,0 +1,109 @@
+package de.tum.in.pet.util;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterable;
+
+/**
+ * Confidence widths sqrt(-log(transDelta) / (2 * count)) of the learned state-action pairs, as in the CAV'19 paper.
+ * For every state, 1 / sqrt(2 * count) is stored per action and scaled by sqrt(-log(transDelta)) on lookup. Thus, a
+ * changed transDelta is handled in constant time and a changed count only recomputes a single entry. Action indices
+ * beyond the learned actions of a state (i.e. the stay action) have confidence width zero.
+ */
+public final class ConfidenceWidthTable {
+  /**
+   * Source of the learned actions and how often they have been sampled.
+   */
+  public interface ActionCounts {
+    int numActions(int state);
+
+    long count(int state, int action);
+  }
+
+  private static final ConfidenceWidthTable ZERO = new ConfidenceWidthTable(new ActionCounts() {
+    @Override
+    public int numActions(int state) {
+      return 0;
+    }
+
+    @Override
+    public long count(int state, int action) {
+      return 0;
+    }
+  });
+
+  private final ActionCounts counts;
+  private final Int2ObjectOpenHashMap<double[]> inverseSqrtCounts = new Int2ObjectOpenHashMap<>();
+  private double transDelta = 1.0d;
+  private double scale = Math.sqrt(-Math.log(transDelta));
+
+  public ConfidenceWidthTable(ActionCounts counts) {
+    this.counts = counts;
+  }
+
+  /**
+   * @return a table with confidence width zero for every state-action pair.
+   */
+  public static ConfidenceWidthTable zero() {
+    return ZERO;
+  }
+
+  public void setTransDelta(double transDelta) {
+    if (transDelta != this.transDelta) {
+      this.transDelta = transDelta;
+      this.scale = Math.sqrt(-Math.log(transDelta));
+    }
+  }
+
+  /**
+   * Recomputes the entry of a state-action pair after its count has changed.
+   */
+  public void updateCount(int state, int action) {
+    double[] row = inverseSqrtCounts.get(state);
+    if (row == null || action >= row.length) {
+      updateState(state);
+    } else {
+      row[action] = inverseSqrtCount(counts.count(state, action));
+    }
+  }
+
+  /**
+   * Recomputes the entries of all actions of a state, e.g. after it has been explored.
+   */
+  public void updateState(int state) {
+    int numActions = counts.numActions(state);
+    double[] row = inverseSqrtCounts.get(state);
+    if (row == null || row.length != numActions) {
+      row = new double[numActions];
+      inverseSqrtCounts.put(state, row);
+    }
+    for (int action = 0; action < numActions; action++) {
+      row[action] = inverseSqrtCount(counts.count(state, action));
+    }
+  }
+
+  public void updateStates(IntIterable states) {
+    for (int state : states) {
+      updateState(state);
+    }
+  }
+
+  public void clear() {
+    inverseSqrtCounts.clear();
+  }
+
+  /**
+   * @return the confidence width of the action with index action of state.
+   */
+  public double width(int state, int action) {
+    double[] row = inverseSqrtCounts.get(state);
+    if (row == null) {
+      // Not yet in the table, compute without storing, as this may be called concurrently.
+      return action < counts.numActions(state) ? scale * inverseSqrtCount(counts.count(state, action)) : 0.0d;
+    }
+    return action < row.length ? scale * row[action] : 0.0d;
+  }
+
+  private static double inverseSqrtCount(long count) {
+    return 1.0d / Math.sqrt(2.0d * count);
+  }
+}
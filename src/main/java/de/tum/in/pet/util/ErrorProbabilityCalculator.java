@@ -2,122 +2,182 @@ package de.tum.in.pet.util;
 
 import de.tum.in.naturals.set.NatBitSet;
 import de.tum.in.pet.implementation.meanPayoff.BoundedMecQuotient;
-import de.tum.in.probmodels.explorer.BlackExplorer;
 import de.tum.in.probmodels.model.Action;
 import de.tum.in.probmodels.model.Distribution;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.ints.*;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
-import prism.Pair;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
+/**
+ * Computes the probability that some action outside of the MECs has an original successor which has not been visited
+ * by the sampled transitions, weighting every state by the probability of reaching it along its discovery path.
+ *
+ * <p>The probabilities (1-p)^n of not visiting the original successors can be kept up to date while sampling by
+ * reporting every changed count through {@link #updateCount(int, int)}. They are then updated by one multiplication
+ * per successor and the final computation is a single pass over the explored graph. Pairs whose counts have not been
+ * reported are computed when the error probability is requested.</p>
+ */
 public class ErrorProbabilityCalculator {
-    // Once the error probability is calculated for a state, we update the state as computed.
-    // This is because the same state might recursively get called.
-    // So to avoid infinite looping, we only once do the calculation for each state.
-    Int2BooleanMap computedStates = new Int2BooleanOpenHashMap();
-
-    List<Pair<Pair<Integer, Integer>, Double>> stateActionProbabilities = new ArrayList<>();
-
-    private final Int2ObjectMap<ObjectArrayList<Action>> originalStateActions;
     private final Int2ObjectFunction<List<Action>> getStateActions;
+    private final Int2ObjectMap<ObjectArrayList<Action>> originalStateActions;
     private final Int2ObjectMap<ObjectArrayList<Int2LongMap>> stateTransitionCounts;
-    private final Int2IntMap stateToMecMap;
-    private final List<NatBitSet> mecs;
+
+    // For every state, the probabilities of not having visited a successor per original action, created on demand.
+    private final Int2ObjectMap<UnvisitedSuccessors[]> unvisitedSuccessors = new Int2ObjectOpenHashMap<>();
+
+    private static final class UnvisitedSuccessors {
+        // 1-p for every original successor of the action.
+        final double[] notTaken;
+        // (1-p)^visits for every original successor of the action.
+        final double[] notVisited;
+        long visits = 0;
+        double sum;
+
+        UnvisitedSuccessors(Distribution distribution) {
+            int size = distribution.size();
+            notTaken = new double[size];
+            notVisited = new double[size];
+            int index = 0;
+            for (Int2DoubleMap.Entry entry : distribution) {
+                notTaken[index] = 1 - entry.getDoubleValue();
+                notVisited[index] = 1;
+                index++;
+            }
+            sum = size;
+        }
+
+        void setVisits(long visits) {
+            double sum = 0;
+            if (visits == this.visits + 1) {
+                for (int i = 0; i < notVisited.length; i++) {
+                    notVisited[i] *= notTaken[i];
+                    sum += notVisited[i];
+                }
+            } else {
+                for (int i = 0; i < notVisited.length; i++) {
+                    notVisited[i] = Math.pow(notTaken[i], visits);
+                    sum += notVisited[i];
+                }
+            }
+            this.visits = visits;
+            this.sum = sum;
+        }
+    }
 
     public ErrorProbabilityCalculator(Int2ObjectFunction<List<Action>> getStateActions,
                                       Int2ObjectMap<ObjectArrayList<Action>> originalStateActions,
-                                      Int2ObjectMap<ObjectArrayList<Int2LongMap>> stateTransitionCounts,
-                                      Int2IntMap stateToMecMap,
-                                      List<NatBitSet> mecs) {
+                                      Int2ObjectMap<ObjectArrayList<Int2LongMap>> stateTransitionCounts) {
         this.getStateActions = getStateActions;
         this.originalStateActions = originalStateActions;
         this.stateTransitionCounts = stateTransitionCounts;
-        this.stateToMecMap = stateToMecMap;
-        this.mecs = mecs;
     }
 
-    public double getErrorProbability(int initialState) {
-        computeErrorProbability(initialState, 1);
-        return computeResult();
-    }
-
-    private void computeErrorProbability(int state, double reachProbability) {
-        // Mark this state as computed. So It won't be again computed next time.
-        // Even though we filter this out at last, it still needs to be here, because same state might appear twice in state
-        // successors
-        if (computedStates.containsKey(state)) {
-            return;
-        }
-
-        computedStates.put(state, true);
-
-        List<Pair<Integer, Double>> stateSuccessors = new ArrayList<>();
-
-        //explorer.getActions will not contain the sink state
-        List<Action> actions = getStateActions.apply(state);
-
-        for (int i = 0; i < actions.size(); i++) {
-            Action action = actions.get(i);
-
-            // If not in MEC, we compute the error probability
-            if (!isInMEC(state, action)) {
-                double prob = oneOfTheSuccessorIsNotVisited(state, i) * reachProbability;
-                stateActionProbabilities.add(new Pair<>(new Pair<>(state, i), prob));
+    /**
+     * Updates the probabilities of not having visited the successors of a state-action pair after its count changed.
+     */
+    public void updateCount(int state, int actionIndex) {
+        unvisitedSuccessors(state, actionIndex).setVisits(getStateActionVisitCount(state, actionIndex));
+    }
+
+    /**
+     * @param stateToMecMap the index of the MEC of every state which is part of one.
+     * @param mecs the MECs of the explored model, actions staying in one of them don't contribute.
+     */
+    public double getErrorProbability(int initialState, Int2IntMap stateToMecMap, List<NatBitSet> mecs) {
+        // Depth first search over the explored graph, visiting every state once with the probability of the path it
+        // is discovered along. The successors of all states on the stack are kept in a single list, each stack frame
+        // holds the start of its successors and the next one to be visited. The successors of the top frame end at the
+        // end of the list.
+        IntSet visitedStates = new IntOpenHashSet();
+        IntArrayList successors = new IntArrayList();
+        DoubleArrayList successorReachProbabilities = new DoubleArrayList();
+        IntArrayList frameStarts = new IntArrayList();
+        IntArrayList frameCursors = new IntArrayList();
+
+        double noError = 1;
+        int state = initialState;
+        double reachProbability = 1;
+        while (true) {
+            visitedStates.add(state);
+            frameStarts.add(successors.size());
+            frameCursors.add(successors.size());
+
+            //explorer.getActions will not contain the sink state
+            List<Action> actions = getStateActions.apply(state);
+            for (int i = 0; i < actions.size(); i++) {
+                Action action = actions.get(i);
+
+                // If not in MEC, we compute the error probability
+                if (!isInMEC(state, action, stateToMecMap, mecs)) {
+                    noError *= 1 - oneOfTheSuccessorIsNotVisited(state, i) * reachProbability;
+                }
+
+                for (Int2DoubleMap.Entry entry : action.distribution()) {
+                    int successor = entry.getIntKey();
+                    if (!BoundedMecQuotient.isSinkState(successor)) {
+                        successors.add(successor);
+                        successorReachProbabilities.add(reachProbability * entry.getDoubleValue());
+                    }
+                }
             }
 
-            stateSuccessors.addAll(getSuccessors(state, i));
+            // Find the next successor which has not been visited yet, popping the frames with no successors left.
+            state = -1;
+            while (state == -1 && !frameStarts.isEmpty()) {
+                int top = frameStarts.size() - 1;
+                int cursor = frameCursors.getInt(top);
+                if (cursor == successors.size()) {
+                    int start = frameStarts.popInt();
+                    frameCursors.popInt();
+                    successors.size(start);
+                    successorReachProbabilities.size(start);
+                    continue;
+                }
+                frameCursors.set(top, cursor + 1);
+                int successor = successors.getInt(cursor);
+                if (!visitedStates.contains(successor)) {
+                    state = successor;
+                    reachProbability = successorReachProbabilities.getDouble(cursor);
+                }
+            }
+            if (state == -1) {
+                break;
+            }
         }
 
-        // We recursively compute the error probabilities for the successors of the state
-        // Before that we filter out already computed state and sink states
-        stateSuccessors.stream()
-                .filter(successorProbPair -> notAlreadyComputed(successorProbPair.first) && notASinkState(successorProbPair.first))
-                .forEach(successorProbPair -> {
-                    computeErrorProbability(successorProbPair.first, reachProbability * successorProbPair.second);
-                });
-    }
-
-    private double computeResult() {
-        double result = stateActionProbabilities.stream()
-                .mapToDouble(elem -> 1 - elem.second)
-                .reduce(1, (a, b) -> a*b);
-
-        return 1 - result;
+        return 1 - noError;
     }
 
     // Computes the probability that one of the successor is not visited for this state, and it's best action
     private double oneOfTheSuccessorIsNotVisited(int state, int bestActionIndex) {
-        if (hasNoActions(state)) {
-            return 0;
-        }
-
         assert bestActionIndex != -1;
 
-        List<Double> successorProbabilities = getOriginalSuccessorProbabilities(state, bestActionIndex);
         long numVisits = getStateActionVisitCount(state, bestActionIndex);
-
         if (numVisits == 0) {
             return 0;
         }
 
-        return successorProbabilities.stream()
-                .mapToDouble(prob -> successorNotVisited(prob, numVisits))
-                .sum();
+        UnvisitedSuccessors unvisited = unvisitedSuccessors(state, bestActionIndex);
+        if (unvisited.visits != numVisits) {
+            unvisited.setVisits(numVisits);
+        }
+        return unvisited.sum;
     }
 
-
-    // Given a state and action, it returns the list of successor probabilities
-    private List<Double> getOriginalSuccessorProbabilities(int state, int actionIndex) {
-        Distribution actionDistribution = originalStateActions.get(state).get(actionIndex).distribution();
-        List<Double> successorProbabilities = new ArrayList<>();
-        for (Int2DoubleMap.Entry entry : actionDistribution) {
-            successorProbabilities.add(entry.getDoubleValue());
+    private UnvisitedSuccessors unvisitedSuccessors(int state, int actionIndex) {
+        ObjectArrayList<Action> originalActions = originalStateActions.get(state);
+        UnvisitedSuccessors[] stateEntries = unvisitedSuccessors.get(state);
+        if (stateEntries == null || stateEntries.length != originalActions.size()) {
+            stateEntries = new UnvisitedSuccessors[originalActions.size()];
+            unvisitedSuccessors.put(state, stateEntries);
         }
-
-        return successorProbabilities;
+        if (stateEntries[actionIndex] == null) {
+            stateEntries[actionIndex] = new UnvisitedSuccessors(originalActions.get(actionIndex).distribution());
+        }
+        return stateEntries[actionIndex];
     }
 
     // Returns the number of times, this state, action has been visited.
@@ -126,75 +186,21 @@ public class ErrorProbabilityCalculator {
         // times this state action has been visited.
         Int2LongMap actionSuccessorsVisitCounts = stateTransitionCounts.get(state).get(actionIndex);
 
-
-        return actionSuccessorsVisitCounts.values()
-                .stream()
-                .mapToLong(Long::longValue)
-                .sum();
-    }
-
-    private double successorNotVisited(double successorProbability, long numVisits) {
-        return Math.pow(1-successorProbability, numVisits);
-    }
-
-    private List<Pair<Integer, Double>> getSuccessors(int state, int actionIndex) {
-        if (hasNoActions(state)) {
-            return Collections.emptyList();
+        long sum = 0;
+        for (LongIterator iterator = actionSuccessorsVisitCounts.values().iterator(); iterator.hasNext(); ) {
+            sum += iterator.nextLong();
         }
-
-        Distribution actionDistribution = getStateActions.apply(state).get(actionIndex).distribution();
-
-        List<Pair<Integer, Double>> successors = new ArrayList<>();
-
-        for (Int2DoubleMap.Entry entry : actionDistribution) {
-            Pair<Integer, Double> pair = new Pair<>(entry.getIntKey(), entry.getDoubleValue());
-            successors.add(pair);
-        }
-
-        return successors;
-    }
-
-    private boolean isInMEC(int state) {
-        return stateToMecMap.containsKey(state);
+        return sum;
     }
 
     // Checks whether the state action pair is in a MEC
-    private boolean isInMEC(int state, Action action) {
-        int mecIndex = getMECIndex(state);
-
-        if (mecIndex == -1) {
+    private static boolean isInMEC(int state, Action action, Int2IntMap stateToMecMap, List<NatBitSet> mecs) {
+        if (!stateToMecMap.containsKey(state)) {
             return false;
         }
 
-        NatBitSet mecStates = mecs.get(mecIndex);
+        NatBitSet mecStates = mecs.get(stateToMecMap.get(state));
         NatBitSet actionSuccessors = action.distribution().support();
         return mecStates.containsAll(actionSuccessors);
     }
-
-    private int getMECIndex(int state) {
-        return isInMEC(state) ? stateToMecMap.get(state) : -1;
-    }
-
-    private boolean belongsToMEC(int state, int mecIndex) {
-        return isInMEC(state) && (stateToMecMap.get(state) == mecIndex);
-    }
-
-    private boolean hasNoActions(int state) {
-        return getStateActions.apply(state).isEmpty();
-    }
-
-    private boolean notInSameMEC(int state, int succ) {
-        boolean belongsToSameMEC =  isInMEC(succ) && (getMECIndex(state) == getMECIndex(succ));
-        return !belongsToSameMEC;
-    }
-
-    private boolean notAlreadyComputed(int state) {
-        boolean alreadyComputed = computedStates.containsKey(state);
-        return !alreadyComputed;
-    }
-
-    private boolean notASinkState(int state) {
-        boolean isSink = BoundedMecQuotient.isSinkState(state);
-        return !isSink;
-    }
 }
@@ -0,0 +1,113 @@
+package de.tum.in.pet.util;
+
+/**
+ * A Fenwick tree (binary indexed tree) over non-negative weights, supporting point updates and weighted draws of an
+ * index in time logarithmic in the number of weights.
+ */
+public final class FenwickTree {
+  // Point updates change the partial sums by differences, which accumulates rounding errors. The sums are rebuilt from
+  // the exact weights after this many updates, or after as many updates as there are weights if that is more.
+  private static final int REBUILD_INTERVAL = 1024;
+
+  private final double[] weights;
+  // 1-based, tree[i] holds the sum of the weights (i - lowbit(i), i].
+  private final double[] tree;
+  private final int highestStep;
+  private int updatesSinceRebuild = 0;
+
+  /**
+   * @param weights the initial, non-negative weights. The array is copied.
+   */
+  public FenwickTree(double[] weights) {
+    assert weights.length > 0;
+    this.weights = weights.clone();
+    this.tree = new double[weights.length + 1];
+    this.highestStep = Integer.highestOneBit(weights.length);
+    rebuild();
+  }
+
+  private void rebuild() {
+    int size = weights.length;
+    System.arraycopy(weights, 0, tree, 1, size);
+    tree[0] = 0.0d;
+    for (int i = 1; i <= size; i++) {
+      int parent = i + (i & -i);
+      if (parent <= size) {
+        tree[parent] += tree[i];
+      }
+    }
+    updatesSinceRebuild = 0;
+  }
+
+  public int size() {
+    return weights.length;
+  }
+
+  public double weight(int index) {
+    return weights[index];
+  }
+
+  public double total() {
+    double sum = 0.0d;
+    for (int i = weights.length; i > 0; i -= i & -i) {
+      sum += tree[i];
+    }
+    return sum;
+  }
+
+  public void set(int index, double weight) {
+    assert weight >= 0.0d;
+    double delta = weight - weights[index];
+    if (delta == 0.0d) {
+      return;
+    }
+    weights[index] = weight;
+    updatesSinceRebuild += 1;
+    if (updatesSinceRebuild >= Math.max(REBUILD_INTERVAL, weights.length)) {
+      rebuild();
+      return;
+    }
+    for (int i = index + 1; i < tree.length; i += i & -i) {
+      tree[i] += delta;
+    }
+  }
+
+  /**
+   * Draws an index with probability proportional to its weight.
+   *
+   * @param uniform a number drawn uniformly from [0, 1).
+   * @return the sampled index, or -1 if all weights are zero.
+   */
+  public int sample(double uniform) {
+    double total = total();
+    if (total <= 0.0d) {
+      return -1;
+    }
+    // Descend to the largest prefix whose sum doesn't exceed the target, the next index is the sampled one.
+    double target = uniform * total;
+    int position = 0;
+    for (int step = highestStep; step > 0; step >>= 1) {
+      int next = position + step;
+      if (next < tree.length && tree[next] <= target) {
+        position = next;
+        target -= tree[next];
+      }
+    }
+
+    // Rounding errors of the partial sums may land on a zero weight or beyond the last index.
+    if (position < weights.length && weights[position] > 0.0d) {
+      return position;
+    }
+    for (int index = Math.min(position, weights.length - 1); index >= 0; index--) {
+      if (weights[index] > 0.0d) {
+        return index;
+      }
+    }
+    for (int index = position + 1; index < weights.length; index++) {
+      if (weights[index] > 0.0d) {
+        return index;
+      }
+    }
+    return -1;
+  }
+}
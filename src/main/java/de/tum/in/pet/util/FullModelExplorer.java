@@ -0,0 +1,285 @@
+package de.tum.in.pet.util;
+
+import de.tum.in.probmodels.explorer.Explorer;
+import de.tum.in.probmodels.model.Distribution;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import parser.State;
+import prism.ModelGenerator;
+import prism.PrismException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Explores the complete state space of a model in breadth-first order, expanding every state exactly once, and collects
+ * statistics of the model on the way. The frontier of the search is a queue of the states which have been discovered
+ * but not expanded yet, so no already expanded state is scanned again.
+ */
+public final class FullModelExplorer {
+  private static final Logger logger = Logger.getLogger(FullModelExplorer.class.getName());
+
+  // Number of frontier states a thread takes at once.
+  private static final int CHUNK_SIZE = 256;
+  // Progress is logged whenever this many further states have been expanded.
+  private static final long LOG_INTERVAL = 1_000_000L;
+
+  private FullModelExplorer() {
+  }
+
+  /**
+   * Statistics of the expanded part of a model. Probabilities of the same successor within a choice are summed up.
+   */
+  public static final class Statistics {
+    private long states = 0;
+    private long choices = 0;
+    private long transitions = 0;
+    private int maxChoices = 0;
+    private int maxSuccessors = 0;
+    private double minProbability = 1.0d;
+
+    void addState(int numChoices) {
+      states += 1;
+      choices += numChoices;
+      maxChoices = Math.max(maxChoices, numChoices);
+    }
+
+    void addChoice(int numSuccessors) {
+      transitions += numSuccessors;
+      maxSuccessors = Math.max(maxSuccessors, numSuccessors);
+    }
+
+    void addTransition(double probability) {
+      if (probability < minProbability) {
+        minProbability = probability;
+      }
+    }
+
+    void add(Statistics other) {
+      states += other.states;
+      choices += other.choices;
+      transitions += other.transitions;
+      maxChoices = Math.max(maxChoices, other.maxChoices);
+      maxSuccessors = Math.max(maxSuccessors, other.maxSuccessors);
+      minProbability = Math.min(minProbability, other.minProbability);
+    }
+
+    public long states() {
+      return states;
+    }
+
+    public long choices() {
+      return choices;
+    }
+
+    public long transitions() {
+      return transitions;
+    }
+
+    public int maxChoices() {
+      return maxChoices;
+    }
+
+    /**
+     * @return the largest number of successors of a single choice.
+     */
+    public int maxSuccessors() {
+      return maxSuccessors;
+    }
+
+    /**
+     * @return the smallest positive transition probability, i.e. pMin.
+     */
+    public double minProbability() {
+      return minProbability;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d states, %d choices, %d transitions, at most %d choices, at most %d successors, pMin %s",
+          states, choices, transitions, maxChoices, maxSuccessors, minProbability);
+    }
+  }
+
+  /**
+   * Explores all states reachable from the explored states of the explorer, so that its model is built completely. The
+   * explorer is not thread-safe, hence this runs on the calling thread.
+   */
+  public static Statistics explore(Explorer<?, ?> explorer) throws PrismException {
+    Statistics statistics = new Statistics();
+    IntArrayFIFOQueue frontier = new IntArrayFIFOQueue();
+    explorer.exploredStates().forEach((IntConsumer) frontier::enqueue);
+
+    long nextLog = LOG_INTERVAL;
+    while (!frontier.isEmpty()) {
+      int state = frontier.dequeueInt();
+      List<Distribution> choices = explorer.getChoices(state);
+      statistics.addState(choices.size());
+      for (Distribution choice : choices) {
+        statistics.addChoice(choice.size());
+        for (Int2DoubleMap.Entry entry : choice) {
+          statistics.addTransition(entry.getDoubleValue());
+          int successor = entry.getIntKey();
+          if (!explorer.isExploredState(successor)) {
+            explorer.exploreState(successor);
+            frontier.enqueue(successor);
+          }
+        }
+      }
+      if (statistics.states >= nextLog) {
+        logger.log(Level.INFO, "Explored " + statistics);
+        nextLog += LOG_INTERVAL;
+      }
+    }
+    return statistics;
+  }
+
+  /**
+   * Explores all states reachable from the initial states without building the model. The states of each breadth-first
+   * layer are expanded concurrently, one thread per generator. Generators store the state they currently explore, so
+   * every thread needs an instance of its own, all of them describing the same model.
+   */
+  public static Statistics explore(List<? extends ModelGenerator> generators) throws PrismException {
+    assert !generators.isEmpty();
+    Set<State> discovered = ConcurrentHashMap.newKeySet();
+    List<State> frontier = new ArrayList<>();
+    for (State initialState : generators.get(0).getInitialStates()) {
+      if (discovered.add(initialState)) {
+        frontier.add(initialState);
+      }
+    }
+
+    List<Worker> workers = new ArrayList<>(generators.size());
+    for (ModelGenerator generator : generators) {
+      workers.add(new Worker(generator, discovered));
+    }
+
+    Statistics statistics = new Statistics();
+    ExecutorService executor = workers.size() > 1 ? Executors.newFixedThreadPool(workers.size()) : null;
+    try {
+      long nextLog = LOG_INTERVAL;
+      while (!frontier.isEmpty()) {
+        List<State> nextFrontier = new ArrayList<>();
+        AtomicInteger cursor = new AtomicInteger();
+        if (executor == null) {
+          Worker worker = workers.get(0);
+          worker.expand(frontier, cursor);
+          nextFrontier.addAll(worker.discoveredStates);
+        } else {
+          List<Future<?>> futures = new ArrayList<>(workers.size());
+          for (Worker worker : workers) {
+            List<State> layer = frontier;
+            futures.add(executor.submit(() -> {
+              worker.expand(layer, cursor);
+              return null;
+            }));
+          }
+          await(futures);
+          for (Worker worker : workers) {
+            nextFrontier.addAll(worker.discoveredStates);
+          }
+        }
+        frontier = nextFrontier;
+
+        long states = 0;
+        for (Worker worker : workers) {
+          states += worker.statistics.states;
+        }
+        if (states >= nextLog) {
+          logger.log(Level.INFO, "Explored " + states + " states");
+          nextLog = (states / LOG_INTERVAL + 1) * LOG_INTERVAL;
+        }
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+
+    for (Worker worker : workers) {
+      statistics.add(worker.statistics);
+    }
+    return statistics;
+  }
+
+  private static void await(List<Future<?>> futures) throws PrismException {
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PrismException("Interrupted while exploring the model");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof PrismException) {
+        throw (PrismException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new PrismException(String.valueOf(cause));
+    }
+  }
+
+  private static final class Worker {
+    private final ModelGenerator generator;
+    private final Set<State> discovered;
+    private final Statistics statistics = new Statistics();
+    // The states first discovered by this worker in the current layer.
+    private final List<State> discoveredStates = new ArrayList<>();
+    // Successors of the current choice, merging transitions to the same state.
+    private final Object2DoubleOpenHashMap<State> successors = new Object2DoubleOpenHashMap<>();
+
+    Worker(ModelGenerator generator, Set<State> discovered) {
+      this.generator = generator;
+      this.discovered = discovered;
+    }
+
+    void expand(List<State> frontier, AtomicInteger cursor) throws PrismException {
+      discoveredStates.clear();
+      int size = frontier.size();
+      int start;
+      while ((start = cursor.getAndAdd(CHUNK_SIZE)) < size) {
+        int end = Math.min(size, start + CHUNK_SIZE);
+        for (int i = start; i < end; i++) {
+          expand(frontier.get(i));
+        }
+      }
+    }
+
+    private void expand(State state) throws PrismException {
+      generator.exploreState(state);
+      int numChoices = generator.getNumChoices();
+      statistics.addState(numChoices);
+      for (int choice = 0; choice < numChoices; choice++) {
+        successors.clear();
+        int numTransitions = generator.getNumTransitions(choice);
+        for (int offset = 0; offset < numTransitions; offset++) {
+          successors.addTo(generator.computeTransitionTarget(choice, offset),
+              generator.getTransitionProbability(choice, offset));
+        }
+        statistics.addChoice(successors.size());
+        for (Object2DoubleMap.Entry<State> entry : successors.object2DoubleEntrySet()) {
+          statistics.addTransition(entry.getDoubleValue());
+          State successor = entry.getKey();
+          if (discovered.add(successor)) {
+            discoveredStates.add(successor);
+          }
+        }
+      }
+    }
+  }
+}
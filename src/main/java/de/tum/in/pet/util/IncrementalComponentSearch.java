@@ -0,0 +1,120 @@
+package de.tum.in.pet.util;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.naturals.set.NatBitSets;
+import de.tum.in.probmodels.graph.ComponentAnalyser;
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.model.Model;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntLists;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Component search on a partial model which only grows by exploring states, i.e. the choices of a state never change
+ * after it has been explored. Then, every component which did not exist during the previous search contains a state
+ * explored since then. Such a component only consists of states which are reachable from and can reach newly explored
+ * states. Any path between two of these states only visits such states, so the components of the model restricted to
+ * them are exactly the components of the whole model which contain a newly explored state.
+ */
+public class IncrementalComponentSearch {
+  private final ComponentAnalyser analyser;
+  private final NatBitSet newStates = NatBitSets.set();
+
+  public IncrementalComponentSearch(ComponentAnalyser analyser) {
+    this.analyser = analyser;
+  }
+
+  /**
+   * Marks a state as newly explored. Must be called whenever a state is added to the partial model.
+   */
+  public void explored(int state) {
+    newStates.set(state);
+  }
+
+  /**
+   * Marks states as newly explored, e.g. the states which already have been explored on construction of the model.
+   */
+  public void explored(IntCollection states) {
+    newStates.addAll(states);
+  }
+
+  public boolean hasNewStates() {
+    return !newStates.isEmpty();
+  }
+
+  /**
+   * Forgets all newly explored states, e.g. after components were searched on the whole model.
+   */
+  public void clear() {
+    newStates.clear();
+  }
+
+  /**
+   * Finds the components of the model which contain a state explored since the previous search.
+   *
+   * @param model the partial model
+   * @param inModel whether a state belongs to the partial model, e.g. is explored and not collapsed
+   * @return the components containing a newly explored state
+   */
+  public List<NatBitSet> findComponents(Model model, IntPredicate inModel) {
+    NatBitSet affectedStates = affectedStates(model, inModel);
+    newStates.clear();
+    if (affectedStates.isEmpty()) {
+      return List.of();
+    }
+    return analyser.findComponents(model, affectedStates);
+  }
+
+  // Computes the states which are reachable from and can reach a newly explored state.
+  private NatBitSet affectedStates(Model model, IntPredicate inModel) {
+    NatBitSet reachable = NatBitSets.set();
+    Int2ObjectMap<IntList> predecessors = new Int2ObjectOpenHashMap<>();
+    IntArrayList stack = new IntArrayList();
+
+    for (int state : newStates) {
+      if (inModel.test(state)) {
+        reachable.set(state);
+        stack.add(state);
+      }
+    }
+    while (!stack.isEmpty()) {
+      int state = stack.popInt();
+      for (Distribution choice : model.getChoices(state)) {
+        for (int successor : choice.support()) {
+          if (!inModel.test(successor)) {
+            continue;
+          }
+          predecessors.computeIfAbsent(successor, k -> new IntArrayList()).add(state);
+          if (!reachable.contains(successor)) {
+            reachable.set(successor);
+            stack.add(successor);
+          }
+        }
+      }
+    }
+
+    // All predecessors of a reachable state within the model are reachable, too, and thus have been recorded.
+    NatBitSet affected = NatBitSets.set();
+    for (int state : newStates) {
+      if (reachable.contains(state)) {
+        affected.set(state);
+        stack.add(state);
+      }
+    }
+    while (!stack.isEmpty()) {
+      int state = stack.popInt();
+      for (int predecessor : predecessors.getOrDefault(state, IntLists.EMPTY_LIST)) {
+        if (!affected.contains(predecessor)) {
+          affected.set(predecessor);
+          stack.add(predecessor);
+        }
+      }
+    }
+    return affected;
+  }
+}
@@ -1,30 +1,18 @@
 package de.tum.in.pet.util;
 
-import de.tum.in.pet.Input.DefaultInputValues;
 import de.tum.in.pet.Main;
 import de.tum.in.pet.implementation.meanPayoff.MeanPayoffChecker;
-import de.tum.in.probmodels.explorer.Explorer;
-import de.tum.in.probmodels.explorer.Explorers;
-import de.tum.in.probmodels.explorer.InformationLevel;
-import de.tum.in.probmodels.generator.Generator;
-import de.tum.in.probmodels.generator.MdpGenerator;
-import de.tum.in.probmodels.model.Distribution;
-import de.tum.in.probmodels.model.MarkovDecisionProcess;
 import de.tum.in.probmodels.util.PrismHelper;
-import it.unimi.dsi.fastutil.ints.IntArraySet;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
-import it.unimi.dsi.fastutil.ints.IntSet;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
-import parser.State;
 import parser.ast.ModulesFile;
 import prism.*;
 import simulator.ModulesFileModelGenerator;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.function.IntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,71 +22,12 @@ public class MinProbabilityCalculator {
 
 
 
-  private static double findPMinMDP(Explorer<?, ?> explorer) {
-
-    IntSet exploredStates = new IntOpenHashSet(explorer.exploredStates());
-    IntSet newExploredStates = new IntOpenHashSet(exploredStates);
-
-    final double[] pMin = {1};
-
-    int numStates = 1000000;
-    int printCount = 1;
-    final int[] maxSuccessorsInModel = {-1};
-
-    while (newExploredStates.size()!=0) {
-
-      if (explorer.exploredStateCount() >= (printCount * numStates)) {
-        logger.log(Level.INFO, "PMin is " + pMin[0]);
-        printCount += 1;
-      }
-
-      exploredStates.forEach((IntConsumer) s -> {
-        List<Distribution> choices = explorer.getChoices(s);
-        IntSet neighbours = new IntArraySet();
-        choices.forEach(d -> {
-          neighbours.addAll(d.support());
-        });
-
-        for(Distribution choice: choices) {
-          if (choice.support().size() > maxSuccessorsInModel[0]) {
-            maxSuccessorsInModel[0] = choice.support().size();
-          }
-
-          for(int succ: choice.support()) {
-            if (choice.get(succ) < pMin[0]) {
-              pMin[0] = choice.get(succ);
-            }
-          }
-        }
-
-        for(int n: neighbours)
-          if (!explorer.isExploredState(n)){
-            try {
-              explorer.exploreState(n);
-            } catch (PrismException e) {
-              e.printStackTrace();
-            }
-          }
-      });
-
-      newExploredStates = new IntOpenHashSet(explorer.exploredStates());
-      newExploredStates.removeAll(exploredStates);
-      exploredStates = new IntOpenHashSet(explorer.exploredStates());
-    }
-
-    logger.log(Level.INFO, "Execution finished with pMin " + pMin[0]);
-    System.out.println("MaxSuccessors in model is " + maxSuccessorsInModel[0]);
-
-    return pMin[0];
-
-  }
-
-  public static double solve(ModelGenerator generator)
+  public static double solve(List<? extends ModelGenerator> generators)
           throws PrismException {
-    ModelType modelType = generator.getModelType();
+    ModelType modelType = generators.get(0).getModelType();
     switch (modelType) {
       case MDP:
-        return solveMdp(generator);
+        return solveMdp(generators);
       case CTMC:
       case DTMC:
       case LTS:
@@ -111,27 +40,28 @@ public class MinProbabilityCalculator {
     }
   }
 
-  public static double solveMdp(ModelGenerator prismGenerator){
-
-    MarkovDecisionProcess partialModel = new MarkovDecisionProcess();
-    Generator<State> generator = new MdpGenerator(prismGenerator);
-
-    var explorer = Explorers.getExplorer(partialModel, generator,
-            InformationLevel.WHITEBOX, false, System.currentTimeMillis() + DefaultInputValues.TIMEOUT);
+  // Explores the model with one thread per generator, every generator has to describe the same model.
+  public static double solveMdp(List<? extends ModelGenerator> generators) throws PrismException {
+    FullModelExplorer.Statistics statistics = FullModelExplorer.explore(generators);
 
-    return findPMinMDP(explorer);
+    logger.log(Level.INFO, "Execution finished with " + statistics);
+    System.out.println("MaxSuccessors in model is " + statistics.maxSuccessors());
 
+    return statistics.minProbability();
   }
 
   public static void main(String[] args) throws PrismException, IOException {
     Option modelOption = new Option("m", "model", true, "Path to model file");
     Option constantsOption = new Option("c", "const", true,
             "Constants of model/property file, comma separated list");
+    Option threadsOption = new Option(null, "threads", true,
+            "Number of threads exploring the model (Default: number of available processors)");
     modelOption.setRequired(true);
 
     Options options = new Options()
             .addOption(modelOption)
-            .addOption(constantsOption);
+            .addOption(constantsOption)
+            .addOption(threadsOption);
 
 
     CommandLine commandLine = CliHelper.parse(options, args);
@@ -142,9 +72,16 @@ public class MinProbabilityCalculator {
 
     Prism prism = new Prism(new PrismDevNullLog());
 
-    ModelGenerator generator = new ModulesFileModelGenerator(modulesFile, prism);
+    int threads = CliHelper.parseThreads(commandLine.getOptionValue(threadsOption.getLongOpt()),
+            Runtime.getRuntime().availableProcessors());
+
+    // Generators keep the currently explored state, so every thread gets its own.
+    List<ModelGenerator> generators = new ArrayList<>(threads);
+    for (int i = 0; i < threads; i++) {
+      generators.add(new ModulesFileModelGenerator(modulesFile, prism));
+    }
 
-    double pMin = solve(generator);
+    double pMin = solve(generators);
 
     System.out.println(pMin);
 
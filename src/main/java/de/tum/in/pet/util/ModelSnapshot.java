@@ -0,0 +1,437 @@
+package de.tum.in.pet.util;
+
+import de.tum.in.probmodels.generator.Choice;
+import de.tum.in.probmodels.generator.Generator;
+import de.tum.in.probmodels.generator.RewardGenerator;
+import it.unimi.dsi.fastutil.objects.Object2DoubleArrayMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import parser.State;
+import prism.ModelType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+import javax.annotation.Nullable;
+
+/**
+ * A model explored once and stored in a compact binary file, see {@link ModelSnapshotWriter}. The file is memory-mapped
+ * and the transitions are read from it in place, so loading a snapshot neither parses the model nor computes successors
+ * symbolically. States are numbered in the order of their discovery, starting with the initial states.
+ *
+ * <p>All values are stored big-endian, sections holding doubles are aligned to 8 bytes:</p>
+ * <ol>
+ *   <li>Header: magic, version, the fingerprint of the model as a string (see below), number of states, choices, transitions, initial states, variables, action labels,
+ *   reward structures and labels.</li>
+ *   <li>Strings, each as its length in bytes followed by its UTF-8 encoding: the model type, the variable names, the
+ *   action labels, the reward structure names and the label names, followed by the type of every variable.</li>
+ *   <li>Integers: the initial states, the first choice of every state and the first transition of every choice (both
+ *   in compressed sparse row form with a trailing end offset), the target of every transition, the action label index
+ *   of every choice (-1 if it has no label), the variable values of every state and, for every label, the number of
+ *   states satisfying it followed by these states in ascending order.</li>
+ *   <li>Doubles: the probability of every transition (the rate for continuous-time models) and, for every reward
+ *   structure, the reward of every state and every choice.</li>
+ * </ol>
+ *
+ * <p>The fingerprint identifies the model a snapshot has been written from, see {@link #fingerprint(Path, String)}, so
+ * a snapshot of a different model or different constants is detected when loading it.</p>
+ *
+ * <p>The {@link State} objects handed out are created on demand and cached, a snapshot is not thread-safe.</p>
+ */
+public final class ModelSnapshot {
+  static final int MAGIC = 0x50455453;
+  static final int VERSION = 2;
+  static final int INT_VARIABLE = 0;
+  static final int BOOLEAN_VARIABLE = 1;
+
+  private final String fingerprint;
+  private final ModelType modelType;
+  private final int numStates;
+  private final int numChoices;
+  private final String[] variableNames;
+  private final int[] variableTypes;
+  private final String[] actionLabels;
+  private final String[] rewardNames;
+  private final String[] labelNames;
+
+  private final IntBuffer initialStates;
+  private final IntBuffer stateChoiceOffsets;
+  private final IntBuffer choiceTransitionOffsets;
+  private final IntBuffer targets;
+  private final IntBuffer choiceActions;
+  private final IntBuffer variableValues;
+  private final IntBuffer[] labelStates;
+  private final DoubleBuffer probabilities;
+  private final DoubleBuffer[] stateRewards;
+  private final DoubleBuffer[] choiceRewards;
+
+  private final State[] states;
+  private final Object2IntOpenHashMap<State> stateIndices = new Object2IntOpenHashMap<>();
+  private boolean allStatesIndexed = false;
+
+  /**
+   * Thrown when a snapshot has been written from a different model than the expected one.
+   */
+  public static final class MismatchException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    MismatchException(String message) {
+      super(message);
+    }
+  }
+
+  private ModelSnapshot(ByteBuffer buffer, Path path, @Nullable String expectedFingerprint) throws IOException {
+    if (buffer.remaining() < 2 * Integer.BYTES || buffer.getInt() != MAGIC) {
+      throw new IOException(path + " is not a model snapshot");
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported version " + version + " of model snapshot " + path);
+    }
+    fingerprint = readString(buffer);
+    if (expectedFingerprint != null && !expectedFingerprint.equals(fingerprint)) {
+      throw new MismatchException("Model snapshot " + path + " has been written from a different model");
+    }
+
+    numStates = buffer.getInt();
+    numChoices = buffer.getInt();
+    int numTransitions = buffer.getInt();
+    int numInitialStates = buffer.getInt();
+    int numVariables = buffer.getInt();
+    int numActions = buffer.getInt();
+    int numRewards = buffer.getInt();
+    int numLabels = buffer.getInt();
+
+    modelType = ModelType.valueOf(readString(buffer));
+    variableNames = readStrings(buffer, numVariables);
+    actionLabels = readStrings(buffer, numActions);
+    rewardNames = readStrings(buffer, numRewards);
+    labelNames = readStrings(buffer, numLabels);
+    variableTypes = new int[numVariables];
+    buffer.asIntBuffer().get(variableTypes);
+    buffer.position(align(buffer.position() + numVariables * Integer.BYTES));
+
+    initialStates = intSection(buffer, numInitialStates);
+    stateChoiceOffsets = intSection(buffer, numStates + 1);
+    choiceTransitionOffsets = intSection(buffer, numChoices + 1);
+    targets = intSection(buffer, numTransitions);
+    choiceActions = intSection(buffer, numChoices);
+    variableValues = intSection(buffer, numStates * numVariables);
+    labelStates = new IntBuffer[numLabels];
+    for (int label = 0; label < numLabels; label++) {
+      labelStates[label] = intSection(buffer, buffer.getInt());
+    }
+    buffer.position(align(buffer.position()));
+
+    probabilities = doubleSection(buffer, numTransitions);
+    stateRewards = new DoubleBuffer[numRewards];
+    choiceRewards = new DoubleBuffer[numRewards];
+    for (int reward = 0; reward < numRewards; reward++) {
+      stateRewards[reward] = doubleSection(buffer, numStates);
+      choiceRewards[reward] = doubleSection(buffer, numChoices);
+    }
+
+    states = new State[numStates];
+    stateIndices.defaultReturnValue(-1);
+  }
+
+  /**
+   * Maps the snapshot file into memory. The mapping stays valid until the snapshot is garbage collected.
+   */
+  public static ModelSnapshot load(Path path) throws IOException {
+    return load(path, null);
+  }
+
+  /**
+   * Maps the snapshot file into memory, checking that it has been written from the model with the given fingerprint.
+   *
+   * @throws MismatchException if the snapshot has a different fingerprint.
+   */
+  public static ModelSnapshot load(Path path, @Nullable String expectedFingerprint) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Model snapshot " + path + " is too large to be mapped");
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      return new ModelSnapshot(buffer, path, expectedFingerprint);
+    }
+  }
+
+  /**
+   * Identifies a model by the location and the contents of its file and the values of the undefined constants.
+   */
+  public static String fingerprint(Path modelFile, @Nullable String constants) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError("SHA-256 is supported by every Java platform", e);
+    }
+    digest.update(modelFile.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    digest.update(Files.readAllBytes(modelFile));
+    digest.update((byte) 0);
+    digest.update((constants == null ? "" : constants).getBytes(StandardCharsets.UTF_8));
+
+    StringBuilder hex = new StringBuilder();
+    for (byte value : digest.digest()) {
+      hex.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  static int align(int position) {
+    return (position + Double.BYTES - 1) & -Double.BYTES;
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static String[] readStrings(ByteBuffer buffer, int count) {
+    String[] strings = new String[count];
+    for (int i = 0; i < count; i++) {
+      strings[i] = readString(buffer);
+    }
+    return strings;
+  }
+
+  private static IntBuffer intSection(ByteBuffer buffer, int count) {
+    ByteBuffer section = buffer.slice();
+    section.limit(count * Integer.BYTES);
+    buffer.position(buffer.position() + count * Integer.BYTES);
+    return section.asIntBuffer();
+  }
+
+  private static DoubleBuffer doubleSection(ByteBuffer buffer, int count) {
+    ByteBuffer section = buffer.slice();
+    section.limit(count * Double.BYTES);
+    buffer.position(buffer.position() + count * Double.BYTES);
+    return section.asDoubleBuffer();
+  }
+
+  public String fingerprint() {
+    return fingerprint;
+  }
+
+  public ModelType modelType() {
+    return modelType;
+  }
+
+  public int numStates() {
+    return numStates;
+  }
+
+  public int numChoices() {
+    return numChoices;
+  }
+
+  public List<String> variableNames() {
+    return List.of(variableNames);
+  }
+
+  public List<String> rewardStructNames() {
+    return List.of(rewardNames);
+  }
+
+  /**
+   * @return the index of the reward structure, or -1 if there is none with this name.
+   */
+  public int rewardStructIndex(String name) {
+    return Arrays.asList(rewardNames).indexOf(name);
+  }
+
+  public int[] initialStates() {
+    int[] initial = new int[initialStates.limit()];
+    initialStates.duplicate().get(initial);
+    return initial;
+  }
+
+  public int firstChoice(int state) {
+    return stateChoiceOffsets.get(state);
+  }
+
+  /**
+   * @return the index after the last choice of the state.
+   */
+  public int choiceEnd(int state) {
+    return stateChoiceOffsets.get(state + 1);
+  }
+
+  public int firstTransition(int choice) {
+    return choiceTransitionOffsets.get(choice);
+  }
+
+  /**
+   * @return the index after the last transition of the choice.
+   */
+  public int transitionEnd(int choice) {
+    return choiceTransitionOffsets.get(choice + 1);
+  }
+
+  public int target(int transition) {
+    return targets.get(transition);
+  }
+
+  public double probability(int transition) {
+    return probabilities.get(transition);
+  }
+
+  @Nullable
+  public String actionLabel(int choice) {
+    int action = choiceActions.get(choice);
+    return action == -1 ? null : actionLabels[action];
+  }
+
+  /**
+   * @return the states satisfying the label of the model.
+   * @throws IllegalArgumentException if the model has no label with this name.
+   */
+  public IntPredicate label(String name) {
+    int label = Arrays.asList(labelNames).indexOf(name);
+    if (label == -1) {
+      throw new IllegalArgumentException("Label " + name + " not found in the snapshot");
+    }
+    IntBuffer satisfying = labelStates[label];
+    return state -> {
+      int low = 0;
+      int high = satisfying.limit() - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int value = satisfying.get(middle);
+        if (value < state) {
+          low = middle + 1;
+        } else if (value > state) {
+          high = middle - 1;
+        } else {
+          return true;
+        }
+      }
+      return false;
+    };
+  }
+
+  public State state(int index) {
+    State state = states[index];
+    if (state == null) {
+      int numVariables = variableTypes.length;
+      state = new State(numVariables);
+      int offset = index * numVariables;
+      for (int variable = 0; variable < numVariables; variable++) {
+        int value = variableValues.get(offset + variable);
+        state.setValue(variable, variableTypes[variable] == BOOLEAN_VARIABLE ? (Object) (value != 0) : value);
+      }
+      states[index] = state;
+      stateIndices.put(state, index);
+    }
+    return state;
+  }
+
+  /**
+   * @return the index of the state.
+   * @throws IllegalArgumentException if the state is not part of the snapshot.
+   */
+  public int stateIndex(State state) {
+    int index = stateIndices.getInt(state);
+    if (index == -1 && !allStatesIndexed) {
+      // The state has not been handed out by this snapshot, so every state is created once to find it.
+      for (int i = 0; i < numStates; i++) {
+        state(i);
+      }
+      allStatesIndexed = true;
+      index = stateIndices.getInt(state);
+    }
+    if (index == -1) {
+      throw new IllegalArgumentException("State " + state + " is not part of the snapshot");
+    }
+    return index;
+  }
+
+  /**
+   * @return a generator of the stored model, which can replace the generator of the original model in the explorers.
+   */
+  public Generator<State> generator() {
+    return new SnapshotGenerator();
+  }
+
+  /**
+   * @return the rewards of the given reward structure. The reward of a transition is the reward of the first choice of
+   * the state with the given action label.
+   */
+  public RewardGenerator<State> rewardGenerator(int rewardIndex) {
+    return new SnapshotRewardGenerator(stateRewards[rewardIndex], choiceRewards[rewardIndex]);
+  }
+
+  private final class SnapshotGenerator implements Generator<State> {
+    @Override
+    public Collection<State> initialStates() {
+      int numInitialStates = initialStates.limit();
+      List<State> initial = new ArrayList<>(numInitialStates);
+      for (int i = 0; i < numInitialStates; i++) {
+        initial.add(state(initialStates.get(i)));
+      }
+      return initial;
+    }
+
+    @Override
+    public List<Choice<State>> choices(State state) {
+      int index = stateIndex(state);
+      int end = choiceEnd(index);
+      List<Choice<State>> choices = new ArrayList<>(end - firstChoice(index));
+      for (int choice = firstChoice(index); choice < end; choice++) {
+        int transitionEnd = transitionEnd(choice);
+        Object2DoubleMap<State> transitions = new Object2DoubleArrayMap<>(transitionEnd - firstTransition(choice));
+        for (int transition = firstTransition(choice); transition < transitionEnd; transition++) {
+          transitions.put(state(target(transition)), probability(transition));
+        }
+        choices.add(Choice.of(actionLabel(choice), transitions));
+      }
+      return choices;
+    }
+  }
+
+  private final class SnapshotRewardGenerator implements RewardGenerator<State> {
+    private final DoubleBuffer stateRewards;
+    private final DoubleBuffer choiceRewards;
+
+    SnapshotRewardGenerator(DoubleBuffer stateRewards, DoubleBuffer choiceRewards) {
+      this.stateRewards = stateRewards;
+      this.choiceRewards = choiceRewards;
+    }
+
+    @Override
+    public double stateReward(State state) {
+      return stateRewards.get(stateIndex(state));
+    }
+
+    @Override
+    public double transitionReward(State state, Object label) {
+      int index = stateIndex(state);
+      int end = choiceEnd(index);
+      for (int choice = firstChoice(index); choice < end; choice++) {
+        if (Objects.equals(label, actionLabel(choice))) {
+          return choiceRewards.get(choice);
+        }
+      }
+      return 0.0d;
+    }
+  }
+}
@@ -0,0 +1,267 @@
+package de.tum.in.pet.util;
+
+import de.tum.in.pet.Main;
+import de.tum.in.probmodels.util.PrismHelper;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.Int2DoubleLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import parser.State;
+import prism.ModelGenerator;
+import prism.Prism;
+import prism.PrismDevNullLog;
+import prism.PrismException;
+import simulator.ModulesFileModelGenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Explores all reachable states of a model and stores them in the binary format read by {@link ModelSnapshot}. The
+ * states are explored in the order of their discovery, like the model constructors do, and transitions of a choice to
+ * the same successor are merged.
+ */
+public final class ModelSnapshotWriter {
+  private static final Logger logger = Logger.getLogger(ModelSnapshotWriter.class.getName());
+
+  private ModelSnapshotWriter() {
+  }
+
+  /**
+   * Writes the snapshot to a temporary file next to the path first, which is moved to the path once it is complete.
+   * An interrupted or failed write therefore never leaves a partial snapshot behind.
+   *
+   * @param fingerprint the fingerprint of the model, see {@link ModelSnapshot#fingerprint(Path, String)}.
+   */
+  public static void write(ModelGenerator generator, Path path, String fingerprint)
+      throws PrismException, IOException {
+    ReachableStateIndex stateIndex = new ReachableStateIndex(generator);
+    List<String> variableNames = generator.getVarNames();
+    int numVariables = variableNames.size();
+    int numRewards = generator.getNumRewardStructs();
+    int numLabels = generator.getNumLabels();
+
+    IntArrayList stateChoiceOffsets = new IntArrayList();
+    IntArrayList choiceTransitionOffsets = new IntArrayList();
+    IntArrayList targets = new IntArrayList();
+    DoubleArrayList probabilities = new DoubleArrayList();
+    IntArrayList choiceActions = new IntArrayList();
+    IntArrayList variableValues = new IntArrayList();
+    int[] variableTypes = new int[numVariables];
+    List<String> actionLabels = new ArrayList<>();
+    Object2IntOpenHashMap<String> actionIndices = new Object2IntOpenHashMap<>();
+    actionIndices.defaultReturnValue(-1);
+    DoubleArrayList[] stateRewards = new DoubleArrayList[numRewards];
+    DoubleArrayList[] choiceRewards = new DoubleArrayList[numRewards];
+    for (int reward = 0; reward < numRewards; reward++) {
+      stateRewards[reward] = new DoubleArrayList();
+      choiceRewards[reward] = new DoubleArrayList();
+    }
+    IntArrayList[] labelStates = new IntArrayList[numLabels];
+    for (int label = 0; label < numLabels; label++) {
+      labelStates[label] = new IntArrayList();
+    }
+    // Successors of the current choice by their index, keeping the order of the generator.
+    Int2DoubleLinkedOpenHashMap successors = new Int2DoubleLinkedOpenHashMap();
+
+    // The index grows while exploring, so every discovered state is explored eventually.
+    for (int state = 0; state < stateIndex.size(); state++) {
+      State stateObject = stateIndex.getState(state);
+      generator.exploreState(stateObject);
+
+      for (int variable = 0; variable < numVariables; variable++) {
+        Object value = stateObject.varValues[variable];
+        int type = value instanceof Boolean ? ModelSnapshot.BOOLEAN_VARIABLE : ModelSnapshot.INT_VARIABLE;
+        if (state == 0) {
+          variableTypes[variable] = type;
+        }
+        if (!(value instanceof Boolean || value instanceof Integer) || variableTypes[variable] != type) {
+          throw new PrismException("Unsupported value " + value + " of variable " + variableNames.get(variable));
+        }
+        variableValues.add(value instanceof Boolean ? ((Boolean) value ? 1 : 0) : (Integer) value);
+      }
+      for (int reward = 0; reward < numRewards; reward++) {
+        stateRewards[reward].add(generator.getStateReward(reward, stateObject));
+      }
+      for (int label = 0; label < numLabels; label++) {
+        if (generator.isLabelTrue(label)) {
+          labelStates[label].add(state);
+        }
+      }
+
+      stateChoiceOffsets.add(choiceActions.size());
+      int numChoices = generator.getNumChoices();
+      for (int choice = 0; choice < numChoices; choice++) {
+        String action = generator.getTransitionAction(choice);
+        if (action == null) {
+          choiceActions.add(-1);
+        } else {
+          int actionIndex = actionIndices.getInt(action);
+          if (actionIndex == -1) {
+            actionIndex = actionLabels.size();
+            actionIndices.put(action, actionIndex);
+            actionLabels.add(action);
+          }
+          choiceActions.add(actionIndex);
+        }
+        for (int reward = 0; reward < numRewards; reward++) {
+          choiceRewards[reward].add(generator.getStateActionReward(reward, stateObject, action));
+        }
+
+        successors.clear();
+        int numTransitions = generator.getNumTransitions(choice);
+        for (int transition = 0; transition < numTransitions; transition++) {
+          successors.addTo(stateIndex.index(generator.computeTransitionTarget(choice, transition)),
+              generator.getTransitionProbability(choice, transition));
+        }
+        choiceTransitionOffsets.add(targets.size());
+        for (Int2DoubleMap.Entry entry : successors.int2DoubleEntrySet()) {
+          targets.add(entry.getIntKey());
+          probabilities.add(entry.getDoubleValue());
+        }
+      }
+    }
+    stateChoiceOffsets.add(choiceActions.size());
+    choiceTransitionOffsets.add(targets.size());
+
+    IntArrayList initialStates = new IntArrayList();
+    for (State initialState : generator.getInitialStates()) {
+      initialStates.add(stateIndex.getIndex(initialState));
+    }
+
+    Path parent = path.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temporary = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+    boolean written = false;
+    try {
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary),
+          1 << 20))) {
+        output.writeInt(ModelSnapshot.MAGIC);
+        output.writeInt(ModelSnapshot.VERSION);
+        writeString(output, fingerprint);
+        output.writeInt(stateIndex.size());
+        output.writeInt(choiceActions.size());
+        output.writeInt(targets.size());
+        output.writeInt(initialStates.size());
+        output.writeInt(numVariables);
+        output.writeInt(actionLabels.size());
+        output.writeInt(numRewards);
+        output.writeInt(numLabels);
+
+        writeString(output, generator.getModelType().name());
+        for (String variableName : variableNames) {
+          writeString(output, variableName);
+        }
+        for (String actionLabel : actionLabels) {
+          writeString(output, actionLabel);
+        }
+        for (String rewardName : generator.getRewardStructNames()) {
+          writeString(output, rewardName == null ? "" : rewardName);
+        }
+        for (int label = 0; label < numLabels; label++) {
+          writeString(output, generator.getLabelName(label));
+        }
+        for (int variableType : variableTypes) {
+          output.writeInt(variableType);
+        }
+        pad(output);
+
+        writeInts(output, initialStates);
+        writeInts(output, stateChoiceOffsets);
+        writeInts(output, choiceTransitionOffsets);
+        writeInts(output, targets);
+        writeInts(output, choiceActions);
+        writeInts(output, variableValues);
+        for (IntArrayList states : labelStates) {
+          output.writeInt(states.size());
+          writeInts(output, states);
+        }
+        pad(output);
+
+        writeDoubles(output, probabilities);
+        for (int reward = 0; reward < numRewards; reward++) {
+          writeDoubles(output, stateRewards[reward]);
+          writeDoubles(output, choiceRewards[reward]);
+        }
+
+        // The counter of the stream saturates, which is exactly the limit of a single mapping.
+        if (output.size() == Integer.MAX_VALUE) {
+          throw new IOException("Model snapshot " + path + " exceeds the maximal size of 2 GiB");
+        }
+      }
+      Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+      written = true;
+    } finally {
+      if (!written) {
+        Files.deleteIfExists(temporary);
+      }
+    }
+    logger.log(Level.INFO, "Wrote snapshot with {0} states, {1} choices and {2} transitions to {3}",
+        new Object[] {stateIndex.size(), choiceActions.size(), targets.size(), path});
+  }
+
+  private static void writeString(DataOutputStream output, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static void writeInts(DataOutputStream output, IntArrayList values) throws IOException {
+    int size = values.size();
+    for (int i = 0; i < size; i++) {
+      output.writeInt(values.getInt(i));
+    }
+  }
+
+  private static void writeDoubles(DataOutputStream output, DoubleArrayList values) throws IOException {
+    int size = values.size();
+    for (int i = 0; i < size; i++) {
+      output.writeDouble(values.getDouble(i));
+    }
+  }
+
+  private static void pad(DataOutputStream output) throws IOException {
+    int padding = ModelSnapshot.align(output.size()) - output.size();
+    for (int i = 0; i < padding; i++) {
+      output.writeByte(0);
+    }
+  }
+
+  public static void main(String[] args) throws PrismException, IOException {
+    Option modelOption = new Option("m", "model", true, "Path to model file");
+    Option constantsOption = new Option("c", "const", true,
+        "Constants of model/property file, comma separated list");
+    Option outputOption = new Option("o", "outputPath", true, "Path to write the snapshot");
+    modelOption.setRequired(true);
+    outputOption.setRequired(true);
+
+    Options options = new Options()
+        .addOption(modelOption)
+        .addOption(constantsOption)
+        .addOption(outputOption);
+
+    CommandLine commandLine = CliHelper.parse(options, args);
+
+    PrismHelper.PrismParseResult parse = Main.parse(commandLine, modelOption, null, constantsOption);
+    ModulesFileModelGenerator generator =
+        new ModulesFileModelGenerator(parse.modulesFile(), new Prism(new PrismDevNullLog()));
+
+    Path modelPath = Path.of(commandLine.getOptionValue(modelOption.getLongOpt()));
+    String constants = commandLine.getOptionValue(constantsOption.getLongOpt());
+    write(generator, Path.of(commandLine.getOptionValue(outputOption.getLongOpt())),
+        ModelSnapshot.fingerprint(modelPath, constants));
+  }
+}
@@ -0,0 +1,65 @@
+package de.tum.in.pet.util;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import parser.State;
+import prism.ModelGenerator;
+import prism.PrismException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Assigns indices to the states of a model in the order of their discovery, starting with the initial states. A model
+ * is built by exploring the states in index order and indexing every transition target on the way, which visits
+ * exactly the reachable states instead of all valuations of the variables. Each lookup is a hash map access.
+ */
+public final class ReachableStateIndex {
+  private final Object2IntOpenHashMap<State> indices = new Object2IntOpenHashMap<>();
+  private final List<State> states = new ArrayList<>();
+
+  public ReachableStateIndex(ModelGenerator generator) throws PrismException {
+    indices.defaultReturnValue(-1);
+    for (State initialState : generator.getInitialStates()) {
+      index(initialState);
+    }
+  }
+
+  /**
+   * @return the index of the state, assigning the next free index if the state hasn't been discovered yet.
+   */
+  public int index(State state) {
+    int index = indices.getInt(state);
+    if (index == -1) {
+      index = states.size();
+      indices.put(state, index);
+      states.add(state);
+    }
+    return index;
+  }
+
+  /**
+   * @return the index of the state, or -1 if it hasn't been discovered.
+   */
+  public int getIndex(State state) {
+    return indices.getInt(state);
+  }
+
+  public State getState(int index) {
+    return states.get(index);
+  }
+
+  /**
+   * @return the number of states discovered so far.
+   */
+  public int size() {
+    return states.size();
+  }
+
+  /**
+   * @return the discovered states, ordered by their index.
+   */
+  public List<State> states() {
+    return Collections.unmodifiableList(states);
+  }
+}
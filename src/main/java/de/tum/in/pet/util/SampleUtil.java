@@ -3,6 +3,7 @@ package de.tum.in.pet.util;
 import static de.tum.in.probmodels.util.Util.isEqual;
 import static de.tum.in.probmodels.util.Util.isZero;
 
+import com.google.common.collect.MapMaker;
 import de.tum.in.pet.sampler.SuccessorHeuristic;
 import de.tum.in.probmodels.model.Distribution;
 import de.tum.in.probmodels.util.Sample;
@@ -10,41 +11,244 @@ import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.IntToDoubleFunction;
-import java.util.function.ToDoubleFunction;
+import javax.annotation.Nullable;
 
 public final class SampleUtil {
+  // Distributions with at least this many successors are sampled by an alias table, smaller ones by a linear scan.
+  private static final int ALIAS_TABLE_MIN_SIZE = 16;
+
+  // Alias tables of the sampled distributions, built on the first sample. Distributions are immutable, so the tables
+  // are valid as long as the distribution exists. Keys are compared by identity and weakly referenced.
+  private static final Map<Distribution, AliasTable> aliasTables = new MapMaker().weakKeys().makeMap();
+
+  // Scratch buffers of the sampling functions, one set per thread as several simulators may sample concurrently.
+  private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
   private SampleUtil() {
   }
 
+  private static final class Scratch implements Distribution.IntDoubleConsumer {
+    // Maps are cleared before use, but shrunk if an earlier sample made them larger than this.
+    private static final int MAP_CAPACITY = 1024;
+
+    double[] actionScores = new double[16];
+    int[] bestActions = new int[16];
+    final Int2DoubleOpenHashMap successorWeights = new Int2DoubleOpenHashMap();
+    final LinearSampler linearSampler = new LinearSampler();
+    final WeightedSampler weightedSampler = new WeightedSampler();
+
+    // State of the consumer merging the successors of a choice into successorWeights.
+    IntToDoubleFunction successorScore;
+    boolean weighted;
+
+    Scratch() {
+      successorWeights.defaultReturnValue(Double.NEGATIVE_INFINITY);
+    }
+
+    double[] actionScores(int choiceCount) {
+      if (actionScores.length < choiceCount) {
+        actionScores = new double[Math.max(choiceCount, 2 * actionScores.length)];
+      }
+      return actionScores;
+    }
+
+    int[] bestActions(int choiceCount) {
+      if (bestActions.length < choiceCount) {
+        bestActions = new int[Math.max(choiceCount, 2 * bestActions.length)];
+      }
+      return bestActions;
+    }
+
+    Int2DoubleMap mergeSuccessors(List<Distribution> choices, IntToDoubleFunction successorScore, boolean weighted) {
+      successorWeights.clear();
+      successorWeights.trim(MAP_CAPACITY);
+      this.successorScore = successorScore;
+      this.weighted = weighted;
+      for (Distribution choice : choices) {
+        choice.forEach(this);
+      }
+      this.successorScore = null;
+      return successorWeights;
+    }
+
+    @Override
+    public void accept(int successor, double probability) {
+      double weight = weighted
+          ? successorScore.applyAsDouble(successor) * probability
+          : successorScore.applyAsDouble(successor);
+      if (weight > successorWeights.get(successor)) {
+        successorWeights.put(successor, weight);
+      }
+    }
+  }
+
+  // Finds the successor whose interval of the cumulative probabilities contains the target. Distributions can only be
+  // traversed completely by forEach, so the successors after the sampled one are skipped.
+  private static final class LinearSampler implements Distribution.IntDoubleConsumer {
+    double target;
+    double sum;
+    int successor;
+    boolean found;
+
+    int sample(Distribution distribution, double target) {
+      this.target = target;
+      sum = 0.0d;
+      successor = -1;
+      found = false;
+      distribution.forEach(this);
+      return successor;
+    }
+
+    @Override
+    public void accept(int successor, double probability) {
+      if (found) {
+        return;
+      }
+      this.successor = successor;
+      sum += probability;
+      found = target < sum;
+    }
+  }
+
+  // Samples a successor weighted by its score, or by its probability times its score, in two passes over the
+  // successors. The first one sums up the weights, the second one finds the successor whose interval of the cumulative
+  // weights contains the target.
+  private static final class WeightedSampler implements Distribution.IntDoubleConsumer {
+    IntToDoubleFunction successorScore;
+    boolean weighted;
+    boolean summing;
+    double prefix;
+    double target;
+    int successor;
+
+    int sample(Distribution distribution, IntToDoubleFunction successorScore, boolean weighted, double uniform) {
+      this.successorScore = successorScore;
+      this.weighted = weighted;
+      summing = true;
+      prefix = 0.0d;
+      distribution.forEach(this);
+      successor = -1;
+      if (prefix > 0.0d) {
+        summing = false;
+        target = uniform * prefix;
+        prefix = 0.0d;
+        distribution.forEach(this);
+      }
+      this.successorScore = null;
+      return successor;
+    }
+
+    @Override
+    public void accept(int successor, double probability) {
+      double weight = weighted
+          ? probability * successorScore.applyAsDouble(successor)
+          : successorScore.applyAsDouble(successor);
+      // The last successor starting at or before the target contains it, or is the last one if rounding moved the
+      // target past the total.
+      if (!summing && weight > 0.0d && prefix <= target) {
+        this.successor = successor;
+      }
+      prefix += weight;
+    }
+  }
+
+  private static int sampleWeighted(Distribution distribution, IntToDoubleFunction successorScore,
+      boolean weighted) {
+    return scratch.get().weightedSampler.sample(distribution, successorScore, weighted,
+        ThreadLocalRandom.current().nextDouble());
+  }
+
+  /**
+   * Samples a successor of the distribution according to its probabilities, in constant time for large
+   * distributions.
+   *
+   * @param uniform a number drawn uniformly from [0, 1), e.g. by the random source of the caller.
+   * @return the sampled successor, or -1 if the distribution is empty.
+   */
+  public static int sample(Distribution distribution, double uniform) {
+    if (distribution.isEmpty()) {
+      return -1;
+    }
+    if (distribution.size() >= ALIAS_TABLE_MIN_SIZE) {
+      return aliasTables.computeIfAbsent(distribution, AliasTable::of).sample(uniform);
+    }
+    return scratch.get().linearSampler.sample(distribution, uniform);
+  }
+
   public static int sampleNextState(List<Distribution> choices, SuccessorHeuristic heuristic,
-      ToDoubleFunction<Integer> actionScore, IntToDoubleFunction successorScore) {
+      IntToDoubleFunction actionScore, IntToDoubleFunction successorScore) {
+    return sampleNextState(choices, heuristic, actionScore, successorScore, null);
+  }
+
+  /**
+   * @param successorWeights if not null, samples the successor of the chosen action for the WEIGHTED and DIFFERENCE
+   *     heuristics. It has to weight the successors by successorScore as the heuristic does.
+   */
+  public static int sampleNextState(List<Distribution> choices, SuccessorHeuristic heuristic,
+      IntToDoubleFunction actionScore, IntToDoubleFunction successorScore,
+      @Nullable SuccessorWeights successorWeights) {
     if (choices.isEmpty()) {
       return -1;
     }
+    if (isGraphHeuristic(heuristic)) {
+      return sampleGraphSuccessor(choices, heuristic, successorScore);
+    }
+    return sampleSuccessor(choices, getOptimalChoice(choices, actionScore), heuristic, successorScore,
+        successorWeights);
+  }
 
+  /**
+   * Like {@link #sampleNextState(List, SuccessorHeuristic, IntToDoubleFunction, IntToDoubleFunction,
+   * SuccessorWeights)}, but with the scores of the choices computed by the caller, e.g. into the array returned by
+   * {@link #actionScores(int)}. This way, callers need no score function capturing the choices.
+   *
+   * @param actionScores the scores of the choices. They are not read for a single choice, and may be null for the
+   *     GRAPH heuristics.
+   */
+  public static int sampleNextState(List<Distribution> choices, SuccessorHeuristic heuristic,
+      @Nullable double[] actionScores, IntToDoubleFunction successorScore, @Nullable SuccessorWeights successorWeights) {
+    if (choices.isEmpty()) {
+      return -1;
+    }
+    if (isGraphHeuristic(heuristic)) {
+      return sampleGraphSuccessor(choices, heuristic, successorScore);
+    }
+    assert actionScores != null;
+    return sampleSuccessor(choices, getOptimalChoice(actionScores, choices.size()), heuristic, successorScore,
+        successorWeights);
+  }
+
+  /**
+   * @return whether the heuristic samples the successor directly, without choosing an action first.
+   */
+  public static boolean isGraphHeuristic(SuccessorHeuristic heuristic) {
+    return heuristic == SuccessorHeuristic.GRAPH_WEIGHTED || heuristic == SuccessorHeuristic.GRAPH_DIFFERENCE;
+  }
+
+  private static int sampleGraphSuccessor(List<Distribution> choices, SuccessorHeuristic heuristic,
+      IntToDoubleFunction successorScore) {
     if (heuristic == SuccessorHeuristic.GRAPH_WEIGHTED) {
       if (choices.size() == 1) {
-        Distribution distribution = choices.get(0);
-        return distribution.sampleWeighted((s, p) -> p * successorScore.applyAsDouble(s));
+        return sampleWeighted(choices.get(0), successorScore, true);
       }
-      Int2DoubleMap map = new Int2DoubleOpenHashMap();
-      choices.forEach(choice -> choice.forEach((s, p) ->
-          map.merge(s, successorScore.applyAsDouble(s) * p, Double::max)));
-      return Sample.sample(map);
+      // The maximal weight of every successor over all choices.
+      return Sample.sample(scratch.get().mergeSuccessors(choices, successorScore, true));
     }
     if (heuristic == SuccessorHeuristic.GRAPH_DIFFERENCE) {
       if (choices.size() == 1) {
-        Distribution distribution = choices.get(0);
-        return distribution.sampleWeighted((s, p) -> successorScore.applyAsDouble(s));
+        return sampleWeighted(choices.get(0), successorScore, false);
       }
-      Int2DoubleMap map = new Int2DoubleOpenHashMap();
-      choices.forEach(choice -> choice.forEach((s, p) ->
-          map.merge(s, successorScore.applyAsDouble(s), Double::max)));
-      return Sample.sample(map);
+      return Sample.sample(scratch.get().mergeSuccessors(choices, successorScore, false));
     }
+    throw new AssertionError();
+  }
 
-    int distributionIndex = getOptimalChoice(choices, actionScore);
+  private static int sampleSuccessor(List<Distribution> choices, int distributionIndex,
+      SuccessorHeuristic heuristic, IntToDoubleFunction successorScore,
+      @Nullable SuccessorWeights successorWeights) {
     if (distributionIndex == -1) {
       return -1;
     }
@@ -59,34 +263,57 @@ public final class SampleUtil {
     // Selected the action, now sample the successor
     switch (heuristic) {
       case PROB:
-        return distribution.sample();
+        return sample(distribution, ThreadLocalRandom.current().nextDouble());
       case WEIGHTED:
-        return distribution.sampleWeighted((s, p) -> p * successorScore.applyAsDouble(s));
+        return successorWeights == null
+            ? sampleWeighted(distribution, successorScore, true)
+            : successorWeights.sample(distribution, ThreadLocalRandom.current().nextDouble());
       case DIFFERENCE:
-        return distribution.sampleWeighted((s, p) -> successorScore.applyAsDouble(s));
+        return successorWeights == null
+            ? sampleWeighted(distribution, successorScore, false)
+            : successorWeights.sample(distribution, ThreadLocalRandom.current().nextDouble());
       default:
         throw new AssertionError();
     }
   }
 
-  public static int getOptimalChoice(List<Distribution> choices,
-      ToDoubleFunction<Integer> score) {
+  /**
+   * @return a buffer for the scores of at least choiceCount choices, to be passed to
+   *     {@link #getOptimalChoice(double[], int)}. The buffer belongs to the calling thread and is reused by the next
+   *     call.
+   */
+  public static double[] actionScores(int choiceCount) {
+    return scratch.get().actionScores(choiceCount);
+  }
+
+  public static int getOptimalChoice(List<Distribution> choices, IntToDoubleFunction score) {
     int choiceCount = choices.size();
     if (choiceCount == 1) {
       return 0;
     }
 
-    int maximalBestActions = 0;
+    double[] actionScores = actionScores(choiceCount);
+    for (int choice = 0; choice < choiceCount; choice++) {
+      actionScores[choice] = score.applyAsDouble(choice);
+    }
+    return getOptimalChoice(actionScores, choiceCount);
+  }
+
+  /**
+   * Samples uniformly among the choices with the best score.
+   *
+   * @param actionScores the scores of the choices, only the first choiceCount entries are read.
+   * @return the index of the sampled choice, or -1 if the best score is zero.
+   */
+  public static int getOptimalChoice(double[] actionScores, int choiceCount) {
+    if (choiceCount == 1) {
+      return 0;
+    }
+
     double bestValue = Double.NEGATIVE_INFINITY;
-    double[] actionUpperBounds = new double[choiceCount];
     for (int choice = 0; choice < choiceCount; choice++) {
-      double upperBound = score.applyAsDouble(choice);
-      actionUpperBounds[choice] = upperBound;
-      if (upperBound > bestValue) {
-        maximalBestActions = isEqual(upperBound, bestValue) ? maximalBestActions + 1 : 1;
-        bestValue = upperBound;
-      } else if (isEqual(upperBound, bestValue)) {
-        maximalBestActions += 1;
+      if (actionScores[choice] > bestValue) {
+        bestValue = actionScores[choice];
       }
     }
 
@@ -95,11 +322,11 @@ public final class SampleUtil {
       return -1;
     }
 
-    // maximalBestActions was an upper bound on the amount, compute precisely now
+    // The scratch array holds all choices, so the best ones can be collected without counting them first
     int bestActionCount = 0;
-    int[] bestActions = new int[maximalBestActions];
+    int[] bestActions = scratch.get().bestActions(choiceCount);
     for (int choice = 0; choice < choiceCount; choice++) {
-      if (isEqual(bestValue, actionUpperBounds[choice])) {
+      if (isEqual(bestValue, actionScores[choice])) {
         bestActions[bestActionCount] = choice;
         bestActionCount += 1;
       }
@@ -107,9 +334,6 @@ public final class SampleUtil {
 
     // There has to be a witness for the bestValue
     assert bestActionCount > 0;
-    int distributionIndex = Sample.sampleUniform(bestActions, bestActionCount);
-    assert isEqual(bestValue, score.applyAsDouble(distributionIndex));
-
-    return distributionIndex;
+    return Sample.sampleUniform(bestActions, bestActionCount);
   }
 }
@@ -0,0 +1,195 @@
+package de.tum.in.pet.util;
+
+import com.google.common.collect.MapMaker;
+import de.tum.in.probmodels.model.Distribution;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectList;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Samples successors of distributions weighted by a score which changes over time, as done by the WEIGHTED
+ * (probability times score) and DIFFERENCE (score only) successor heuristics. The weights of a large distribution are
+ * kept in a {@link FenwickTree}, built on its first sample, so that draws and updates take logarithmic time instead of
+ * a pass over the whole support. The owner of the score has to report every change through {@link #scoreChanged(int)}.
+ *
+ * <p>Trees are dropped together with their distribution, e.g. when collapsing a MEC replaces the choices of its states,
+ * so scores are only propagated to the trees of distributions which are still in use. Not thread-safe.</p>
+ */
+public final class SuccessorWeights {
+  // Smaller distributions are sampled by a linear scan.
+  private static final int MIN_TREE_SIZE = 16;
+
+  private final IntToDoubleFunction score;
+  private final boolean weighted;
+  // Distributions are immutable, so a tree stays valid as long as the scores of the successors are reported. The keys
+  // are weak and compared by identity.
+  private final Map<Distribution, WeightTree> trees = new MapMaker().weakKeys().makeMap();
+  // The trees every state is a successor in.
+  private final Int2ObjectMap<ObjectList<WeightTree>> occurrences = new Int2ObjectOpenHashMap<>();
+  // Trees whose distribution has been garbage collected, which still have to be removed from the occurrences.
+  private final ReferenceQueue<Distribution> discarded = new ReferenceQueue<>();
+  private final LinearSampler linearSampler = new LinearSampler();
+
+  private static final class WeightTree extends WeakReference<Distribution> {
+    // Sorted, so that the position of a successor can be found by binary search.
+    final int[] successors;
+    final double[] probabilities;
+    final FenwickTree weights;
+
+    WeightTree(Distribution distribution, ReferenceQueue<Distribution> queue, int[] successors,
+        double[] probabilities, double[] weights) {
+      super(distribution, queue);
+      this.successors = successors;
+      this.probabilities = probabilities;
+      this.weights = new FenwickTree(weights);
+    }
+  }
+
+  // Samples a small distribution in two passes over its successors. The first one sums up the weights, the second one
+  // finds the successor whose interval of the cumulative weights contains the target.
+  private final class LinearSampler implements Distribution.IntDoubleConsumer {
+    private boolean summing;
+    private double prefix;
+    private double target;
+    private int successor;
+
+    int sample(Distribution distribution, double uniform) {
+      summing = true;
+      prefix = 0.0d;
+      distribution.forEach(this);
+      if (!(prefix > 0.0d)) {
+        return -1;
+      }
+
+      summing = false;
+      target = uniform * prefix;
+      prefix = 0.0d;
+      successor = -1;
+      distribution.forEach(this);
+      return successor;
+    }
+
+    @Override
+    public void accept(int successor, double probability) {
+      double weight = weight(successor, probability);
+      // The last successor starting at or before the target contains it, or is the last one if rounding moved the
+      // target past the total.
+      if (!summing && weight > 0.0d && prefix <= target) {
+        this.successor = successor;
+      }
+      prefix += weight;
+    }
+  }
+
+  /**
+   * @param score the non-negative score of a successor.
+   * @param weighted whether the weight of a successor is its probability times its score, or just its score.
+   */
+  public SuccessorWeights(IntToDoubleFunction score, boolean weighted) {
+    this.score = score;
+    this.weighted = weighted;
+  }
+
+  /**
+   * @param uniform a number drawn uniformly from [0, 1).
+   * @return the sampled successor, or -1 if the distribution is empty or all weights are zero.
+   */
+  public int sample(Distribution distribution, double uniform) {
+    if (distribution.size() < MIN_TREE_SIZE) {
+      return linearSampler.sample(distribution, uniform);
+    }
+    removeDiscardedTrees();
+    WeightTree tree = trees.get(distribution);
+    if (tree == null) {
+      tree = build(distribution);
+      trees.put(distribution, tree);
+    }
+    int index = tree.weights.sample(uniform);
+    return index == -1 ? -1 : tree.successors[index];
+  }
+
+  private WeightTree build(Distribution distribution) {
+    int size = distribution.size();
+    int[] successors = new int[size];
+    int index = 0;
+    for (Int2DoubleMap.Entry entry : distribution) {
+      successors[index++] = entry.getIntKey();
+    }
+    Arrays.sort(successors);
+
+    double[] probabilities = new double[size];
+    double[] weights = new double[size];
+    for (index = 0; index < size; index++) {
+      int successor = successors[index];
+      probabilities[index] = distribution.get(successor);
+      weights[index] = weight(successor, probabilities[index]);
+    }
+    WeightTree tree = new WeightTree(distribution, discarded, successors, probabilities, weights);
+    for (int successor : successors) {
+      occurrences.computeIfAbsent(successor, k -> new ObjectArrayList<>()).add(tree);
+    }
+    return tree;
+  }
+
+  private double weight(int successor, double probability) {
+    double score = this.score.applyAsDouble(successor);
+    return weighted ? probability * score : score;
+  }
+
+  /**
+   * Updates the weight of the state in all trees it is a successor in.
+   */
+  public void scoreChanged(int state) {
+    removeDiscardedTrees();
+    ObjectList<WeightTree> stateTrees = occurrences.get(state);
+    if (stateTrees == null) {
+      return;
+    }
+    for (WeightTree tree : stateTrees) {
+      int index = Arrays.binarySearch(tree.successors, state);
+      assert index >= 0;
+      tree.weights.set(index, weight(state, tree.probabilities[index]));
+    }
+  }
+
+  private void removeDiscardedTrees() {
+    Reference<? extends Distribution> reference;
+    while ((reference = discarded.poll()) != null) {
+      WeightTree tree = (WeightTree) reference;
+      for (int successor : tree.successors) {
+        ObjectList<WeightTree> stateTrees = occurrences.get(successor);
+        if (stateTrees == null) {
+          // Cleared in the meantime.
+          continue;
+        }
+        stateTrees.remove(tree);
+        if (stateTrees.isEmpty()) {
+          occurrences.remove(successor);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of trees the state is a successor in.
+   */
+  int treeCount(int state) {
+    removeDiscardedTrees();
+    ObjectList<WeightTree> stateTrees = occurrences.get(state);
+    return stateTrees == null ? 0 : stateTrees.size();
+  }
+
+  public void clear() {
+    trees.clear();
+    occurrences.clear();
+  }
+}
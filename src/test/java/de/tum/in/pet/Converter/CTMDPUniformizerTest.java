@@ -0,0 +1,146 @@
+package de.tum.in.pet.Converter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class CTMDPUniformizerTest {
+  private static final int UNITS = 100_000;
+
+  // The rounding the uniformizer used to do by formatting the probabilities.
+  private static long roundByFormat(double probability) {
+    DecimalFormat format = new DecimalFormat("#.#####", DecimalFormatSymbols.getInstance(Locale.ROOT));
+    format.setRoundingMode(RoundingMode.HALF_UP);
+    return new BigDecimal(format.format(probability)).movePointRight(5).longValueExact();
+  }
+
+  private static void assertRoundsLikeFormat(double probability) {
+    assertEquals(roundByFormat(probability), CTMDPUniformizer.roundHalfUp(probability),
+        "Rounding of " + probability);
+  }
+
+  // Rounds the probabilities as the uniformizer does, checking that the result is a distribution.
+  private static double[] roundDistribution(double[] probabilities, int selfLoop) {
+    CTMDPUniformizer.Transitions transitions = new CTMDPUniformizer.Transitions();
+    for (int i = 0; i < probabilities.length; i++) {
+      transitions.add(i, probabilities[i]);
+    }
+    transitions.selfLoop = selfLoop;
+    CTMDPUniformizer.round(transitions);
+
+    double sum = 0.0d;
+    for (int i = 0; i < transitions.size; i++) {
+      assertTrue(transitions.probabilities[i] >= 0.0d, "Negative probability " + transitions.probabilities[i]);
+      sum += transitions.probabilities[i];
+    }
+    assertEquals(1.0d, sum);
+    double[] rounded = new double[transitions.size];
+    System.arraycopy(transitions.probabilities, 0, rounded, 0, transitions.size);
+    return rounded;
+  }
+
+  @Test
+  public void roundHalfUpMatchesFormatOnTies() {
+    for (int units = 0; units < UNITS; units++) {
+      double tie = (units + 0.5d) / UNITS;
+      assertRoundsLikeFormat(tie);
+      assertRoundsLikeFormat(Math.nextUp(tie));
+      assertRoundsLikeFormat(Math.nextDown(tie));
+    }
+  }
+
+  @Test
+  public void roundHalfUpMatchesFormatOnUnits() {
+    for (int units = 0; units <= UNITS; units++) {
+      double value = (double) units / UNITS;
+      assertRoundsLikeFormat(value);
+      assertRoundsLikeFormat(Math.nextUp(value));
+      if (value > 0.0d) {
+        assertRoundsLikeFormat(Math.nextDown(value));
+      }
+    }
+  }
+
+  @Test
+  public void roundHalfUpMatchesFormatOnBoundaries() {
+    assertEquals(0L, CTMDPUniformizer.roundHalfUp(0.0d));
+    assertEquals(UNITS, CTMDPUniformizer.roundHalfUp(1.0d));
+    assertEquals(1L, CTMDPUniformizer.roundHalfUp(5.0e-6d));
+    assertEquals(0L, CTMDPUniformizer.roundHalfUp(Math.nextDown(5.0e-6d)));
+
+    double[] small = {Double.MIN_VALUE, Double.MIN_NORMAL, 1.0e-300, 1.0e-16, 1.0e-10, 1.0e-6, 4.0e-6,
+        4.99999e-6, 4.999999999e-6, Math.nextDown(5.0e-6d), 5.0e-6, Math.nextUp(5.0e-6d), 5.00001e-6};
+    for (double value : small) {
+      assertRoundsLikeFormat(value);
+    }
+    assertRoundsLikeFormat(Math.nextDown(1.0d));
+    assertRoundsLikeFormat(1.0d);
+  }
+
+  @Test
+  public void roundHalfUpMatchesFormatOnRandomValues() {
+    Random random = new Random(11);
+    for (int i = 0; i < 200_000; i++) {
+      assertRoundsLikeFormat(random.nextDouble());
+      assertRoundsLikeFormat(random.nextDouble() * 1.0e-4);
+    }
+  }
+
+  @Test
+  public void roundedDistributionsSumToOne() {
+    Random random = new Random(5);
+    for (int i = 0; i < 20_000; i++) {
+      int size = 1 + random.nextInt(40);
+      double[] probabilities = new double[size];
+      double total = 0.0d;
+      for (int j = 0; j < size; j++) {
+        // Some tiny probabilities, which are rounded to zero.
+        probabilities[j] = random.nextInt(4) == 0 ? random.nextDouble() * 1.0e-5 : random.nextDouble();
+        total += probabilities[j];
+      }
+      for (int j = 0; j < size; j++) {
+        probabilities[j] /= total;
+      }
+      roundDistribution(probabilities, random.nextBoolean() ? random.nextInt(size) : -1);
+    }
+  }
+
+  @Test
+  public void roundedDistributionsOfTiesSumToOne() {
+    // Rounding every tie up exceeds one by a unit for every pair of successors.
+    for (int size = 2; size <= 40; size += 2) {
+      double[] probabilities = new double[size];
+      for (int j = 0; j < size; j++) {
+        probabilities[j] = (j % 2 == 0 ? 0.5d : -0.5d) / UNITS + 1.0d / size;
+      }
+      roundDistribution(probabilities, -1);
+    }
+
+    double[] ties = new double[20];
+    for (int j = 0; j < ties.length; j++) {
+      ties[j] = 0.5d / UNITS;
+    }
+    ties[0] = 1.0d - 19 * 0.5d / UNITS;
+    // The excess of ten units is taken from the most likely successor, the floating point error from the last one.
+    double[] rounded = roundDistribution(ties, -1);
+    assertEquals(0.99981d, rounded[0], 1.0e-15);
+    for (int j = 1; j < rounded.length; j++) {
+      assertEquals(1.0d / UNITS, rounded[j], 1.0e-15);
+    }
+  }
+
+  @Test
+  public void tinySelfLoopIsRemoved() {
+    double[] rounded = roundDistribution(new double[] {1.0e-12, 0.25d, 0.75d - 1.0e-12}, 0);
+    assertEquals(2, rounded.length);
+    assertEquals(0.25d, rounded[0]);
+    assertEquals(0.75d, rounded[1]);
+  }
+}
@@ -0,0 +1,118 @@
+package de.tum.in.pet.Converter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class ChannelWriterTest {
+  private static final double[] TYPICAL_VALUES = {0.0d, -0.0d, 1.0d, 0.5d, 0.25d, 0.1d, 0.2d, 0.3d, 0.75d, 0.125d,
+      1.0d / 3, 2.0d / 3, 1.0d / 6, 1.0d / 7, 0.001d, 0.999d, 0.01d, 1.0e-4d, 5.0d, -2.5d, 42.0d, 123456.789d,
+      9999999.0d, 1.0e7d, 1.0e20d, 0.1d + 0.2d, Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN,
+      Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+  // Probabilities written repeatedly by the allocation test, all with few digits.
+  private static final double[] PROBABILITIES = {0.5d, 0.25d, 1.0d / 3, 0.1d, 0.9d, 1.0d, 0.001d, 0.0625d, 2.0d};
+  private static final int MEASURED_VALUES = 200_000;
+  private static final double MAX_BYTES_PER_VALUE = 1.0d;
+
+  private static List<String> writeLines(double[] values) throws IOException {
+    Path file = Files.createTempFile("channel-writer", ".txt");
+    try {
+      try (ChannelWriter writer = ChannelWriter.open(file)) {
+        for (double value : values) {
+          writer.write(value).newLine();
+        }
+      }
+      return Files.readAllLines(file, StandardCharsets.US_ASCII);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private static long allocatedBytes() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  @Test
+  public void writesDoublesLikeToString() throws IOException {
+    List<String> lines = writeLines(TYPICAL_VALUES);
+    assertEquals(TYPICAL_VALUES.length, lines.size());
+    for (int i = 0; i < TYPICAL_VALUES.length; i++) {
+      assertEquals(Double.toString(TYPICAL_VALUES[i]), lines.get(i));
+    }
+  }
+
+  @Test
+  public void randomDoublesReadBack() throws IOException {
+    Random random = new Random(23);
+    double[] values = new double[100_000];
+    for (int i = 0; i < values.length; i++) {
+      switch (i % 5) {
+        case 0:
+          values[i] = random.nextDouble();
+          break;
+        case 1:
+          values[i] = random.nextInt(1000) / 1000.0d;
+          break;
+        case 2:
+          values[i] = 1.0d / (1 + random.nextInt(100));
+          break;
+        case 3:
+          values[i] = random.nextGaussian() * 1.0e5;
+          break;
+        default:
+          do {
+            values[i] = Double.longBitsToDouble(random.nextLong());
+          } while (!Double.isFinite(values[i]));
+          break;
+      }
+    }
+
+    List<String> lines = writeLines(values);
+    assertEquals(values.length, lines.size());
+    for (int i = 0; i < values.length; i++) {
+      String line = lines.get(i);
+      assertEquals(Double.doubleToLongBits(values[i]), Double.doubleToLongBits(Double.parseDouble(line)),
+          "Read back " + line + " for " + values[i]);
+      // The plain notation is kept, with at least one fraction digit
+      assertEquals(Double.toString(values[i]).contains("E"), line.contains("E"), line);
+      assertTrue(line.contains("."), line);
+    }
+  }
+
+  @Test
+  public void writingProbabilitiesDoesNotAllocate() throws IOException {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    Path file = Files.createTempFile("channel-writer", ".txt");
+    try (ChannelWriter writer = ChannelWriter.open(file)) {
+      for (int i = 0; i < MEASURED_VALUES; i++) {
+        writer.write(PROBABILITIES[i % PROBABILITIES.length]).write(' ');
+      }
+
+      long before = allocatedBytes();
+      for (int i = 0; i < MEASURED_VALUES; i++) {
+        writer.write(PROBABILITIES[i % PROBABILITIES.length]).write(' ');
+      }
+      long allocated = allocatedBytes() - before;
+      double bytesPerValue = (double) allocated / MEASURED_VALUES;
+      assertTrue(bytesPerValue < MAX_BYTES_PER_VALUE, "Allocated " + bytesPerValue + " bytes per value");
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package de.tum.in.pet.implementation.meanPayoff;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.tum.in.probmodels.graph.Mec;
+import de.tum.in.probmodels.model.Distribution;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.junit.jupiter.api.Test;
+
+public class CompiledMecTest {
+  private static final double TOLERANCE = 1.0e-12;
+
+  // State 0 only leads into the MEC of states 1 to 3, and state 1 has an action leaving it.
+  private static MecModel model() {
+    return new MecModel(4)
+        .stateReward(2, 0.5d)
+        .action(0, "enter", 1.0d, 1, 1.0d)
+        .action(1, "exit", 7.0d, 0, 0.5d, 2, 0.5d)
+        .action(1, "a", 1.0d, 2, 0.25d, 3, 0.75d)
+        .action(1, "b", 2.0d, 1, 1.0d)
+        .action(2, "c", 3.0d, 3, 1.0d)
+        .action(3, "d", 0.0d, 1, 0.5d, 2, 0.3d, 3, 0.2d);
+  }
+
+  // Checks the layout of the compiled mec against the mec and the model it was compiled from.
+  private static void assertCompiles(MecModel model, Mec mec) {
+    CompiledMec compiled = CompiledMec.compile(mec, model.distributionFunction(), model.rewardCache());
+
+    assertEquals(mec.states.size(), compiled.numStates);
+    assertArrayEquals(mec.states.toIntArray(), compiled.states);
+    assertEquals(0, compiled.choiceOffsets[0]);
+    assertEquals(compiled.numChoices(), compiled.choiceOffsets[compiled.numStates]);
+    assertEquals(0, compiled.transitionOffsets[0]);
+    assertEquals(compiled.successors.length, compiled.transitionOffsets[compiled.numChoices()]);
+    assertEquals(compiled.successors.length, compiled.probabilities.length);
+
+    int numChoices = 0;
+    for (int local = 0; local < compiled.numStates; local++) {
+      int state = compiled.states[local];
+      IntSet actions = new IntOpenHashSet();
+      for (int choice = compiled.choiceOffsets[local]; choice < compiled.choiceOffsets[local + 1]; choice++) {
+        int action = compiled.choiceActions[choice];
+        actions.add(action);
+        Distribution distribution = model.mdp.getActions(state).get(action).distribution();
+
+        double expectedReward = model.stateReward(state)
+            + model.transitionReward(state, model.mdp.getActions(state).get(action).label());
+        assertEquals(expectedReward, compiled.choiceRewards[choice], TOLERANCE);
+
+        int start = compiled.transitionOffsets[choice];
+        int end = compiled.transitionOffsets[choice + 1];
+        assertEquals(distribution.size(), end - start);
+        for (int transition = start; transition < end; transition++) {
+          int successor = compiled.states[compiled.successors[transition]];
+          assertEquals(distribution.get(successor), compiled.probabilities[transition], TOLERANCE);
+        }
+        for (Int2DoubleMap.Entry entry : distribution) {
+          assertTrue(mec.states.contains(entry.getIntKey()));
+        }
+      }
+      assertEquals(mec.actions.get(state), actions);
+      numChoices += actions.size();
+    }
+    assertEquals(numChoices, compiled.numChoices());
+  }
+
+  @Test
+  public void compilesAllStates() {
+    MecModel model = new MecModel(2)
+        .stateReward(0, 1.0d)
+        .action(0, "a", 1.0d, 1, 1.0d)
+        .action(1, "b", 3.0d, 0, 0.5d, 1, 0.5d)
+        .action(1, "c", 0.0d, 1, 1.0d);
+    assertCompiles(model, model.mec());
+  }
+
+  @Test
+  public void numbersStatesLocally() {
+    MecModel model = model();
+    Mec mec = model.mec(1, 2, 3);
+    assertCompiles(model, mec);
+
+    CompiledMec compiled = CompiledMec.compile(mec, model.distributionFunction(), model.rewardCache());
+    assertArrayEquals(new int[] {1, 2, 3}, compiled.states);
+    // The action leaving the mec is dropped
+    assertEquals(4, compiled.numChoices());
+    assertEquals(2, compiled.choiceOffsets[1] - compiled.choiceOffsets[0]);
+    for (int choice = compiled.choiceOffsets[0]; choice < compiled.choiceOffsets[1]; choice++) {
+      assertTrue(compiled.choiceActions[choice] != 0);
+    }
+  }
+
+  @Test
+  public void sharesRewardCache() {
+    MecModel model = model();
+    RewardCache<Integer> rewardCache = model.rewardCache();
+    CompiledMec.compile(model.mec(1, 2, 3), model.distributionFunction(), rewardCache);
+    int transitionRewardCalls = model.transitionRewardCalls;
+    assertEquals(4, transitionRewardCalls);
+
+    // A second compilation, e.g. after the mec grew, reads the rewards from the cache
+    CompiledMec compiled = CompiledMec.compile(model.mec(1, 2, 3), model.distributionFunction(), rewardCache);
+    assertEquals(transitionRewardCalls, model.transitionRewardCalls);
+    assertEquals(3, model.stateRewardCalls);
+    assertEquals(3.5d, compiled.choiceRewards[compiled.choiceOffsets[1]], TOLERANCE);
+  }
+}
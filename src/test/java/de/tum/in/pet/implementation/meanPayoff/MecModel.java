@@ -0,0 +1,102 @@
+package de.tum.in.pet.implementation.meanPayoff;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.naturals.set.NatBitSets;
+import de.tum.in.probmodels.generator.RewardGenerator;
+import de.tum.in.probmodels.graph.Mec;
+import de.tum.in.probmodels.model.Action;
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.model.DistributionBuilder;
+import de.tum.in.probmodels.model.Distributions;
+import de.tum.in.probmodels.model.MarkovDecisionProcess;
+import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+
+/**
+ * A small explicit MDP whose states are their own state objects, together with its rewards, for testing the MEC
+ * solvers. The labels of the actions are "state:name", so that transition rewards can be looked up by label alone.
+ */
+final class MecModel implements RewardGenerator<Integer> {
+  final MarkovDecisionProcess mdp = new MarkovDecisionProcess();
+  private final double[] stateRewards;
+  private final Object2DoubleOpenHashMap<Object> transitionRewards = new Object2DoubleOpenHashMap<>();
+  // Number of evaluations of the reward structure
+  int stateRewardCalls = 0;
+  int transitionRewardCalls = 0;
+
+  MecModel(int numStates) {
+    mdp.addStates(numStates);
+    stateRewards = new double[numStates];
+  }
+
+  MecModel stateReward(int state, double reward) {
+    stateRewards[state] = reward;
+    return this;
+  }
+
+  /**
+   * Adds an action to the state.
+   * @param successorsAndProbabilities: pairs of successor and probability.
+   */
+  MecModel action(int state, String name, double reward, double... successorsAndProbabilities) {
+    DistributionBuilder builder = Distributions.defaultBuilder();
+    for (int i = 0; i < successorsAndProbabilities.length; i += 2) {
+      builder.add((int) successorsAndProbabilities[i], successorsAndProbabilities[i + 1]);
+    }
+    String label = state + ":" + name;
+    transitionRewards.put(label, reward);
+    mdp.addChoice(state, Action.of(builder.build(), label));
+    return this;
+  }
+
+  /**
+   * @return the MEC of all states of the model, which therefore must be strongly connected.
+   */
+  Mec mec() {
+    int[] states = new int[mdp.getNumStates()];
+    for (int state = 0; state < states.length; state++) {
+      states[state] = state;
+    }
+    return mec(states);
+  }
+
+  /**
+   * @return the MEC of the given states, with all actions which stay in them.
+   */
+  Mec mec(int... states) {
+    NatBitSet mecStates = NatBitSets.set();
+    for (int state : states) {
+      mecStates.set(state);
+    }
+    return Mec.create(mdp, mecStates);
+  }
+
+  Int2ObjectFunction<Integer> stateIndexMap() {
+    return state -> state;
+  }
+
+  Int2ObjectFunction<Int2ObjectFunction<Distribution>> distributionFunction() {
+    return state -> (action -> mdp.getActions(state).get(action).distribution());
+  }
+
+  Int2ObjectFunction<Int2ObjectFunction<Object>> labelFunction() {
+    return state -> (action -> mdp.getActions(state).get(action).label());
+  }
+
+  RewardCache<Integer> rewardCache() {
+    return new RewardCache<>(this, stateIndexMap(), labelFunction());
+  }
+
+  @Override
+  public double stateReward(Integer state) {
+    stateRewardCalls += 1;
+    return stateRewards[state];
+  }
+
+  @Override
+  public double transitionReward(Integer state, Object label) {
+    transitionRewardCalls += 1;
+    assert transitionRewards.containsKey(label);
+    return transitionRewards.getDouble(label);
+  }
+}
@@ -0,0 +1,144 @@
+package de.tum.in.pet.implementation.meanPayoff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.tum.in.pet.values.Bounds;
+import de.tum.in.probmodels.model.MarkovDecisionProcess;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the bounds of policy iteration on small MECs with known maximal mean payoff against the gain and against VI.
+ */
+public class MecPolicyIteratorTest {
+  private static final double PRECISION = 1.0e-6;
+  // Allowed rounding error of bounds which enclose the gain exactly
+  private static final double TOLERANCE = 1.0e-9;
+  private static final double R_MAX = 10.0d;
+
+  private static long timeout() {
+    return System.currentTimeMillis() + 60_000L;
+  }
+
+  private static Bounds solve(MecSolver<Integer> solver, MecModel model) {
+    solver.setDistributionFunction(model.distributionFunction());
+    solver.setLabelFunction(model.labelFunction());
+    solver.run();
+    Bounds bounds = solver.getBounds();
+    assertNotNull(bounds);
+    return bounds;
+  }
+
+  private static Bounds policyIteration(MecModel model) {
+    return solve(new MecPolicyIterator<>(model.mec(), PRECISION, model, model.stateIndexMap(), R_MAX, timeout()),
+        model);
+  }
+
+  private static Bounds valueIteration(MecModel model) {
+    return solve(new RestrictedMecValueIterator<Integer, MarkovDecisionProcess>(model.mec(), PRECISION, model,
+        model.stateIndexMap(), R_MAX, timeout()), model);
+  }
+
+  private static void assertEncloses(double gain, Bounds bounds, String solver) {
+    assertTrue(bounds.lowerBound() <= gain + TOLERANCE && gain - TOLERANCE <= bounds.upperBound(),
+        solver + " bounds " + bounds + " don't enclose the gain " + gain);
+    assertTrue(bounds.difference() < PRECISION, solver + " bounds " + bounds + " aren't precise");
+  }
+
+  // Policy iteration and VI both find the gain up to the precision
+  private static void assertGain(double gain, MecModel model) {
+    Bounds policyBounds = policyIteration(model);
+    Bounds valueBounds = valueIteration(model);
+    assertEncloses(gain, policyBounds, "Policy iteration");
+    assertEncloses(gain, valueBounds, "VI");
+    assertEquals(valueBounds.average(), policyBounds.average(), PRECISION);
+  }
+
+  @Test
+  public void periodicCycle() {
+    // Every policy alternates between the two states, so the gain is the average of both rewards.
+    MecModel model = new MecModel(2)
+        .action(0, "a", 1.0d, 1, 1.0d)
+        .action(1, "b", 3.0d, 0, 1.0d);
+    assertGain(2.0d, model);
+  }
+
+  @Test
+  public void periodicCycleWithStateRewards() {
+    MecModel model = new MecModel(2)
+        .stateReward(0, 2.0d)
+        .action(0, "a", 1.0d, 1, 1.0d)
+        .action(1, "b", 0.0d, 0, 1.0d)
+        .action(1, "c", 0.5d, 0, 1.0d);
+    assertGain(1.75d, model);
+  }
+
+  @Test
+  public void transientStates() {
+    // The optimal policy stays in state 2, so states 0 and 1 are transient and only lead there.
+    MecModel model = new MecModel(3)
+        .action(0, "a", 0.0d, 1, 0.5d, 2, 0.5d)
+        .action(0, "b", 1.0d, 1, 1.0d)
+        .action(1, "loop", 1.0d, 1, 1.0d)
+        .action(1, "back", 0.0d, 0, 1.0d)
+        .action(2, "loop", 3.0d, 2, 1.0d)
+        .action(2, "back", 0.0d, 0, 1.0d);
+    assertGain(3.0d, model);
+  }
+
+  @Test
+  public void multipleRecurrentClasses() {
+    // The first policy is greedy with respect to zero values, so it loops in states 0, 1 and 3 with gains 1, 2 and 3.
+    // The optimal policy moves to the cycle of states 2 and 3, which is found only by improving the bias, as leaving
+    // the loop of state 3 for the cycle doesn't improve the gain of the first policies.
+    MecModel model = new MecModel(4)
+        .action(0, "loop", 1.0d, 0, 1.0d)
+        .action(0, "right", 0.0d, 1, 1.0d)
+        .action(1, "loop", 2.0d, 1, 1.0d)
+        .action(1, "left", 0.0d, 0, 1.0d)
+        .action(1, "right", 0.0d, 2, 1.0d)
+        .action(2, "next", 8.0d, 3, 1.0d)
+        .action(2, "left", 0.0d, 1, 1.0d)
+        .action(3, "back", 0.0d, 2, 1.0d)
+        .action(3, "loop", 3.0d, 3, 1.0d);
+    assertGain(4.0d, model);
+  }
+
+  @Test
+  public void negativeRewards() {
+    // The values decrease in every iteration, so VI must not cut them off at zero.
+    MecModel model = new MecModel(3)
+        .stateReward(2, -1.0d)
+        .action(0, "a", -2.0d, 1, 1.0d)
+        .action(0, "b", -4.0d, 2, 1.0d)
+        .action(1, "a", -1.0d, 0, 0.5d, 2, 0.5d)
+        .action(2, "a", -2.0d, 0, 1.0d)
+        .action(2, "b", -5.0d, 1, 1.0d);
+    // The best policy cycles through states 0, 1 and back with probability one half or over state 2, i.e. it takes
+    // 2.5 steps on average for an expected reward of -3 - 1.5 = -4.5 per cycle.
+    assertGain(-1.8d, model);
+  }
+
+  @Test
+  public void continuesFromValues() {
+    MecModel model = new MecModel(3)
+        .action(0, "a", 0.0d, 1, 0.5d, 2, 0.5d)
+        .action(0, "b", 1.0d, 1, 1.0d)
+        .action(1, "loop", 1.0d, 1, 1.0d)
+        .action(1, "back", 0.0d, 0, 1.0d)
+        .action(2, "loop", 3.0d, 2, 1.0d)
+        .action(2, "back", 0.0d, 0, 1.0d);
+    MecPolicyIterator<Integer> first = new MecPolicyIterator<>(model.mec(), PRECISION, model, model.stateIndexMap(),
+        new Int2DoubleOpenHashMap(), R_MAX, timeout());
+    solve(first, model);
+
+    // The bias of an optimal policy gives exact bounds right away
+    MecPolicyIterator<Integer> second = new MecPolicyIterator<>(model.mec(), PRECISION, model, model.stateIndexMap(),
+        new Int2DoubleOpenHashMap(first.getValues()), R_MAX, timeout());
+    Bounds bounds = solve(second, model);
+    assertEncloses(3.0d, bounds, "Policy iteration");
+    assertEquals(first.getValues(), second.getValues());
+  }
+}
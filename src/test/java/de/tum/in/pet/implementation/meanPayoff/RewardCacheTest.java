@@ -0,0 +1,103 @@
+package de.tum.in.pet.implementation.meanPayoff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import de.tum.in.probmodels.generator.RewardGenerator;
+import org.junit.jupiter.api.Test;
+
+public class RewardCacheTest {
+  // Beyond the initial capacity of the cache
+  private static final int LARGE_STATE = 5000;
+
+  // The state reward of state s is s, the transition reward of action a is the label a / 10.
+  private static final class CountingRewards implements RewardGenerator<Integer> {
+    int stateRewardCalls = 0;
+    int transitionRewardCalls = 0;
+
+    @Override
+    public double stateReward(Integer state) {
+      stateRewardCalls += 1;
+      return state;
+    }
+
+    @Override
+    public double transitionReward(Integer state, Object label) {
+      transitionRewardCalls += 1;
+      return (Integer) label / 10.0d;
+    }
+  }
+
+  private static RewardCache<Integer> cache(CountingRewards rewards) {
+    return new RewardCache<>(rewards, state -> state, state -> (action -> action));
+  }
+
+  @Test
+  public void addsStateAndTransitionReward() {
+    RewardCache<Integer> cache = cache(new CountingRewards());
+    assertEquals(0.0d, cache.reward(0, 0));
+    assertEquals(3.2d, cache.reward(3, 2));
+    assertEquals(LARGE_STATE + 0.1d, cache.reward(LARGE_STATE, 1));
+  }
+
+  @Test
+  public void evaluatesRewardsOnce() {
+    CountingRewards rewards = new CountingRewards();
+    RewardCache<Integer> cache = cache(rewards);
+    assertEquals(0, rewards.stateRewardCalls + rewards.transitionRewardCalls);
+
+    cache.reward(2, 1);
+    cache.reward(2, 1);
+    assertEquals(1, rewards.stateRewardCalls);
+    assertEquals(1, rewards.transitionRewardCalls);
+
+    // The state reward is shared by all actions of the state
+    cache.reward(2, 0);
+    assertEquals(1, rewards.stateRewardCalls);
+    assertEquals(2, rewards.transitionRewardCalls);
+  }
+
+  @Test
+  public void zeroRewardsAreCached() {
+    CountingRewards rewards = new CountingRewards();
+    RewardCache<Integer> cache = cache(rewards);
+    assertEquals(0.0d, cache.reward(0, 0));
+    assertEquals(0.0d, cache.reward(0, 0));
+    assertEquals(1, rewards.stateRewardCalls);
+    assertEquals(1, rewards.transitionRewardCalls);
+  }
+
+  @Test
+  public void exploredComputesAllActions() {
+    CountingRewards rewards = new CountingRewards();
+    RewardCache<Integer> cache = cache(rewards);
+    cache.explored(4, 3);
+    assertEquals(1, rewards.stateRewardCalls);
+    assertEquals(3, rewards.transitionRewardCalls);
+
+    for (int action = 0; action < 3; action++) {
+      assertEquals(4 + action / 10.0d, cache.reward(4, action));
+    }
+    assertEquals(3, rewards.transitionRewardCalls);
+  }
+
+  @Test
+  public void keepsRewardsWhenGrowing() {
+    CountingRewards rewards = new CountingRewards();
+    RewardCache<Integer> cache = cache(rewards);
+    cache.reward(1, 0);
+    cache.reward(7, 1);
+    // Grows the actions of state 1 and then the states
+    cache.reward(1, 5);
+    cache.reward(LARGE_STATE, 0);
+    cache.reward(2 * LARGE_STATE, 3);
+    assertEquals(5, rewards.transitionRewardCalls);
+
+    assertEquals(1.0d, cache.reward(1, 0));
+    assertEquals(7.1d, cache.reward(7, 1));
+    assertEquals(1.5d, cache.reward(1, 5));
+    assertEquals(LARGE_STATE, cache.reward(LARGE_STATE, 0));
+    assertEquals(2 * LARGE_STATE + 0.3d, cache.reward(2 * LARGE_STATE, 3));
+    assertEquals(5, rewards.transitionRewardCalls);
+    assertEquals(4, rewards.stateRewardCalls);
+  }
+}
@@ -0,0 +1,221 @@
+package de.tum.in.pet.implementation.meanPayoff;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import de.tum.in.pet.implementation.reachability.BlackUnboundedReachValues;
+import de.tum.in.pet.implementation.reachability.UnboundedReachValues;
+import de.tum.in.pet.implementation.reachability.UpdateMethod;
+import de.tum.in.pet.implementation.reachability.ValueUpdate;
+import de.tum.in.pet.sampler.SuccessorHeuristic;
+import de.tum.in.probmodels.explorer.Explorer;
+import de.tum.in.probmodels.explorer.Explorers;
+import de.tum.in.probmodels.explorer.InformationLevel;
+import de.tum.in.probmodels.generator.Choice;
+import de.tum.in.probmodels.generator.Generator;
+import de.tum.in.probmodels.generator.RewardGenerator;
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.model.MarkovDecisionProcess;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntPredicate;
+import org.junit.jupiter.api.Test;
+import prism.PrismException;
+
+/**
+ * Measures the allocations of the sampling loops of the on-demand value iterators. The bounds are kept unknown, as
+ * updating them allocates new bounds, so that the paths don't die out and only the sampling is measured.
+ */
+public class SamplingAllocationTest {
+  private static final int STATES = 40;
+  private static final int LAST = STATES - 1;
+  // Large enough to be sampled through an alias table.
+  private static final int LARGE_SIZE = 20;
+  // Paths never revisit a state, this only ends them if the explorer unexpectedly adds loops.
+  private static final int REVISIT_THRESHOLD = 1_000;
+  private static final int WARMUP_PATHS = 20_000;
+  private static final int MEASURED_PATHS = 20_000;
+  // Paths simulated by a single run of the black-box iterator.
+  private static final long BLACK_PATHS_PER_RUN = 10_000;
+  private static final int BLACK_RUNS = 4;
+  // Allowed average allocation per sampled step, which leaves room for the measurement itself and, for the black-box
+  // iterator, for the bound updates after each run.
+  private static final double MAX_BYTES_PER_STEP = 1.0d;
+  private static final IntPredicate TARGET = state -> state == BoundedMecQuotient.getPlusState();
+
+  // Every state has a choice to the next states, one jumping further and every fifth state a choice with many
+  // successors. All choices lead to later states, so there are no end components and every path ends in the last
+  // state, which has no choices.
+  private static final class ChainGenerator implements Generator<Integer> {
+    @Override
+    public Collection<Integer> initialStates() {
+      return List.of(0);
+    }
+
+    @Override
+    public List<Choice<Integer>> choices(Integer state) {
+      List<Choice<Integer>> choices = new ArrayList<>();
+      if (state == LAST) {
+        return choices;
+      }
+      choices.add(choice("step", state, 1, 5, 2, 3, 3, 2));
+      choices.add(choice("jump", state, 3, 1, 5, 2, 7, 3, 11, 4));
+      if (state % 5 == 0) {
+        Object2DoubleOpenHashMap<Integer> transitions = new Object2DoubleOpenHashMap<>();
+        for (int i = 1; i <= LARGE_SIZE; i++) {
+          transitions.addTo(Math.min(state + i, LAST), 1.0d / LARGE_SIZE);
+        }
+        choices.add(Choice.of("spread", transitions));
+      }
+      return choices;
+    }
+
+    private static Choice<Integer> choice(String label, int state, int... offsetsAndWeights) {
+      Object2DoubleOpenHashMap<Integer> transitions = new Object2DoubleOpenHashMap<>();
+      for (int i = 0; i < offsetsAndWeights.length; i += 2) {
+        transitions.addTo(Math.min(state + offsetsAndWeights[i], LAST), offsetsAndWeights[i + 1] / 10.0d);
+      }
+      return Choice.of(label, transitions);
+    }
+  }
+
+  private static final class ZeroRewards implements RewardGenerator<Integer> {
+    @Override
+    public double stateReward(Integer state) {
+      return 0.0d;
+    }
+
+    @Override
+    public double transitionReward(Integer state, Object label) {
+      return 0.0d;
+    }
+  }
+
+  // Counts the sampled steps and only updates the sink states, whose bounds are fixed anyway.
+  private static final class FixedValues extends UnboundedReachValues {
+    long steps = 0;
+
+    FixedValues(SuccessorHeuristic heuristic) {
+      super(ValueUpdate.MAX_VALUE, TARGET, 1.0e-6, heuristic);
+    }
+
+    @Override
+    public int sampleNextState(int state, List<Distribution> choices) {
+      steps += 1;
+      return super.sampleNextState(state, choices);
+    }
+
+    @Override
+    public void update(int state, List<Distribution> choices) {
+      if (BoundedMecQuotient.isSinkState(state)) {
+        super.update(state, choices);
+      }
+    }
+  }
+
+  private static final class FixedBlackValues extends BlackUnboundedReachValues {
+    long steps = 0;
+
+    FixedBlackValues() {
+      super(ValueUpdate.MAX_VALUE, UpdateMethod.BLACKBOX, TARGET, 1.0e-6, SuccessorHeuristic.PROB);
+    }
+
+    @Override
+    public int sampleNextAction(int state, List<Distribution> choices) {
+      steps += 1;
+      return super.sampleNextAction(state, choices);
+    }
+
+    @Override
+    public void update(int state, List<Distribution> choices) {
+      if (BoundedMecQuotient.isSinkState(state)) {
+        super.update(state, choices);
+      }
+    }
+  }
+
+  private static long timeout() {
+    return System.currentTimeMillis() + 3_600_000L;
+  }
+
+  private static long allocatedBytes() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static void assumeAllocationCounting() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  private static void assertNearZero(long bytes, long steps, String description) {
+    assertTrue(steps > 0, description + " sampled no steps");
+    double bytesPerStep = (double) bytes / steps;
+    assertTrue(bytesPerStep < MAX_BYTES_PER_STEP,
+        description + " allocated " + bytesPerStep + " bytes per step");
+  }
+
+  private static void samplePaths(OnDemandValueIterator<Integer, MarkovDecisionProcess> iterator, int paths)
+      throws PrismException {
+    for (int run = 0; run < paths; run++) {
+      iterator.sample(0, run);
+    }
+  }
+
+  @Test
+  public void onDemandSampleDoesNotAllocate() throws PrismException {
+    assumeAllocationCounting();
+
+    for (SuccessorHeuristic heuristic : new SuccessorHeuristic[] {SuccessorHeuristic.PROB,
+        SuccessorHeuristic.WEIGHTED, SuccessorHeuristic.DIFFERENCE}) {
+      Explorer<Integer, MarkovDecisionProcess> explorer = Explorers.getExplorer(new MarkovDecisionProcess(),
+          new ChainGenerator(), InformationLevel.WHITEBOX, false, timeout());
+      FixedValues values = new FixedValues(heuristic);
+      OnDemandValueIterator<Integer, MarkovDecisionProcess> iterator = new OnDemandValueIterator<>(explorer, values,
+          new ZeroRewards(), REVISIT_THRESHOLD, 1.0d, 1.0e-6, timeout());
+      iterator.initSinkStates();
+      // Explores all states and fills the caches of the quotient
+      samplePaths(iterator, WARMUP_PATHS);
+
+      long steps = values.steps;
+      long before = allocatedBytes();
+      samplePaths(iterator, MEASURED_PATHS);
+      long allocated = allocatedBytes() - before;
+
+      assertNearZero(allocated, values.steps - steps, "OnDemandValueIterator.sample with " + heuristic);
+    }
+  }
+
+  @Test
+  public void blackOnDemandSampleDoesNotAllocate() throws PrismException {
+    assumeAllocationCounting();
+
+    Explorer<Integer, MarkovDecisionProcess> explorer = Explorers.getExplorer(new MarkovDecisionProcess(),
+        new ChainGenerator(), InformationLevel.BLACKBOX, false, timeout());
+    FixedBlackValues values = new FixedBlackValues();
+    BlackOnDemandValueIterator<Integer, MarkovDecisionProcess> iterator = new BlackOnDemandValueIterator<>(explorer,
+        values, new ZeroRewards(), REVISIT_THRESHOLD, 1.0d, 0.01d, 0.1d, k -> BLACK_PATHS_PER_RUN, 1.0e-6, timeout(),
+        false, SimulateMec.STANDARD, DeltaTCalculationMethod.P_MIN, LARGE_SIZE, 1);
+    iterator.initSinkStates();
+    // Explores all states and learns all transitions
+    for (int run = 0; run < BLACK_RUNS; run++) {
+      iterator.sample(0, 0);
+    }
+
+    long steps = values.steps;
+    long before = allocatedBytes();
+    for (int run = 0; run < BLACK_RUNS; run++) {
+      iterator.sample(0, 0);
+    }
+    long allocated = allocatedBytes() - before;
+
+    assertNearZero(allocated, values.steps - steps, "BlackOnDemandValueIterator.sample");
+  }
+}
@@ -0,0 +1,201 @@
+package de.tum.in.pet.implementation.reachability;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import de.tum.in.pet.sampler.SuccessorHeuristic;
+import de.tum.in.pet.sampler.UnboundedValues;
+import de.tum.in.pet.util.SampleUtil;
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.model.DistributionBuilder;
+import de.tum.in.probmodels.model.Distributions;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+import org.junit.jupiter.api.Test;
+
+public class SamplingAllocationTest {
+  private static final int STATES = 40;
+  private static final int TARGET = STATES - 1;
+  // Large enough to be sampled through an alias table or a tree of successor weights.
+  private static final int LARGE_SIZE = 20;
+  private static final int WARMUP_STEPS = 200_000;
+  private static final int MEASURED_STEPS = 200_000;
+  // Allowed average allocation per sampled step, which leaves room for the measurement itself.
+  private static final double MAX_BYTES_PER_STEP = 1.0d;
+
+  private static Distribution distribution(int... successorsAndWeights) {
+    DistributionBuilder builder = Distributions.defaultBuilder();
+    for (int i = 0; i < successorsAndWeights.length; i += 2) {
+      builder.add(successorsAndWeights[i], successorsAndWeights[i + 1] / 10.0d);
+    }
+    return builder.build();
+  }
+
+  // Every state has a choice with a self loop, one with four successors and every fifth state a choice with many
+  // successors. The target has no choices.
+  private static List<List<Distribution>> model() {
+    List<List<Distribution>> model = new ArrayList<>();
+    for (int state = 0; state < STATES; state++) {
+      List<Distribution> choices = new ArrayList<>();
+      if (state != TARGET) {
+        choices.add(distribution(state + 1, 5, state, 3, (state + 2) % STATES, 2));
+        choices.add(distribution((state + 3) % STATES, 1, (state + 5) % STATES, 2, (state + 7) % STATES, 3,
+            (state + 11) % STATES, 4));
+        if (state % 5 == 0) {
+          DistributionBuilder builder = Distributions.defaultBuilder();
+          for (int i = 1; i <= LARGE_SIZE; i++) {
+            builder.add((state + i) % STATES, 1.0d / LARGE_SIZE);
+          }
+          choices.add(builder.build());
+        }
+      }
+      model.add(choices);
+    }
+    return model;
+  }
+
+  // The model with only the last choice of every state, i.e. the one with four successors or the one with many.
+  private static List<List<Distribution>> singleChoiceModel() {
+    List<List<Distribution>> model = model();
+    for (int state = 0; state < TARGET; state++) {
+      List<Distribution> choices = model.get(state);
+      model.set(state, List.of(choices.get(choices.size() - 1)));
+    }
+    return model;
+  }
+
+  // A few rounds of value iteration, so that the bounds differ between the states but have not converged yet.
+  private static void initializeBounds(UnboundedValues values, List<List<Distribution>> model) {
+    for (int round = 0; round < 5; round++) {
+      for (int state = 0; state < TARGET; state++) {
+        values.update(state, model.get(state));
+      }
+    }
+  }
+
+  private static long allocatedBytes() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static void assumeAllocationCounting() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  // Samples paths from the first state, restarting whenever the target or a state without successors is reached.
+  private static void sampleStates(UnboundedValues values, List<List<Distribution>> model, int steps) {
+    int state = 0;
+    for (int step = 0; step < steps; step++) {
+      state = values.sampleNextState(state, model.get(state));
+      if (state == -1 || state == TARGET) {
+        state = 0;
+      }
+    }
+  }
+
+  private static void sampleActions(BlackUnboundedReachValues values, List<List<Distribution>> model,
+      SplittableRandom random, int steps) {
+    int state = 0;
+    for (int step = 0; step < steps; step++) {
+      List<Distribution> choices = model.get(state);
+      int action = values.sampleNextAction(state, choices);
+      state = SampleUtil.sample(choices.get(action == -1 ? 0 : action), random.nextDouble());
+      if (state == TARGET) {
+        state = 0;
+      }
+    }
+  }
+
+  private static void assertNearZero(long bytes, String description) {
+    double bytesPerStep = (double) bytes / MEASURED_STEPS;
+    assertTrue(bytesPerStep < MAX_BYTES_PER_STEP,
+        description + " allocated " + bytesPerStep + " bytes per step");
+  }
+
+  @Test
+  public void sampleNextStateDoesNotAllocate() {
+    assumeAllocationCounting();
+    List<List<Distribution>> model = model();
+    IntPredicate target = state -> state == TARGET;
+
+    for (SuccessorHeuristic heuristic : new SuccessorHeuristic[] {SuccessorHeuristic.PROB,
+        SuccessorHeuristic.WEIGHTED, SuccessorHeuristic.DIFFERENCE}) {
+      UnboundedReachValues values = new UnboundedReachValues(ValueUpdate.MAX_VALUE, target, 1.0e-6, heuristic);
+      initializeBounds(values, model);
+      sampleStates(values, model, WARMUP_STEPS);
+
+      long before = allocatedBytes();
+      sampleStates(values, model, MEASURED_STEPS);
+      long allocated = allocatedBytes() - before;
+
+      assertNearZero(allocated, "sampleNextState with " + heuristic);
+    }
+  }
+
+  @Test
+  public void sampleNextStateWithoutSuccessorTreesDoesNotAllocate() {
+    assumeAllocationCounting();
+    List<List<Distribution>> model = model();
+    IntPredicate target = state -> state == TARGET;
+
+    // The concurrent values sample successors by a linear scan of the weights instead of trees.
+    for (SuccessorHeuristic heuristic : new SuccessorHeuristic[] {SuccessorHeuristic.WEIGHTED,
+        SuccessorHeuristic.DIFFERENCE}) {
+      UnboundedReachValues values =
+          new ConcurrentUnboundedReachValues(ValueUpdate.MAX_VALUE, target, 1.0e-6, heuristic);
+      initializeBounds(values, model);
+      sampleStates(values, model, WARMUP_STEPS);
+
+      long before = allocatedBytes();
+      sampleStates(values, model, MEASURED_STEPS);
+      long allocated = allocatedBytes() - before;
+
+      assertNearZero(allocated, "Concurrent sampleNextState with " + heuristic);
+    }
+  }
+
+  @Test
+  public void sampleSingleChoiceByGraphHeuristicDoesNotAllocate() {
+    assumeAllocationCounting();
+    List<List<Distribution>> model = singleChoiceModel();
+    IntPredicate target = state -> state == TARGET;
+
+    for (SuccessorHeuristic heuristic : new SuccessorHeuristic[] {SuccessorHeuristic.GRAPH_WEIGHTED,
+        SuccessorHeuristic.GRAPH_DIFFERENCE}) {
+      UnboundedReachValues values = new UnboundedReachValues(ValueUpdate.MAX_VALUE, target, 1.0e-6, heuristic);
+      initializeBounds(values, model);
+      sampleStates(values, model, WARMUP_STEPS);
+
+      long before = allocatedBytes();
+      sampleStates(values, model, MEASURED_STEPS);
+      long allocated = allocatedBytes() - before;
+
+      assertNearZero(allocated, "sampleNextState of a single choice with " + heuristic);
+    }
+  }
+
+  @Test
+  public void sampleNextActionDoesNotAllocate() {
+    assumeAllocationCounting();
+    List<List<Distribution>> model = model();
+    BlackUnboundedReachValues values = new BlackUnboundedReachValues(ValueUpdate.MAX_VALUE,
+        UpdateMethod.BLACKBOX, state -> state == TARGET, 1.0e-6, SuccessorHeuristic.PROB);
+    initializeBounds(values, model);
+    SplittableRandom random = new SplittableRandom(7);
+    sampleActions(values, model, random, WARMUP_STEPS);
+
+    long before = allocatedBytes();
+    sampleActions(values, model, random, MEASURED_STEPS);
+    long allocated = allocatedBytes() - before;
+
+    assertNearZero(allocated, "sampleNextAction");
+  }
+}
@@ -0,0 +1,100 @@
+package de.tum.in.pet.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.model.DistributionBuilder;
+import de.tum.in.probmodels.model.Distributions;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class AliasTableTest {
+  private static final double TOLERANCE = 1.0e-12;
+
+  private static Distribution distribution(double[] weights) {
+    DistributionBuilder builder = Distributions.defaultBuilder();
+    for (int i = 0; i < weights.length; i++) {
+      builder.add(3 * i + 1, weights[i]);
+    }
+    return builder.build();
+  }
+
+  // Checks that the columns of the table rebuild the distribution: the mass of every successor summed over all
+  // columns, kept by the threshold or taken by the alias, is its normalized probability times the size.
+  private static void assertRebuildsDistribution(double[] weights) {
+    AliasTable table = AliasTable.of(distribution(weights));
+    int size = weights.length;
+    assertEquals(size, table.size());
+
+    Int2DoubleOpenHashMap mass = new Int2DoubleOpenHashMap();
+    for (int column = 0; column < size; column++) {
+      double threshold = table.threshold(column);
+      assertTrue(threshold >= 0.0d && threshold <= 1.0d, "Threshold " + threshold + " of column " + column);
+      mass.addTo(table.successor(column), threshold);
+      mass.addTo(table.successor(table.alias(column)), 1.0d - threshold);
+    }
+
+    double sum = 0.0d;
+    for (double weight : weights) {
+      sum += weight;
+    }
+    assertEquals(size, mass.size());
+    for (int i = 0; i < size; i++) {
+      assertEquals(weights[i] / sum * size, mass.get(3 * i + 1), TOLERANCE * size, "Mass of successor " + i);
+    }
+  }
+
+  @Test
+  public void columnsRebuildRandomDistributions() {
+    Random random = new Random(3);
+    for (int size : new int[] {2, 3, 17, 100, 1000}) {
+      double[] weights = new double[size];
+      double sum = 0.0d;
+      for (int i = 0; i < size; i++) {
+        weights[i] = random.nextDouble() * (i % 5 == 0 ? 10 : 1);
+        sum += weights[i];
+      }
+      for (int i = 0; i < size; i++) {
+        weights[i] /= sum;
+      }
+      assertRebuildsDistribution(weights);
+    }
+  }
+
+  @Test
+  public void columnsRebuildUnnormalizedDistribution() {
+    assertRebuildsDistribution(new double[] {0.1d, 0.05d, 0.3d, 0.02d, 0.2d, 0.06d});
+  }
+
+  @Test
+  public void columnsRebuildSkewedDistribution() {
+    double[] weights = new double[50];
+    weights[0] = 1.0d - 49 * 1.0e-9;
+    for (int i = 1; i < weights.length; i++) {
+      weights[i] = 1.0e-9;
+    }
+    assertRebuildsDistribution(weights);
+  }
+
+  @Test
+  public void columnsRebuildUniformDistribution() {
+    double[] weights = new double[16];
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = 1.0d / weights.length;
+    }
+    assertRebuildsDistribution(weights);
+  }
+
+  @Test
+  public void singleSuccessorIsAlwaysSampled() {
+    assertRebuildsDistribution(new double[] {0.4d});
+
+    AliasTable table = AliasTable.of(distribution(new double[] {0.4d}));
+    assertEquals(1.0d, table.threshold(0));
+    for (double uniform : new double[] {0.0d, 0.25d, 0.5d, Math.nextDown(1.0d)}) {
+      assertEquals(1, table.sample(uniform));
+    }
+  }
+}
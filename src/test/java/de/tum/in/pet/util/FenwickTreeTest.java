@@ -0,0 +1,93 @@
+package de.tum.in.pet.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class FenwickTreeTest {
+  // Draws the index whose interval of the cumulative weights contains the target, by a linear scan.
+  private static int sampleLinear(double[] weights, double uniform) {
+    double total = 0.0d;
+    for (double weight : weights) {
+      total += weight;
+    }
+    double target = uniform * total;
+    double sum = 0.0d;
+    for (int index = 0; index < weights.length; index++) {
+      sum += weights[index];
+      if (target < sum) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  // Checks the sample in the middle of the interval of every index, which is far from any rounding error.
+  private static void assertSamplesMatch(FenwickTree tree, double[] weights) {
+    double total = 0.0d;
+    for (double weight : weights) {
+      total += weight;
+    }
+    assertEquals(total, tree.total(), 1e-9 * total);
+
+    double prefix = 0.0d;
+    for (int index = 0; index < weights.length; index++) {
+      if (weights[index] > 0.0d) {
+        double uniform = (prefix + weights[index] / 2) / total;
+        assertEquals(index, sampleLinear(weights, uniform));
+        assertEquals(index, tree.sample(uniform));
+      }
+      prefix += weights[index];
+    }
+  }
+
+  @Test
+  public void sampleMatchesLinearSampling() {
+    Random random = new Random(42);
+    for (int size : new int[] {1, 2, 3, 7, 16, 100, 1000}) {
+      double[] weights = new double[size];
+      for (int index = 0; index < size; index++) {
+        weights[index] = random.nextInt(4) == 0 ? 0.0d : random.nextDouble();
+      }
+      weights[random.nextInt(size)] = 1.0d;
+      assertSamplesMatch(new FenwickTree(weights), weights);
+    }
+  }
+
+  @Test
+  public void sampleMatchesLinearSamplingAfterUpdates() {
+    Random random = new Random(7);
+    int size = 300;
+    double[] weights = new double[size];
+    for (int index = 0; index < size; index++) {
+      weights[index] = random.nextDouble();
+    }
+    FenwickTree tree = new FenwickTree(weights);
+
+    // More updates than the rebuild interval, so both the incremental and the rebuilt sums are checked.
+    for (int update = 0; update < 3000; update++) {
+      int index = random.nextInt(size);
+      weights[index] = random.nextInt(3) == 0 ? 0.0d : random.nextDouble() * 10;
+      tree.set(index, weights[index]);
+      assertEquals(weights[index], tree.weight(index));
+      if (update % 100 == 0) {
+        assertSamplesMatch(tree, weights);
+      }
+    }
+    assertSamplesMatch(tree, weights);
+  }
+
+  @Test
+  public void zeroWeightsAreNeverSampled() {
+    FenwickTree tree = new FenwickTree(new double[] {0.0d, 1.0d, 0.0d, 0.0d, 2.0d, 0.0d});
+    for (int i = 0; i < 1000; i++) {
+      int index = tree.sample(i / 1000.0d);
+      assertTrue(index == 1 || index == 4);
+    }
+    tree.set(1, 0.0d);
+    tree.set(4, 0.0d);
+    assertEquals(-1, tree.sample(0.5d));
+  }
+}
@@ -0,0 +1,89 @@
+package de.tum.in.pet.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.model.DistributionBuilder;
+import de.tum.in.probmodels.model.Distributions;
+import java.lang.ref.Reference;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class SuccessorWeightsTest {
+  // Large enough to be sampled through a tree.
+  private static final int SIZE = 64;
+
+  private static Distribution distribution(int firstSuccessor) {
+    DistributionBuilder builder = Distributions.defaultBuilder();
+    for (int successor = firstSuccessor; successor < firstSuccessor + SIZE; successor++) {
+      builder.add(successor, (successor % 5 + 1.0d) / (3 * SIZE));
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void sampleFollowsChangedScores() {
+    Random random = new Random(3);
+    double[] scores = new double[SIZE];
+    for (int state = 0; state < SIZE; state++) {
+      scores[state] = random.nextDouble();
+    }
+    SuccessorWeights weights = new SuccessorWeights(state -> scores[state], true);
+    Distribution distribution = distribution(0);
+
+    for (int round = 0; round < 200; round++) {
+      int changed = random.nextInt(SIZE);
+      scores[changed] = random.nextInt(4) == 0 ? 0.0d : random.nextDouble();
+      weights.scoreChanged(changed);
+
+      // Linear weighted sampling over the successors in ascending order, checked in the middle of the interval of
+      // every successor, which is far from any rounding error.
+      double total = 0.0d;
+      for (int state = 0; state < SIZE; state++) {
+        total += distribution.get(state) * scores[state];
+      }
+      double prefix = 0.0d;
+      for (int state = 0; state < SIZE; state++) {
+        double weight = distribution.get(state) * scores[state];
+        if (weight > 0.0d) {
+          assertEquals(state, weights.sample(distribution, (prefix + weight / 2) / total));
+        }
+        prefix += weight;
+      }
+    }
+  }
+
+  @Test
+  public void scoreChangedSkipsTreesOfDiscardedDistributions() throws InterruptedException {
+    AtomicInteger scoreEvaluations = new AtomicInteger();
+    SuccessorWeights weights = new SuccessorWeights(state -> {
+      scoreEvaluations.incrementAndGet();
+      return 1.0d;
+    }, false);
+
+    // A collapse replaces the choices of the states by new distributions over partly the same successors.
+    Distribution kept = distribution(0);
+    Distribution collapsed = distribution(SIZE / 2);
+    weights.sample(kept, 0.5d);
+    weights.sample(collapsed, 0.5d);
+    int shared = SIZE / 2 + 1;
+    assertEquals(2, weights.treeCount(shared));
+    assertEquals(1, weights.treeCount(SIZE + 1));
+
+    collapsed = null;
+    for (int attempt = 0; attempt < 100 && weights.treeCount(shared) > 1; attempt++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(1, weights.treeCount(shared));
+    assertEquals(0, weights.treeCount(SIZE + 1));
+
+    scoreEvaluations.set(0);
+    weights.scoreChanged(shared);
+    assertEquals(1, scoreEvaluations.get());
+    weights.scoreChanged(SIZE + 1);
+    assertEquals(1, scoreEvaluations.get());
+    Reference.reachabilityFence(kept);
+  }
+}